@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Batch mode of Gitlet: runs commands read one per line against one
+ *  loaded story.  Each line is split into words at blanks; a word may be
+ *  quoted with single quotes, or with double quotes inside which a
+ *  backslash escapes the next character.  Blank lines and lines starting
+ *  with # are skipped.
+ *
+ *  The story is saved at the end and, if CHECKPOINT is positive, after
+ *  every CHECKPOINT commands.  A command that fails prints its message
+ *  and the batch goes on.  An atomic batch instead stops at the first
+ *  failure and saves nothing, so that the branches, staging area and
+ *  history are as they were before it; files it already wrote to the
+ *  working directory and objects it stored are left, and the commands
+ *  that rewrite stores (repack, compress and convert) take effect when
+ *  they run.
+ * @author Ryan Chen
+ */
+class Batch {
+    /** Number of commands between saves, or 0 to save only at the end.*/
+    private final int _checkpoint;
+    /** True if the batch stops and saves nothing on a failure.*/
+    private final boolean _atomic;
+    /** Number of commands run.*/
+    private int _commands;
+    /** Number of commands that failed.*/
+    private int _failures;
+
+    /** A batch saving every CHECKPOINT commands, or only at the end if
+     *  it is 0, and all or nothing if ATOMIC. */
+    Batch(int checkpoint, boolean atomic) {
+        _checkpoint = atomic ? 0 : checkpoint;
+        _atomic = atomic;
+    }
+
+    /** Runs the commands read from IN against REPO, whose operations do
+     *  not save on their own, printing what they print.  Returns true if
+     *  none failed. */
+    boolean run(Repository repo, BufferedReader in) {
+        int line = 0;
+        try {
+            for (String text = in.readLine(); text != null;
+                 text = in.readLine()) {
+                line += 1;
+                if (text.isBlank() || text.strip().startsWith("#")) {
+                    continue;
+                }
+                _commands += 1;
+                try {
+                    Main.run(repo, split(text));
+                } catch (GitletException | IllegalArgumentException excp) {
+                    _failures += 1;
+                    System.out.println(excp.getMessage());
+                    if (_atomic) {
+                        System.out.println("Batch stopped at line " + line
+                                + "; no changes were saved.");
+                        return false;
+                    }
+                }
+                if (_checkpoint > 0 && _commands % _checkpoint == 0) {
+                    repo.save();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        repo.save();
+        return _failures == 0;
+    }
+
+    /** Returns the number of commands run. */
+    int getCommands() {
+        return _commands;
+    }
+
+    /** Returns the number of commands that failed. */
+    int getFailures() {
+        return _failures;
+    }
+
+    /** Returns the words of LINE. */
+    static String[] split(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder word = null;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    result.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            if (c == '\'') {
+                int end = line.indexOf('\'', i + 1);
+                if (end < 0) {
+                    throw new GitletException("Unterminated quote.");
+                }
+                word.append(line, i + 1, end);
+                i = end;
+            } else if (c == '"') {
+                for (i += 1; i < line.length() && line.charAt(i) != '"';
+                     i += 1) {
+                    if (line.charAt(i) == '\\' && i + 1 < line.length()) {
+                        i += 1;
+                    }
+                    word.append(line.charAt(i));
+                }
+                if (i == line.length()) {
+                    throw new GitletException("Unterminated quote.");
+                }
+            } else {
+                word.append(c);
+            }
+        }
+        if (word != null) {
+            result.add(word.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,803 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/** Benchmarks of Gitlet, run with java gitlet.Benchmark NAME [SIZE]...
+ *  where NAME is one of
+ *
+ *  merge-base: builds synthetic histories of SIZE commits (10000, 100000
+ *  and 1000000 by default) and times merge base searches over them, both
+ *  through a commit-graph file and without one.
+ *
+ *  story: in an empty directory, builds repositories whose story holds
+ *  SIZE commits (1000, 10000, 100000 and 1000000 by default) and times
+ *  the add and branch commands on them, from loading the story to saving
+ *  it.
+ *
+ *  find: builds message indexes of SIZE commits (10000, 100000 and
+ *  1000000 by default) with random messages and times exact, token and
+ *  substring searches over them, as well as a substring search scanning
+ *  the log without the search index.
+ *
+ *  stage: in an empty directory, adds and commits FILES files of SIZE
+ *  bytes (1 KiB, 1 MiB and 16 MiB by default) and reports the bytes read
+ *  and written by the process, as counted by /proc/self/io, against the
+ *  same files staged as before the staging index: copied into a staging
+ *  folder, then hashed again and copied into the blob store on commit.
+ *
+ *  materialize: writes SIZE files of 64 KiB (1000 and 10000 by default)
+ *  from a deflated blob store into an empty directory, as a checkout
+ *  does, with 1, 4 and 16 threads.
+ *
+ *  scan: lists and hashes SIZE files of 64 KiB (1000 and 10000 by
+ *  default) through an empty stat cache, as add . and status do, with 1,
+ *  4 and 16 threads, and once more through the filled cache.
+ *
+ *  snapshot: lists a working directory of SIZE small files (10000 and
+ *  100000 by default), a tenth of them tracked, as checkout, reset,
+ *  merge and status do, and reports the time taken and the heap the
+ *  listing keeps.
+ *
+ *  daemon: in an empty directory, builds a repository whose story holds
+ *  SIZE commits (1000 and 100000 by default) and times the status
+ *  command run in a new process, through a client process talking to a
+ *  daemon, and through a client within this process.
+ *
+ *  batch: in an empty directory, runs SIZE commands (100 and 1000 by
+ *  default) adding and committing files and making branches, once with
+ *  a process for each command and once as one batch, and reports the
+ *  commands run per second.  Only the first 100 are run one process
+ *  each.
+ *
+ *  compression: in a temporary directory, stores SIZE files of 64 KiB
+ *  (256 by default), once as text and once as random bytes, raw and
+ *  deflated at each level of LEVELS, and reports the bytes on disk and
+ *  the rates at which they are written and read back.
+ *
+ *  The operations of Story and Utils on repositories of various sizes are
+ *  benchmarked with JMH, in benchmarks/.
+ * @author Ryan Chen
+ */
+public class Benchmark {
+    /** Number of branches of the merge-heavy histories.*/
+    private static final int LANES = 4;
+    /** Chance that a commit of a merge-heavy history is a merge.*/
+    private static final double MERGE_RATE = 0.05;
+    /** Words of the random commit messages.*/
+    private static final String[] WORDS = {"parser", "cache", "merge",
+        "index", "race", "typo", "docs", "test", "build", "status"};
+    /** Size of the files of the materialize and scan benchmarks.*/
+    private static final int FILE_SIZE = 64 << 10;
+    /** Deflate levels of the compression benchmark.*/
+    private static final int[] LEVELS = {0, 1, 3, 6, 9};
+    /** Numbers of threads of the materialize and scan benchmarks.*/
+    private static final int[] THREADS = {1, 4, 16};
+    /** Number of files added by the stage benchmark.*/
+    private static final int FILES = 16;
+    /** Largest number of commands the batch benchmark runs one process
+     *  each.*/
+    private static final int PROCESS_COMMANDS = 100;
+    /** Number of timed runs of each benchmark.*/
+    private static final int RUNS = 5;
+    /** Bytes in a mebibyte.*/
+    private static final double MIB = 1 << 20;
+    /** Repository of the working directory.*/
+    private static final Repository REPO = new Repository(Main.CWD);
+
+    /** Runs the benchmark named by the first of ARGS on histories of the
+     *  sizes in the others. */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java gitlet.Benchmark "
+                    + "merge-base|story|find|stage|materialize|scan|snapshot|"
+                    + "daemon|batch|compression [SIZE]...");
+            return;
+        }
+        switch (args[0]) {
+        case "merge-base":
+            for (int count : sizes(args, 10000, 100000, 1000000)) {
+                mergeBase("lanes", lanes(count, new Random(count)), count);
+                mergeBase("fork", fork(count), count);
+            }
+            break;
+        case "story":
+            for (int count : sizes(args, 1000, 10000, 100000, 1000000)) {
+                story(count);
+            }
+            break;
+        case "find":
+            for (int count : sizes(args, 10000, 100000, 1000000)) {
+                find(count, new Random(count));
+            }
+            break;
+        case "stage":
+            for (int size : sizes(args, 1 << 10, 1 << 20, 16 << 20)) {
+                stage(size, new Random(size));
+            }
+            break;
+        case "materialize":
+            for (int count : sizes(args, 1000, 10000)) {
+                materialize(count, new Random(count));
+            }
+            break;
+        case "scan":
+            for (int count : sizes(args, 1000, 10000)) {
+                scan(count, new Random(count));
+            }
+            break;
+        case "snapshot":
+            for (int count : sizes(args, 10000, 100000)) {
+                snapshot(count);
+            }
+            break;
+        case "daemon":
+            for (int count : sizes(args, 1000, 100000)) {
+                daemon(count);
+            }
+            break;
+        case "batch":
+            for (int count : sizes(args, 100, 1000)) {
+                batch(count);
+            }
+            break;
+        case "compression":
+            for (int count : sizes(args, 256)) {
+                compression(count, new Random(count));
+            }
+            break;
+        default:
+            System.out.println("No benchmark named " + args[0] + ".");
+        }
+    }
+
+    /** Returns the sizes given after the name of the benchmark in ARGS,
+     *  or DEFAULTS if there are none. */
+    private static int[] sizes(String[] args, int... defaults) {
+        if (args.length == 1) {
+            return defaults;
+        }
+        int[] result = new int[args.length - 1];
+        for (int i = 1; i < args.length; i += 1) {
+            result[i - 1] = Integer.parseInt(args[i]);
+        }
+        return result;
+    }
+
+    /** Times writing COUNT files of FILE_SIZE bytes, half random and half
+     *  repeated so that they compress, chosen with RANDOM. */
+    private static void materialize(int count, Random random)
+            throws IOException {
+        Path dir = Files.createTempDirectory("gitlet-materialize");
+        try {
+            BlobStore blobs = new BlobStore(dir.resolve("blobs").toFile());
+            blobs.init();
+            TreeMap<String, String> writes = new TreeMap<>();
+            byte[] contents = new byte[FILE_SIZE];
+            File source = dir.resolve("source").toFile();
+            for (int i = 0; i < count; i += 1) {
+                random.nextBytes(contents);
+                Arrays.fill(contents, FILE_SIZE / 2, FILE_SIZE, (byte) i);
+                Utils.writeContents(source, contents);
+                String hash = Utils.sha1(source);
+                blobs.write(hash, source);
+                writes.put(String.format("d%02d/f%05d", i % 64, i), hash);
+            }
+            for (int threads : THREADS) {
+                Materializer materializer = new Materializer(blobs,
+                        dir.resolve("scratch").toFile(), threads);
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < RUNS; i += 1) {
+                    File root = dir.resolve("root" + threads + "-" + i)
+                            .toFile();
+                    long start = System.nanoTime();
+                    materializer.apply(root, writes, List.of());
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("materialize %6d files: %2d threads "
+                        + "%9.1f ms%n", count, threads, best / 1e6);
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder())
+                        .forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /** Stores COUNT files of FILE_SIZE bytes chosen with RANDOM, as text
+     *  and as random bytes, raw and at each deflate level of LEVELS, and
+     *  reports the bytes on disk and the rates of writing and reading. */
+    private static void compression(int count, Random random)
+            throws IOException {
+        for (String corpus : new String[] {"text", "binary"}) {
+            byte[][] files = new byte[count][];
+            for (int i = 0; i < count; i += 1) {
+                if (corpus.equals("text")) {
+                    files[i] = text(random);
+                } else {
+                    files[i] = new byte[FILE_SIZE];
+                    random.nextBytes(files[i]);
+                }
+            }
+            compression(corpus, files, false, 0);
+            for (int level : LEVELS) {
+                compression(corpus, files, true, level);
+            }
+        }
+    }
+
+    /** Reports the bytes on disk and the rates of writing and reading
+     *  FILES of CORPUS in a store deflating them at LEVEL if DEFLATE. */
+    private static void compression(String corpus, byte[][] files,
+                                    boolean deflate, int level)
+            throws IOException {
+        Path dir = Files.createTempDirectory("gitlet-compression");
+        try {
+            String[] hashes = new String[files.length];
+            for (int i = 0; i < files.length; i += 1) {
+                hashes[i] = Utils.sha1(files[i]);
+            }
+            ObjectStore[] store = new ObjectStore[1];
+            int[] run = {0};
+            long write = bestOf(() -> {
+                store[0] = new ObjectStore(dir.resolve("store" + run[0])
+                        .toFile(), deflate, level);
+                store[0].init();
+                run[0] += 1;
+                for (int i = 0; i < files.length; i += 1) {
+                    store[0].write(hashes[i], files[i]);
+                }
+            });
+            long read = bestOf(() -> {
+                for (String hash : hashes) {
+                    store[0].read(hash);
+                }
+            });
+            long disk = 0;
+            for (String hash : hashes) {
+                disk += dir.resolve("store" + (run[0] - 1)).resolve(hash)
+                        .toFile().length();
+            }
+            double mib = (double) files.length * FILE_SIZE / MIB;
+            System.out.printf(Locale.ROOT, "compression %-6s %-4s: %8.2f "
+                    + "MiB on disk (%5.1f%%), write %8.1f MiB/s, read "
+                    + "%8.1f MiB/s%n", corpus,
+                    deflate ? "L" + level : "raw", disk / MIB,
+                    100 * disk / MIB / mib, mib / (write / 1e9),
+                    mib / (read / 1e9));
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+
+    /** Returns FILE_SIZE bytes of text, lines of words of WORDS and
+     *  numbers chosen with RANDOM. */
+    private static byte[] text(Random random) {
+        StringBuilder result = new StringBuilder();
+        while (result.length() < FILE_SIZE) {
+            for (int i = 0; i < 8; i += 1) {
+                result.append(WORDS[random.nextInt(WORDS.length)])
+                        .append(' ');
+            }
+            result.append(random.nextInt(1000)).append('\n');
+        }
+        return result.substring(0, FILE_SIZE).getBytes();
+    }
+
+    /** Times listing and hashing COUNT random files of FILE_SIZE bytes,
+     *  chosen with RANDOM. */
+    private static void scan(int count, Random random) throws IOException {
+        Path dir = Files.createTempDirectory("gitlet-scan");
+        try {
+            byte[] contents = new byte[FILE_SIZE];
+            for (int i = 0; i < count; i += 1) {
+                random.nextBytes(contents);
+                File file = dir.resolve(String.format("d%02d/f%05d",
+                        i % 64, i)).toFile();
+                file.getParentFile().mkdirs();
+                Utils.writeContents(file, contents);
+            }
+            Index index = new Index();
+            for (int threads : THREADS) {
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < RUNS; i += 1) {
+                    index = new Index();
+                    FileScanner scanner = new FileScanner(index, threads,
+                            true);
+                    long start = System.nanoTime();
+                    scanner.scan(dir.toFile(), ".");
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("scan %6d files: %2d threads %9.1f ms%n",
+                        count, threads, best / 1e6);
+            }
+            FileScanner scanner = new FileScanner(index, 1, true);
+            long start = System.nanoTime();
+            scanner.scan(dir.toFile(), ".");
+            System.out.printf("scan %6d files: cached     %9.1f ms%n",
+                    count, (System.nanoTime() - start) / 1e6);
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder())
+                        .forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /** Times listing a working directory of COUNT small files, a tenth
+     *  of them tracked, and reports the heap kept by the listing. */
+    private static void snapshot(int count) throws IOException {
+        Path dir = Files.createTempDirectory("gitlet-snapshot");
+        try {
+            HashMap<String, String> tracked = new HashMap<>();
+            for (int i = 0; i < count; i += 1) {
+                String path = String.format("d%03d/f%07d", i % 512, i);
+                File file = dir.resolve(path).toFile();
+                file.getParentFile().mkdirs();
+                Utils.writeContents(file, path);
+                if (i % 10 == 0) {
+                    tracked.put(path, Utils.sha1(path));
+                }
+            }
+            Staging staged = new Staging();
+            HashSet<String> removed = new HashSet<>();
+            long best = Long.MAX_VALUE;
+            long heap = 0;
+            for (int i = 0; i < RUNS; i += 1) {
+                long before = usedHeap();
+                long start = System.nanoTime();
+                WorkingTreeSnapshot snapshot = new WorkingTreeSnapshot(
+                        dir.toFile(), new FileScanner(new Index(), 1, true),
+                        tracked, staged, removed);
+                snapshot.untracked();
+                best = Math.min(best, System.nanoTime() - start);
+                heap = usedHeap() - before;
+                if (snapshot.paths().size() != count) {
+                    throw new IllegalStateException("wrong listing");
+                }
+            }
+            System.out.printf("snapshot %7d files: %9.1f ms, %6.1f MiB "
+                    + "kept%n", count, best / 1e6, heap / MIB);
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder())
+                        .forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /** Returns the bytes of heap in use after a collection. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Reports the bytes of I/O taken to add and commit FILES files of
+     *  SIZE random bytes chosen with RANDOM, in a repository created in
+     *  the current directory and deleted afterwards. */
+    private static void stage(int size, Random random) throws IOException {
+        if (REPO.getFolder().exists()) {
+            throw new IllegalStateException("run the stage benchmark in "
+                    + "an empty directory");
+        }
+        File[] files = new File[FILES];
+        try {
+            REPO.create();
+            byte[] contents = new byte[size];
+            for (int i = 0; i < FILES; i += 1) {
+                random.nextBytes(contents);
+                files[i] = Utils.join(Main.CWD, "stage" + i + ".bin");
+                Utils.writeContents(files[i], contents);
+            }
+            long[] start = io();
+            Story story = Story.storyFromFile(REPO);
+            for (File file : files) {
+                story.add(file.getName());
+            }
+            story.saveStory();
+            story = Story.storyFromFile(REPO);
+            Commit commit = story.makeCommit("stage");
+            story.updateStory(commit);
+            commit.saveCommit(REPO);
+            story.saveStory();
+            long[] staged = io();
+            File folder = Utils.join(REPO.getFolder(), "benchmark-add");
+            BlobStore blobs = new BlobStore(Utils.join(REPO.getFolder(),
+                    "benchmark-blobs"));
+            blobs.init();
+            folder.mkdirs();
+            Index index = new Index();
+            String[] hashes = new String[FILES];
+            for (int i = 0; i < FILES; i += 1) {
+                hashes[i] = index.hash(files[i]);
+                File copy = Utils.join(folder, files[i].getName());
+                Utils.copyContents(files[i], copy);
+                index.record(copy, hashes[i]);
+            }
+            for (int i = 0; i < FILES; i += 1) {
+                File copy = Utils.join(folder, files[i].getName());
+                blobs.write(hashes[i], copy);
+                copy.delete();
+            }
+            long[] copied = io();
+            if (start == null) {
+                System.out.println("stage: /proc/self/io is not readable.");
+                return;
+            }
+            System.out.printf("stage %3d x %8d bytes: index %7.2f MiB read, "
+                    + "%7.2f MiB written; copies %7.2f MiB read, %7.2f MiB "
+                    + "written%n", FILES, size,
+                    (staged[0] - start[0]) / MIB,
+                    (staged[1] - start[1]) / MIB,
+                    (copied[0] - staged[0]) / MIB,
+                    (copied[1] - staged[1]) / MIB);
+        } finally {
+            for (File file : files) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+            try (Stream<Path> paths = Files.walk(REPO.getFolder().toPath())) {
+                paths.sorted(Comparator.reverseOrder())
+                        .forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /** Returns the bytes read and written by this process so far, or null
+     *  if they are not known. */
+    private static long[] io() {
+        File file = new File("/proc/self/io");
+        if (!file.canRead()) {
+            return null;
+        }
+        long[] result = new long[2];
+        for (String line : Utils.readContentsAsString(file).split("\n")) {
+            if (line.startsWith("rchar:")) {
+                result[0] = Long.parseLong(line.substring(6).trim());
+            } else if (line.startsWith("wchar:")) {
+                result[1] = Long.parseLong(line.substring(6).trim());
+            }
+        }
+        return result;
+    }
+
+    /** Times add and branch in a repository of COUNT commits, created in
+     *  the current directory and deleted afterwards. */
+    private static void story(int count) throws IOException {
+        if (REPO.getFolder().exists()) {
+            throw new IllegalStateException("run the story benchmark in "
+                    + "an empty directory");
+        }
+        try {
+            REPO.create();
+            Story story = Story.storyFromFile(REPO);
+            for (int i = 1; i < count; i += 1) {
+                String hash = Utils.sha1(Integer.toString(i));
+                story.getIds().add(hash);
+                story.getMessages().add("commit " + i, hash);
+            }
+            story.saveStory();
+            File file = Utils.join(Main.CWD, "benchmark.txt");
+            long add = Long.MAX_VALUE;
+            long branch = Long.MAX_VALUE;
+            for (int i = 0; i < RUNS; i += 1) {
+                Utils.writeContents(file, "run " + i);
+                long start = System.nanoTime();
+                story = Story.storyFromFile(REPO);
+                story.add(file.getName());
+                story.saveStory();
+                add = Math.min(add, System.nanoTime() - start);
+                start = System.nanoTime();
+                story = Story.storyFromFile(REPO);
+                story.branch("benchmark" + i);
+                story.saveStory();
+                branch = Math.min(branch, System.nanoTime() - start);
+            }
+            file.delete();
+            System.out.printf("story %8d commits: %7.3f ms add, "
+                    + "%7.3f ms branch%n", count, add / 1e6, branch / 1e6);
+        } finally {
+            try (Stream<Path> paths = Files.walk(REPO.getFolder().toPath())) {
+                paths.sorted(Comparator.reverseOrder())
+                        .forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /** Times status on a repository of COUNT commits, in a new process,
+     *  through a client process and a daemon, and through a client in
+     *  this process and a daemon. */
+    private static void daemon(int count) throws IOException {
+        if (REPO.getFolder().exists()) {
+            throw new IllegalStateException("run the daemon benchmark in "
+                    + "an empty directory");
+        }
+        Thread daemon = new Thread(() -> new Daemon().serve());
+        daemon.setDaemon(true);
+        try {
+            REPO.create();
+            Story story = Story.storyFromFile(REPO);
+            for (int i = 1; i < count; i += 1) {
+                String hash = Utils.sha1(Integer.toString(i));
+                story.getIds().add(hash);
+                story.getMessages().add("commit " + i, hash);
+            }
+            story.saveStory();
+            long process = bestOf(() -> spawn("gitlet.Main", "status"));
+            daemon.start();
+            while (!Client.forward()) {
+                Thread.onSpinWait();
+            }
+            long client = bestOf(() -> spawn("gitlet.Client", "status"));
+            PrintStream console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long inProcess = bestOf(() -> Client.forward("status"));
+            System.setOut(console);
+            System.out.printf("daemon %8d commits: %7.1f ms process, "
+                    + "%7.1f ms client process, %7.3f ms client%n", count,
+                    process / 1e6, client / 1e6, inProcess / 1e6);
+        } finally {
+            if (daemon.isAlive()) {
+                Client.forward("daemon", "stop");
+            }
+            try (Stream<Path> paths = Files.walk(REPO.getFolder().toPath())) {
+                paths.sorted(Comparator.reverseOrder())
+                        .forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /** Reports the commands run per second by COUNT commands run with a
+     *  process for each, at most PROCESS_COMMANDS of them, and as one
+     *  batch. */
+    private static void batch(int count) throws IOException {
+        if (REPO.getFolder().exists()) {
+            throw new IllegalStateException("run the batch benchmark in "
+                    + "an empty directory");
+        }
+        List<String[]> commands = new ArrayList<>();
+        for (int i = 0; commands.size() < count; i += 1) {
+            String name = "batch" + i + ".txt";
+            Utils.writeContents(Utils.join(Main.CWD, name), name);
+            commands.add(new String[] {"add", name});
+            commands.add(new String[] {"commit", "add " + name});
+            if (i % 10 == 0) {
+                commands.add(new String[] {"branch", "b" + i});
+            }
+        }
+        commands = commands.subList(0, count);
+        File script = Utils.join(Main.CWD, "batch.txt");
+        try {
+            int processCount = Math.min(count, PROCESS_COMMANDS);
+            spawn("gitlet.Main", "init");
+            long start = System.nanoTime();
+            for (String[] command : commands.subList(0, processCount)) {
+                spawn("gitlet.Main", command);
+            }
+            long process = System.nanoTime() - start;
+            delete(REPO.getFolder());
+            StringBuilder lines = new StringBuilder();
+            for (String[] command : commands) {
+                lines.append(command[0]).append(" \"")
+                        .append(command[1]).append("\"\n");
+            }
+            Utils.writeContents(script, lines.toString());
+            spawn("gitlet.Main", "init");
+            start = System.nanoTime();
+            spawn("gitlet.Main", "batch", script.getName());
+            long batch = System.nanoTime() - start;
+            System.out.printf("batch %6d commands: %8.1f per second in "
+                    + "processes, %8.1f per second in a batch%n", count,
+                    processCount / (process / 1e9), count / (batch / 1e9));
+        } finally {
+            script.delete();
+            for (int i = 0; i <= count; i += 1) {
+                Utils.join(Main.CWD, "batch" + i + ".txt").delete();
+            }
+            delete(REPO.getFolder());
+        }
+    }
+
+    /** Deletes DIR and everything under it. */
+    private static void delete(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder())
+                    .forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /** Returns the least time taken by RUNS runs of TASK, after one run
+     *  to warm up. */
+    private static long bestOf(Runnable task) {
+        task.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i += 1) {
+            best = Math.min(best, time(task));
+        }
+        return best;
+    }
+
+    /** Runs the main class MAIN of this class path with ARGS in a new
+     *  process, discarding its output, and waits for it to end. */
+    private static void spawn(String main, String... args) {
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java")
+                        .toString(),
+                "-cp", System.getProperty("java.class.path"), main));
+        command.addAll(List.of(args));
+        try {
+            new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start().waitFor();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Times searches of a message index of COUNT commits whose messages
+     *  are chosen with RANDOM. */
+    private static void find(int count, Random random) throws IOException {
+        File file = Files.createTempFile("messages", "").toFile();
+        File index = new File(file.getPath() + ".idx");
+        try {
+            HashMap<String, Set<String>> ids = new HashMap<>();
+            for (int i = 0; i < count; i += 1) {
+                StringBuilder msg = new StringBuilder("Fix");
+                for (int j = 2 + random.nextInt(6); j > 0; j -= 1) {
+                    msg.append(' ').append(WORDS[random.nextInt(WORDS.length)]
+                            + random.nextInt(100));
+                }
+                ids.computeIfAbsent(msg.toString(), k -> new HashSet<>())
+                        .add(Utils.sha1(Integer.toString(i)));
+            }
+            String exact = ids.keySet().iterator().next();
+            long start = System.nanoTime();
+            new MessageIndex(file).create(ids);
+            long build = System.nanoTime() - start;
+            long[] times = new long[4];
+            Arrays.fill(times, Long.MAX_VALUE);
+            for (int i = 0; i < RUNS; i += 1) {
+                times[0] = Math.min(times[0], time(() ->
+                        new MessageIndex(file).find(exact)));
+                times[1] = Math.min(times[1], time(() ->
+                        new MessageIndex(file).findTokens("cache7 race")));
+                times[2] = Math.min(times[2], time(() ->
+                        new MessageIndex(file).grep("ache7 ")));
+            }
+            long indexBytes = index.length();
+            index.delete();
+            for (int i = 0; i < RUNS; i += 1) {
+                times[3] = Math.min(times[3], time(() ->
+                        new MessageIndex(file).grep("ache7 ")));
+            }
+            System.out.printf("find %8d commits: %8.1f ms build, %6d KiB "
+                    + "log, %6d KiB index%n", count, build / 1e6,
+                    file.length() >> 10, indexBytes >> 10);
+            System.out.printf("find %8d commits: %8.3f ms exact, %8.3f ms "
+                    + "token, %8.3f ms grep, %8.3f ms grep by scan%n", count,
+                    times[0] / 1e6, times[1] / 1e6, times[2] / 1e6,
+                    times[3] / 1e6);
+        } finally {
+            file.delete();
+            index.delete();
+        }
+    }
+
+    /** Returns the nanoseconds taken by SEARCH. */
+    private static long time(Runnable search) {
+        long start = System.nanoTime();
+        search.run();
+        return System.nanoTime() - start;
+    }
+
+    /** Times the merge base of the last two tips of HISTORY, a history of
+     *  shape NAME with COUNT commits. */
+    private static void mergeBase(String name, History history, int count)
+            throws IOException {
+        File file = Files.createTempFile("commit-graph", "").toFile();
+        try {
+            new CommitGraph(history._parents::get).write(file,
+                    history._parents.keySet());
+            long loose = Long.MAX_VALUE;
+            long graph = Long.MAX_VALUE;
+            String base = null;
+            for (int i = 0; i < RUNS; i += 1) {
+                long start = System.nanoTime();
+                base = new CommitGraph(history._parents::get)
+                        .mergeBase(history._first, history._second);
+                loose = Math.min(loose, System.nanoTime() - start);
+                start = System.nanoTime();
+                String mapped = CommitGraph.fromFile(file, REPO)
+                        .mergeBase(history._first, history._second);
+                graph = Math.min(graph, System.nanoTime() - start);
+                if (!mapped.equals(base)) {
+                    throw new IllegalStateException("merge bases differ");
+                }
+            }
+            System.out.printf("merge-base %-5s %8d commits: "
+                    + "%9.3f ms loose, %9.3f ms with graph%n",
+                    name, count, loose / 1e6, graph / 1e6);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Returns a history of COUNT commits spread over LANES branches that
+     *  merge into each other now and then, chosen with RANDOM, ending at
+     *  the tips of the first two branches. */
+    private static History lanes(int count, Random random) {
+        History result = new History();
+        String root = result.add(0, null, null);
+        String[] heads = new String[LANES];
+        Arrays.fill(heads, root);
+        for (int i = 1; i < count; i += 1) {
+            int lane = random.nextInt(LANES);
+            String parent2 = null;
+            if (random.nextDouble() < MERGE_RATE) {
+                parent2 = heads[(lane + 1 + random.nextInt(LANES - 1))
+                        % LANES];
+            }
+            heads[lane] = result.add(i, heads[lane], parent2);
+        }
+        result._first = heads[0];
+        result._second = heads[1];
+        return result;
+    }
+
+    /** Returns a history of COUNT commits on two branches that split at
+     *  the root commit. */
+    private static History fork(int count) {
+        History result = new History();
+        String root = result.add(0, null, null);
+        String left = root;
+        String right = root;
+        for (int i = 1; i < count; i += 2) {
+            left = result.add(i, left, null);
+            right = result.add(i + 1, right, null);
+        }
+        result._first = left;
+        result._second = right;
+        return result;
+    }
+
+    /** A synthetic history, and two commits to find the merge base of. */
+    private static class History {
+        /** Parents of each commit.*/
+        private final HashMap<String, String[]> _parents = new HashMap<>();
+        /** First commit of the merge base.*/
+        private String _first;
+        /** Second commit of the merge base.*/
+        private String _second;
+
+        /** Adds commit number I with parents PARENT and PARENT2, and
+         *  returns its hash. */
+        String add(int i, String parent, String parent2) {
+            String hash = Utils.sha1(Integer.toString(i));
+            _parents.put(hash, new String[] {parent, parent2});
+            return hash;
+        }
+    }
+}
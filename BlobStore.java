@@ -0,0 +1,290 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/** Blob store of Gitlet.  A blob is named by the hash of its contents and
+ *  is kept either whole in an object store, or, for large files when
+ *  chunking is enabled with -Dgitlet.chunking=true, as a manifest listing
+ *  content-defined chunks that are stored once and shared between all
+ *  blobs that contain them.
+ *
+ *  A manifest is a magic number, the size of the blob as a long and the
+ *  number of chunks as an int, followed by the 20-byte id and the int
+ *  length of each chunk.
+ * @author Ryan Chen
+ */
+class BlobStore {
+    /** Magic number of a manifest ("GLCK").*/
+    static final int MANIFEST_MAGIC = 0x474c434b;
+    /** True if large files are stored as chunks.*/
+    static final boolean CHUNKING = Boolean.getBoolean("gitlet.chunking");
+    /** Smallest file, in bytes, stored as chunks.*/
+    static final long CHUNK_THRESHOLD =
+            Long.getLong("gitlet.chunkThreshold", 1 << 20);
+
+    /** Folder of the chunk manifests.*/
+    private final File _manifestDir;
+    /** Store of whole blobs.*/
+    private final ObjectStore _whole;
+    /** Store of chunk manifests, named by the hash of the blob.*/
+    private final ObjectStore _manifests;
+    /** Store of chunks, named by the hash of the chunk.*/
+    private final ObjectStore _chunks;
+    /** Number of chunks written since this store was opened.*/
+    private long _chunksWritten;
+    /** Number of chunks found already stored since this store was
+     *  opened.*/
+    private long _chunksShared;
+
+    /** A blob store rooted at DIR. */
+    BlobStore(File dir) {
+        _whole = new ObjectStore(dir, true);
+        _manifestDir = Utils.join(dir, "manifests");
+        _manifests = new ObjectStore(_manifestDir, false);
+        _chunks = new ObjectStore(Utils.join(dir, "chunks"), true);
+    }
+
+    /** Creates the folders of a new, empty store. */
+    void init() {
+        _whole.init();
+        _manifests.init();
+        _chunks.init();
+    }
+
+    /** Returns true if the store holds blob HASH. */
+    boolean contains(String hash) {
+        return _whole.contains(hash) || _manifests.contains(hash);
+    }
+
+    /** Stores the contents of FILE as blob HASH unless it is already
+     *  present, as chunks if chunking is on and FILE is large. */
+    void write(String hash, File file) {
+        if (contains(hash)) {
+            return;
+        }
+        if (!CHUNKING || file.length() < CHUNK_THRESHOLD) {
+            _whole.write(hash, file);
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(
+                Files.newInputStream(file.toPath()))) {
+            writeChunks(hash, file.length(), in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENTS as blob HASH unless it is already present, as
+     *  chunks if chunking is on and CONTENTS is large. */
+    void write(String hash, byte[] contents) {
+        if (contains(hash)) {
+            return;
+        }
+        if (!CHUNKING || contents.length < CHUNK_THRESHOLD) {
+            _whole.write(hash, contents);
+            return;
+        }
+        try {
+            writeChunks(hash, contents.length,
+                    new ByteArrayInputStream(contents));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores the SIZE bytes of IN as blob HASH, made of the chunks it
+     *  is cut into, each stored unless it is already present. */
+    private void writeChunks(String hash, long size, InputStream in)
+        throws IOException {
+        if (!_manifestDir.isDirectory()) {
+            _manifests.init();
+            _chunks.init();
+        }
+        List<String> ids = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        Chunker chunker = new Chunker(in);
+        for (byte[] chunk = chunker.next(); chunk != null;
+             chunk = chunker.next()) {
+            String id = Utils.sha1(chunk);
+            if (_chunks.contains(id)) {
+                _chunksShared += 1;
+            } else {
+                _chunks.write(id, chunk);
+                _chunksWritten += 1;
+            }
+            ids.add(id);
+            lengths.add(chunk.length);
+        }
+        _manifests.write(hash, manifest(size, ids, lengths));
+    }
+
+    /** Batches the writes that follow in memory, to be written as packs,
+     *  until endBatch. */
+    void startBatch() {
+        _whole.startBatch();
+        _manifests.startBatch();
+        _chunks.startBatch();
+    }
+
+    /** Writes the blobs batched as packs, and ends the batch. */
+    void endBatch() {
+        _whole.endBatch();
+        _manifests.endBatch();
+        _chunks.endBatch();
+    }
+
+    /** Returns the contents of blob HASH, or null if there is none. */
+    byte[] read(String hash) {
+        try (InputStream in = open(hash)) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the contents of blob HASH, or null if there
+     *  is none.  Chunked blobs are read one chunk at a time. */
+    InputStream open(String hash) {
+        InputStream whole = _whole.open(hash);
+        if (whole != null) {
+            return whole;
+        }
+        byte[] manifest = _manifests.read(hash);
+        if (manifest == null) {
+            return null;
+        }
+        Iterator<String> ids = chunkIds(manifest).iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return ids.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String id = ids.next();
+                InputStream chunk = _chunks.open(id);
+                if (chunk == null) {
+                    throw new IllegalArgumentException("missing chunk " + id);
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /** Writes blob HASH to FILE. */
+    void copyTo(String hash, File file) {
+        if (_whole.contains(hash)) {
+            _whole.copyTo(hash, file);
+            return;
+        }
+        try (InputStream in = open(hash)) {
+            if (in == null) {
+                throw new GitletException("Trying to copy "
+                        + "a file that doesnt exist");
+            }
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Repacks whole blobs with delta bases BASES, and chunks and
+     *  manifests without deltas. */
+    void repack(Map<String, String> bases) {
+        _whole.repack(bases);
+        _manifests.repack(Collections.emptyMap());
+        _chunks.repack(Collections.emptyMap());
+    }
+
+    /** Rewrites the whole blobs of an uncompressed repository deflated,
+     *  repacking them with delta bases BASES.  Returns the number of
+     *  blobs converted. */
+    int compress(Map<String, String> bases) {
+        return _whole.compress(bases);
+    }
+
+    /** Adds to STATE what shows another process repacked or converted
+     *  this store. */
+    void describe(List<String> state) {
+        _whole.describe(state);
+        _manifests.describe(state);
+        _chunks.describe(state);
+    }
+
+    /** Forgets the packs and markers of this store, so that those written
+     *  by another process are seen. */
+    void refresh() {
+        _whole.refresh();
+        _manifests.refresh();
+        _chunks.refresh();
+    }
+
+    /** Returns the number of chunks written since this store was opened. */
+    long getChunksWritten() {
+        return _chunksWritten;
+    }
+
+    /** Returns the number of chunks that were already stored when written
+     *  since this store was opened. */
+    long getChunksShared() {
+        return _chunksShared;
+    }
+
+    /** Returns a manifest of a blob of SIZE bytes made of the chunks IDS
+     *  with LENGTHS. */
+    private static byte[] manifest(long size, List<String> ids,
+                                   List<Integer> lengths) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeLong(size);
+            out.writeInt(ids.size());
+            for (int i = 0; i < ids.size(); i += 1) {
+                out.write(Pack.toBinary(ids.get(i)));
+                out.writeInt(lengths.get(i));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    /** Returns the ids of the chunks listed in MANIFEST. */
+    private static List<String> chunkIds(byte[] manifest) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(manifest))) {
+            if (in.readInt() != MANIFEST_MAGIC) {
+                throw new IllegalArgumentException("corrupt manifest");
+            }
+            in.readLong();
+            int count = in.readInt();
+            List<String> result = new ArrayList<>(count);
+            byte[] id = new byte[Pack.ID_LENGTH];
+            for (int i = 0; i < count; i += 1) {
+                in.readFully(id);
+                in.readInt();
+                result.add(Pack.toHex(id));
+            }
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
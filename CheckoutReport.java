@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** What a checkout or reset did to the working directory: the files it
+ *  wrote, those it deleted, and how many files of the target commit it
+ *  left alone because they were already up to date.  That number is
+ *  counted from the trees of the target commit when first asked for.
+ * @author Ryan Chen
+ */
+public class CheckoutReport {
+    /** Paths of the files written.*/
+    private final List<String> _written = new ArrayList<>();
+    /** Paths of the files deleted.*/
+    private final List<String> _deleted = new ArrayList<>();
+    /** Store of the trees of the target commit.*/
+    private final ObjectStore _trees;
+    /** Root tree of the target commit, or null if there is none.*/
+    private final String _tree;
+
+    /** A report of a checkout of the commit with root tree TREE in
+     *  TREES, or of nothing if it is null. */
+    CheckoutReport(ObjectStore trees, String tree) {
+        _trees = trees;
+        _tree = tree;
+    }
+
+    /** Records that the file at PATH was written. */
+    void wrote(String path) {
+        _written.add(path);
+    }
+
+    /** Records that the file at PATH was deleted. */
+    void deleted(String path) {
+        _deleted.add(path);
+    }
+
+    /** Returns the paths of the files written. */
+    public List<String> getWritten() {
+        return Collections.unmodifiableList(_written);
+    }
+
+    /** Returns the paths of the files deleted. */
+    public List<String> getDeleted() {
+        return Collections.unmodifiableList(_deleted);
+    }
+
+    /** Returns the number of files of the target commit left alone. */
+    public int getSkipped() {
+        if (_tree == null) {
+            return 0;
+        }
+        return Tree.count(_trees, _tree) - _written.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Wrote %d files, deleted %d, skipped %d.",
+                _written.size(), _deleted.size(), getSkipped());
+    }
+}
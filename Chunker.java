@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Content-defined chunker of Gitlet, after FastCDC.  Cuts a stream where
+ *  a gear hash of the last bytes matches a mask, so that an edit only
+ *  changes the chunks around it.  A stricter mask is used before the
+ *  average size and a looser one after it, which keeps chunk sizes close
+ *  to the average.
+ * @author Ryan Chen
+ */
+class Chunker {
+    /** Smallest chunk, except for the last one.*/
+    static final int MIN_SIZE = 2 << 10;
+    /** Average chunk size.*/
+    static final int AVG_SIZE = 8 << 10;
+    /** Largest chunk.*/
+    static final int MAX_SIZE = 64 << 10;
+    /** Mask used below the average size (15 bits).*/
+    private static final long MASK_SMALL = 0x0003590703530000L;
+    /** Mask used above the average size (11 bits).*/
+    private static final long MASK_LARGE = 0x0000d90003530000L;
+    /** Random values of each byte for the gear hash.  The seed is fixed so
+     *  that the same contents always give the same chunks.*/
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Stream being chunked.*/
+    private final InputStream _in;
+    /** Buffered bytes of the stream.*/
+    private final byte[] _buf = new byte[2 * MAX_SIZE];
+    /** Position of the next unread byte in the buffer.*/
+    private int _pos;
+    /** Number of valid bytes in the buffer.*/
+    private int _limit;
+    /** True once the stream is exhausted.*/
+    private boolean _eof;
+
+    /** A chunker of IN. */
+    Chunker(InputStream in) {
+        _in = in;
+    }
+
+    /** Returns the next chunk, or null at the end of the stream. */
+    byte[] next() throws IOException {
+        fill();
+        int available = _limit - _pos;
+        if (available == 0) {
+            return null;
+        }
+        int length = cut(_buf, _pos, available);
+        byte[] chunk = Arrays.copyOfRange(_buf, _pos, _pos + length);
+        _pos += length;
+        return chunk;
+    }
+
+    /** Returns the length of the chunk starting at START in DATA, of
+     *  which LENGTH bytes are available. */
+    static int cut(byte[] data, int start, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(length, AVG_SIZE);
+        int end = Math.min(length, MAX_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /** Refills the buffer so that it holds at least MAX_SIZE bytes, unless
+     *  the stream ends first. */
+    private void fill() throws IOException {
+        if (_limit - _pos >= MAX_SIZE || _eof) {
+            return;
+        }
+        System.arraycopy(_buf, _pos, _buf, 0, _limit - _pos);
+        _limit -= _pos;
+        _pos = 0;
+        while (_limit < _buf.length) {
+            int n = _in.read(_buf, _limit, _buf.length - _limit);
+            if (n < 0) {
+                _eof = true;
+                break;
+            }
+            _limit += n;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/** Thin client of the Gitlet daemon.  java gitlet.Client ARGS runs the
+ *  command ARGS through the daemon serving the working directory, and
+ *  prints what it prints; if no daemon is running, the command runs in
+ *  this process as with java gitlet.Main ARGS.  Commands that read the
+ *  standard input, which is not sent to the daemon, always run in this
+ *  process.
+ * @author Ryan Chen
+ */
+public class Client {
+    /** Commands run in this process even when a daemon is running.*/
+    static final Set<String> LOCAL = Set.of("batch");
+
+    /** Usage: java gitlet.Client ARGS, where ARGS contains
+     *  <COMMAND> <OPERAND> .... */
+    public static void main(String... args) {
+        if (args.length > 0 && LOCAL.contains(args[0]) || !forward(args)) {
+            Main.main(args);
+        }
+    }
+
+    /** Sends ARGS to the daemon of the working directory, and copies what
+     *  the command prints to the standard output.  With no ARGS, only
+     *  checks that a daemon is running.  Returns false if none is. */
+    static boolean forward(String... args) {
+        return forward(new Repository(Main.CWD), args);
+    }
+
+    /** Sends ARGS to the daemon of REPO, and copies what the command
+     *  prints to the standard output.  With no ARGS, only checks that a
+     *  daemon is running.  Returns false if none is. */
+    static boolean forward(Repository repo, String... args) {
+        PrintStream console = System.out;
+        Path path = repo.getSocketFile().toPath();
+        if (!Files.exists(path)) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(path));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    Channels.newOutputStream(channel));
+            out.writeInt(args.length == 0 ? -1 : args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            channel.shutdownOutput();
+            InputStream in = Channels.newInputStream(channel);
+            in.transferTo(console);
+            console.flush();
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
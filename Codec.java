@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Helpers of the binary formats of Gitlet: varints, strings prefixed
+ *  with their length, and ids as 20 raw bytes.
+ * @author Ryan Chen
+ */
+class Codec {
+    /** First two bytes of an object saved with Java serialization.*/
+    static final int JAVA_MAGIC = 0xaced;
+
+    /** Returns true if BYTES were written with Java serialization. */
+    static boolean isJavaSerialized(byte[] bytes) {
+        return bytes.length >= 2
+                && ((bytes[0] & 0xff) << 8 | (bytes[1] & 0xff)) == JAVA_MAGIC;
+    }
+
+    /** Writes VALUE to OUT as an unsigned LEB128 varint. */
+    static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /** Returns the next varint of IN. */
+    static long readVarint(DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("corrupt varint");
+    }
+
+    /** Returns the next varint of IN, which must be a count that fits an
+     *  int. */
+    static int readCount(DataInput in) throws IOException {
+        long count = readVarint(in);
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IOException("corrupt count");
+        }
+        return (int) count;
+    }
+
+    /** Writes STR to OUT as a varint length and UTF-8 bytes. */
+    static void writeString(DataOutput out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns the next string of IN. */
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readCount(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the full SHA-1 id HASH to OUT as 20 bytes. */
+    static void writeId(DataOutput out, String hash) throws IOException {
+        byte[] id = Pack.toBinary(hash);
+        if (id == null) {
+            throw new IllegalArgumentException("not a full id: " + hash);
+        }
+        out.write(id);
+    }
+
+    /** Returns the next id of IN. */
+    static String readId(DataInput in) throws IOException {
+        byte[] id = new byte[Pack.ID_LENGTH];
+        in.readFully(id);
+        return Pack.toHex(id);
+    }
+
+    /** Returns the next varint of BUF. */
+    static long readVarint(ByteBuffer buf) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("corrupt varint");
+    }
+
+    /** Returns the next string of BUF. */
+    static String readString(ByteBuffer buf) throws IOException {
+        long length = readVarint(buf);
+        if (length < 0 || length > buf.remaining()) {
+            throw new IOException("corrupt string");
+        }
+        byte[] bytes = new byte[(int) length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the next id of BUF. */
+    static String readId(ByteBuffer buf) {
+        byte[] id = new byte[Pack.ID_LENGTH];
+        buf.get(id);
+        return Pack.toHex(id);
+    }
+}
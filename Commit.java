@@ -1,7 +1,15 @@
 package gitlet;
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -12,13 +20,13 @@ import java.util.Collections;
  * @author Ryan Chen
  */
 public class Commit implements Serializable {
-    /** Date format.*/
-    static final SimpleDateFormat DATEFORMAT =
-            new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+    /** Serial version of repositories created before it was pinned.*/
+    private static final long serialVersionUID = 5062374824123160840L;
+    /** Date format, safe to use from several threads.*/
+    static final DateFormat DATEFORMAT =
+            new DateFormat("EEE MMM d HH:mm:ss yyyy Z");
     /** Basic date for empty commit.*/
-    static final Commit EMPTYCOMMIT =
-            new Commit("initial commit", DATEFORMAT.format(new Date(0)),
-            null, new HashMap<String, String>());
+    static final Commit EMPTYCOMMIT = initial();
     /** Message of commit.*/
     private String _message;
     /** Date of commit.*/
@@ -27,10 +35,26 @@ public class Commit implements Serializable {
     private String _parentHash;
     /** 2nd Parent hash of commit.*/
     private String _parent2Hash;
-    /** File name to file hash.*/
+    /** File name to file hash, in commits made before trees.*/
     private HashMap<String, String> _fileNameToFileHash;
+    /** Hash of the root tree, or null in commits made before trees.*/
+    private String _treeHash;
+    /** Root tree written for a commit made before trees.*/
+    private transient String _builtTree;
     /** Hash of commit.*/
     private String _commitHash;
+    /** Repository the commit was read from or saved to.*/
+    private transient Repository _repo;
+    /** Magic number and version of an encoded commit listing its files
+     *  ("GLC" 1).*/
+    static final int MAGIC = 0x474c4301;
+    /** Magic number and version of an encoded commit naming its root
+     *  tree ("GLC" 2).*/
+    static final int TREE_MAGIC = 0x474c4302;
+    /** Flag set if an encoded commit has a parent.*/
+    private static final int HAS_PARENT = 1;
+    /** Flag set if an encoded commit has a second parent.*/
+    private static final int HAS_PARENT2 = 2;
 
     /** The constructor for the Commit class.
      * @param msg is the message of the Commit.
@@ -50,22 +74,80 @@ public class Commit implements Serializable {
             List<String> keyList =
                     new ArrayList<>(_fileNameToFileHash.keySet());
             Collections.sort(keyList);
-            String nameToFile = "";
+            StringBuilder nameToFile = new StringBuilder();
             for (String key : keyList) {
-                nameToFile += "key: " + key + "value: "
-                        + _fileNameToFileHash.get(key);
+                nameToFile.append("key: ").append(key).append("value: ")
+                        .append(_fileNameToFileHash.get(key));
             }
             _commitHash = Utils.sha1(_date
                     + _message + _parentHash + nameToFile);
         }
     }
 
-    /** Returns the fileNameToHash. */
+    /** The constructor of a commit whose files are in a tree.
+     * @param msg is the message of the Commit.
+     * @param parentHash is the parent hash.
+     * @param date is the date the commit was created.
+     * @param treeHash is the hash of the root tree. */
+    public Commit(String msg, String date, String parentHash,
+                  String treeHash) {
+        _message = msg;
+        _date = date;
+        _parentHash = parentHash;
+        _parent2Hash = null;
+        _treeHash = treeHash;
+        _commitHash = Utils.sha1(_date, _message, "parent ",
+                String.valueOf(_parentHash), "tree ", _treeHash);
+    }
+
+    /** Constructor of an empty commit, filled in by decode. */
+    private Commit() {
+    }
+
+    /** Returns a new initial commit, with no parent and no files. */
+    static Commit initial() {
+        return new Commit("initial commit", DATEFORMAT.format(new Date(0)),
+                null, new HashMap<String, String>());
+    }
+
+    /** Returns the fileNameToHash, the path of every file of the commit
+     *  with the hash of its blob.  For a commit with a tree, this is a new
+     *  map read from its trees on each call. */
     public HashMap<String, String> getFileNameToFileHash() {
-        if (_fileNameToFileHash == null) {
-            return null;
+        if (_treeHash == null) {
+            return _fileNameToFileHash;
+        }
+        HashMap<String, String> result = new HashMap<>();
+        Tree.flatten(_repo.getTrees(), _treeHash, "", result);
+        return result;
+    }
+
+    /** Returns the hash of the blob of the file at PATH, or null if the
+     *  commit has no such file.
+     * @param path is the path of the file. */
+    public String getFileHash(String path) {
+        if (_treeHash == null) {
+            return _fileNameToFileHash.get(path);
         }
-        return _fileNameToFileHash;
+        return Tree.lookup(_repo.getTrees(), _treeHash, path);
+    }
+
+    /** Returns the hash of the root tree of the commit, writing the trees
+     *  of a commit made before trees on first use. */
+    public String getTreeHash() {
+        if (_treeHash != null) {
+            return _treeHash;
+        }
+        if (_builtTree == null) {
+            _builtTree = Tree.fromFiles(_repo.getTrees(), _fileNameToFileHash);
+        }
+        return _builtTree;
+    }
+
+    /** Returns the weight of the commit in a commit cache: one plus the
+     *  number of files it holds in memory. */
+    int weight() {
+        return 1 + (_treeHash == null ? _fileNameToFileHash.size() : 0);
     }
 
     /** Returns the commit hash. */
@@ -73,20 +155,167 @@ public class Commit implements Serializable {
         return _commitHash;
     }
 
-    /** Returns the commit from its hash.
+    /** Returns the commit of REPO from its hash.
+     * @param repo is the repository holding the commit.
      * @param hash is the hash of the commit.*/
-    public static Commit fromFile(String hash) {
-        File commitFile = Utils.join(Main.COMMIT_FOLDER, hash);
-        if (!commitFile.exists()) {
+    public static Commit fromFile(Repository repo, String hash) {
+        Commit result = repo.getCommitCache().get(hash);
+        if (result != null) {
+            return result;
+        }
+        byte[] contents = repo.getCommits().read(hash);
+        if (contents == null) {
             return null;
         }
-        return Utils.readObject(commitFile, Commit.class);
+        result = decode(contents);
+        result._repo = repo;
+        repo.getCommitCache().put(result);
+        return result;
     }
 
-    /** Saves the commit object to file.*/
-    public void saveCommit() {
-        Utils.writeObject(Utils.join(Main.COMMIT_FOLDER,
-                this._commitHash), this);
+    /** Returns the commit of REPO from its hash without caching it, for
+     *  scans over every commit.  Returns null if there is no such commit.
+     * @param repo is the repository holding the commit.
+     * @param hash is the hash of the commit.*/
+    public static Commit read(Repository repo, String hash) {
+        Commit result = repo.getCommitCache().get(hash);
+        if (result != null) {
+            return result;
+        }
+        byte[] contents = repo.getCommits().read(hash);
+        if (contents == null) {
+            return null;
+        }
+        result = decode(contents);
+        result._repo = repo;
+        return result;
+    }
+
+    /** Returns the hashes of the parents of commit HASH of REPO, the
+     *  second one null unless it is a merge, without reading its files.
+     *  Returns null if there is no such commit.
+     * @param repo is the repository holding the commit.
+     * @param hash is the hash of the commit.*/
+    public static String[] parentsOf(Repository repo, String hash) {
+        Commit cached = repo.getCommitCache().get(hash);
+        if (cached != null) {
+            return new String[] {cached._parentHash, cached._parent2Hash};
+        }
+        try (InputStream stream = repo.getCommits().open(hash)) {
+            if (stream == null) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(stream);
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != TREE_MAGIC) {
+                Commit commit = fromFile(repo, hash);
+                return new String[] {commit._parentHash, commit._parent2Hash};
+            }
+            in.skipBytes(Pack.ID_LENGTH);
+            int flags = in.readByte();
+            String[] parents = new String[2];
+            if ((flags & HAS_PARENT) != 0) {
+                parents[0] = Codec.readId(in);
+            }
+            if ((flags & HAS_PARENT2) != 0) {
+                parents[1] = Codec.readId(in);
+            }
+            return parents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Saves the commit object to the commit store of REPO.
+     * @param repo is the repository the commit is saved to.*/
+    public void saveCommit(Repository repo) {
+        _repo = repo;
+        repo.getCommits().write(this._commitHash, encode());
+        repo.getCommitCache().put(this);
+    }
+
+    /** Returns this commit in binary form: the magic number, the id, a
+     *  byte of flags, the ids of the parents present, the message, the
+     *  date, then the id of the root tree or, for a commit made before
+     *  trees, the number of files and each file name with the id of its
+     *  blob, in name order. */
+    byte[] encode() {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(_treeHash != null ? TREE_MAGIC : MAGIC);
+            Codec.writeId(out, _commitHash);
+            out.writeByte((_parentHash != null ? HAS_PARENT : 0)
+                    | (_parent2Hash != null ? HAS_PARENT2 : 0));
+            if (_parentHash != null) {
+                Codec.writeId(out, _parentHash);
+            }
+            if (_parent2Hash != null) {
+                Codec.writeId(out, _parent2Hash);
+            }
+            Codec.writeString(out, _message);
+            Codec.writeString(out, _date);
+            if (_treeHash != null) {
+                Codec.writeId(out, _treeHash);
+            } else {
+                writeFiles(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    /** Writes the number of files of this commit made before trees to
+     *  OUT, then each file name with the id of its blob, in name order.
+     * @param out is the stream written. */
+    private void writeFiles(DataOutputStream out) throws IOException {
+        List<String> names = new ArrayList<>(_fileNameToFileHash.keySet());
+        Collections.sort(names);
+        Codec.writeVarint(out, names.size());
+        for (String name : names) {
+            Codec.writeString(out, name);
+            Codec.writeId(out, _fileNameToFileHash.get(name));
+        }
+    }
+
+    /** Returns the commit in BYTES, in binary form or, for repositories
+     *  that have not been converted, saved with Java serialization.
+     * @param bytes are the bytes of the commit.*/
+    static Commit decode(byte[] bytes) {
+        if (Codec.isJavaSerialized(bytes)) {
+            return Utils.deserialize(bytes, Commit.class);
+        }
+        Commit result = new Commit();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != TREE_MAGIC) {
+                throw new IllegalArgumentException("corrupt commit");
+            }
+            result._commitHash = Codec.readId(in);
+            int flags = in.readByte();
+            if ((flags & HAS_PARENT) != 0) {
+                result._parentHash = Codec.readId(in);
+            }
+            if ((flags & HAS_PARENT2) != 0) {
+                result._parent2Hash = Codec.readId(in);
+            }
+            result._message = Codec.readString(in);
+            result._date = Codec.readString(in);
+            if (magic == TREE_MAGIC) {
+                result._treeHash = Codec.readId(in);
+                return result;
+            }
+            int count = Codec.readCount(in);
+            result._fileNameToFileHash = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i += 1) {
+                String name = Codec.readString(in);
+                result._fileNameToFileHash.put(name, Codec.readId(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
     }
 
     /** Returns the parent of the commit. */
@@ -95,7 +324,7 @@ public class Commit implements Serializable {
         if (parentHash == null) {
             return null;
         }
-        return fromFile(parentHash);
+        return fromFile(_repo, parentHash);
     }
 
     /** Returns the hash of the parent of the commit. */
@@ -109,7 +338,7 @@ public class Commit implements Serializable {
         if (parent2Hash == null) {
             return null;
         }
-        return fromFile(parent2Hash);
+        return fromFile(_repo, parent2Hash);
     }
 
     /** Returns the hash of the second parent of the commit. */
@@ -123,6 +352,15 @@ public class Commit implements Serializable {
         this._parent2Hash = parent2Hash;
     }
 
+    /** Returns the time of the commit. */
+    public Date getTime() {
+        try {
+            return DATEFORMAT.parse(_date);
+        } catch (DateTimeParseException excp) {
+            throw new IllegalArgumentException("bad date " + _date);
+        }
+    }
+
     /** Returns the message of the commit. */
     public String getMessage() {
         return _message;
@@ -139,4 +377,27 @@ public class Commit implements Serializable {
         return String.format("===%ncommit %s%nDate: %s%n%s%n",
                 _commitHash, _date, _message);
     }
+
+    /** Immutable format of the dates of commits in the default time zone,
+     *  which unlike SimpleDateFormat may be shared between threads. */
+    static final class DateFormat {
+        /** Formatter of the pattern.*/
+        private final DateTimeFormatter _formatter;
+
+        /** A format of PATTERN, as understood by SimpleDateFormat. */
+        DateFormat(String pattern) {
+            _formatter = DateTimeFormatter.ofPattern(pattern)
+                    .withZone(ZoneId.systemDefault());
+        }
+
+        /** Returns DATE formatted. */
+        String format(Date date) {
+            return _formatter.format(date.toInstant());
+        }
+
+        /** Returns the date TEXT formats. */
+        Date parse(String text) {
+            return Date.from(Instant.from(_formatter.parse(text)));
+        }
+    }
 }
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Cache of decoded commits, evicting the least recently used ones once
+ *  their total weight (one plus the number of files each commit holds in
+ *  memory) goes over a capacity.  All methods may be called from several
+ *  threads.
+ * @author Ryan Chen
+ */
+class CommitCache {
+    /** Default capacity, set with -Dgitlet.commitCache=WEIGHT.*/
+    static final long CAPACITY = Long.getLong("gitlet.commitCache", 1 << 20);
+
+    /** Cached commits by hash, least recently used first.*/
+    private final LinkedHashMap<String, Commit> _commits =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** Largest total weight kept.*/
+    private final long _capacity;
+    /** Total weight of the cached commits.*/
+    private long _weight;
+    /** Number of lookups that found their commit.*/
+    private long _hits;
+    /** Number of lookups that did not.*/
+    private long _misses;
+
+    /** A cache holding commits of total weight at most CAPACITY. */
+    CommitCache(long capacity) {
+        _capacity = capacity;
+    }
+
+    /** Returns the commit HASH, or null if it is not cached. */
+    synchronized Commit get(String hash) {
+        Commit result = _commits.get(hash);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Adds COMMIT to the cache. */
+    synchronized void put(Commit commit) {
+        Commit old = _commits.put(commit.getHash(), commit);
+        if (old != null) {
+            _weight -= weight(old);
+        }
+        _weight += weight(commit);
+        Iterator<Map.Entry<String, Commit>> iter =
+                _commits.entrySet().iterator();
+        while (_weight > _capacity && iter.hasNext()) {
+            _weight -= weight(iter.next().getValue());
+            iter.remove();
+        }
+    }
+
+    /** Empties the cache. */
+    synchronized void clear() {
+        _commits.clear();
+        _weight = 0;
+    }
+
+    /** Returns the number of cached commits. */
+    synchronized int size() {
+        return _commits.size();
+    }
+
+    /** Returns the number of lookups that found their commit. */
+    synchronized long getHits() {
+        return _hits;
+    }
+
+    /** Returns the number of lookups that did not find their commit. */
+    synchronized long getMisses() {
+        return _misses;
+    }
+
+    /** Returns the weight of COMMIT. */
+    private static long weight(Commit commit) {
+        return commit.weight();
+    }
+}
@@ -0,0 +1,447 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/** Commit graph of Gitlet: the parents and the generation number of every
+ *  commit, kept in a memory-mapped side file so that ancestry questions
+ *  never read commit objects.  The generation of a root commit is 1 and
+ *  that of any other commit is one more than the largest generation of
+ *  its parents, so a commit can only be an ancestor of commits with a
+ *  larger generation.
+ *
+ *  The file is a header (magic, version, count), a table of the sorted
+ *  20-byte ids with a fan-out table on their first byte, then the
+ *  positions of the two parents of each commit as ints, -1 for none,
+ *  and the generation of each commit as an int.  Commits made since the
+ *  file was written are read from the commit store instead.
+ *
+ *  Merge bases are found by walking down from both commits at once in
+ *  order of decreasing generation, so that every child of a commit is
+ *  seen before it, and each commit is visited at most once.
+ * @author Ryan Chen
+ */
+class CommitGraph {
+    /** Magic number of a commit-graph file ("GLCG").*/
+    static final int MAGIC = 0x474c4347;
+    /** Version of the commit-graph format.*/
+    static final int VERSION = 1;
+    /** Number of commits read from the commit store after which the file
+     *  is worth rewriting.*/
+    static final int REFRESH = 256;
+    /** Size of the header.*/
+    private static final int HEADER = 12;
+    /** Position of a missing parent.*/
+    private static final int NONE = -1;
+    /** Color of the ancestors of the first commit of a merge base.*/
+    private static final int FIRST = 1;
+    /** Color of the ancestors of the second commit of a merge base.*/
+    private static final int SECOND = 2;
+    /** Color of the common ancestors.*/
+    private static final int BOTH = FIRST | SECOND;
+
+    /** The memory-mapped file, or null if there is none.*/
+    private final MappedByteBuffer _graph;
+    /** Number of commits in the file.*/
+    private final int _count;
+    /** Returns the parents of a commit missing from the file.*/
+    private final Function<String, String[]> _lookup;
+    /** Parents of the commits missing from the file that were read.*/
+    private final HashMap<String, String[]> _parents = new HashMap<>();
+    /** Generations of the commits missing from the file.*/
+    private final HashMap<String, Integer> _generations = new HashMap<>();
+    /** Merge bases found so far, by the concatenated hashes of the two
+     *  commits in sorted order.*/
+    private final HashMap<String, String> _mergeBases = new HashMap<>();
+
+    /** A graph holding no commits, which reads every commit from the
+     *  commit store of REPO. */
+    CommitGraph(Repository repo) {
+        this(hash -> Commit.parentsOf(repo, hash));
+    }
+
+    /** A graph holding no commits, which finds the parents of a commit
+     *  with LOOKUP. */
+    CommitGraph(Function<String, String[]> lookup) {
+        _graph = null;
+        _count = 0;
+        _lookup = lookup;
+    }
+
+    /** Opens the commit-graph FILE, finding the parents of commits
+     *  missing from it with LOOKUP. */
+    private CommitGraph(File file, Function<String, String[]> lookup) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            _graph = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_graph.getInt(0) != MAGIC || _graph.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad commit graph");
+        }
+        _count = _graph.getInt(8);
+        _lookup = lookup;
+    }
+
+    /** Returns the commit graph of REPO stored in FILE, or an empty one
+     *  if there is none. */
+    static CommitGraph fromFile(File file, Repository repo) {
+        return fromFile(file, hash -> Commit.parentsOf(repo, hash));
+    }
+
+    /** Returns the commit graph stored in FILE, or an empty one if there
+     *  is none, finding the parents of commits missing from it with
+     *  LOOKUP. */
+    static CommitGraph fromFile(File file,
+                                Function<String, String[]> lookup) {
+        if (!file.isFile()) {
+            return new CommitGraph(lookup);
+        }
+        return new CommitGraph(file, lookup);
+    }
+
+    /** Returns the number of commits in the file. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the number of commits missing from the file that had to be
+     *  read from the commit store. */
+    int getMissing() {
+        return _parents.size();
+    }
+
+    /** Returns the generation of commit HASH. */
+    int generation(String hash) {
+        int known = knownGeneration(hash);
+        if (known != 0) {
+            return known;
+        }
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(hash);
+        while (!stack.isEmpty()) {
+            String commit = stack.peek();
+            if (knownGeneration(commit) != 0) {
+                stack.pop();
+                continue;
+            }
+            int generation = 1;
+            boolean ready = true;
+            for (String parent : parents(commit)) {
+                if (parent == null) {
+                    continue;
+                }
+                int parentGeneration = knownGeneration(parent);
+                if (parentGeneration == 0) {
+                    stack.push(parent);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, parentGeneration + 1);
+                }
+            }
+            if (ready) {
+                _generations.put(commit, generation);
+                stack.pop();
+            }
+        }
+        return knownGeneration(hash);
+    }
+
+    /** Returns the hashes of the two parents of commit HASH, null where a
+     *  parent is missing. */
+    String[] parents(String hash) {
+        int pos = find(hash);
+        if (pos >= 0) {
+            return new String[] {idAt(parentAt(pos, 0)),
+                idAt(parentAt(pos, 1))};
+        }
+        String[] result = _parents.get(hash);
+        if (result == null) {
+            result = _lookup.apply(hash);
+            if (result == null) {
+                throw new IllegalArgumentException("no commit " + hash);
+            }
+            _parents.put(hash, result);
+        }
+        return result;
+    }
+
+    /** Returns true if commit ANCESTOR is DESCENDANT or can be reached from
+     *  it through parents.  Commits whose generation is below that of
+     *  ANCESTOR are never visited. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int floor = generation(ancestor);
+        if (floor > generation(descendant)) {
+            return false;
+        }
+        int target = find(ancestor);
+        Deque<String> loose = new ArrayDeque<>();
+        HashSet<String> seenLoose = new HashSet<>();
+        Deque<Integer> packed = new ArrayDeque<>();
+        BitSet seenPacked = new BitSet(_count);
+        loose.push(descendant);
+        seenLoose.add(descendant);
+        while (!loose.isEmpty()) {
+            String commit = loose.pop();
+            if (commit.equals(ancestor)) {
+                return true;
+            }
+            int pos = find(commit);
+            if (pos >= 0) {
+                if (!seenPacked.get(pos)) {
+                    seenPacked.set(pos);
+                    packed.push(pos);
+                }
+                continue;
+            }
+            for (String parent : parents(commit)) {
+                if (parent != null && generation(parent) >= floor
+                        && seenLoose.add(parent)) {
+                    loose.push(parent);
+                }
+            }
+        }
+        if (target < 0) {
+            return false;
+        }
+        while (!packed.isEmpty()) {
+            int pos = packed.pop();
+            if (pos == target) {
+                return true;
+            }
+            for (int i = 0; i < 2; i += 1) {
+                int parent = parentAt(pos, i);
+                if (parent != NONE && !seenPacked.get(parent)
+                        && generationAt(parent) >= floor) {
+                    seenPacked.set(parent);
+                    packed.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the merge base of commits FIRST and SECOND: of their
+     *  common ancestors that are not an ancestor of another, the one with
+     *  the largest generation, or the smallest hash among those.  Returns
+     *  null if they have no common ancestor. */
+    String mergeBase(String first, String second) {
+        String key = first.compareTo(second) < 0
+                ? first + second : second + first;
+        if (_mergeBases.containsKey(key)) {
+            return _mergeBases.get(key);
+        }
+        String result = findMergeBase(first, second);
+        _mergeBases.put(key, result);
+        return result;
+    }
+
+    /** Returns the number of merge bases remembered. */
+    int getMergeBasesCached() {
+        return _mergeBases.size();
+    }
+
+    /** Writes to FILE a commit graph of the commits HASHES, which must
+     *  include every parent of each of them, using this graph for the
+     *  commits it already knows. */
+    void write(File file, Collection<String> hashes) {
+        List<String> sorted = new ArrayList<>(hashes);
+        Collections.sort(sorted);
+        File temp = Utils.join(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        temp.toPath())))) {
+            out.writeInt(MAGIC); out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            Pack.writeIds(out, sorted);
+            for (String hash : sorted) {
+                for (String parent : parents(hash)) {
+                    out.writeInt(parent == null ? NONE
+                            : Collections.binarySearch(sorted, parent));
+                }
+            }
+            for (String hash : sorted) {
+                out.writeInt(generation(hash));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the position of HASH in the file, or -1. */
+    private int find(String hash) {
+        return _graph == null ? -1 : Pack.find(_graph, HEADER, hash);
+    }
+
+    /** Returns the merge base of FIRST and SECOND. */
+    private String findMergeBase(String first, String second) {
+        if (first.equals(second)) {
+            return first;
+        }
+        Search search = new Search();
+        search.paint(first, FIRST);
+        search.paint(second, SECOND);
+        return search.run();
+    }
+
+    /** Returns the generation of HASH if it is already known, or 0. */
+    private int knownGeneration(String hash) {
+        int pos = find(hash);
+        if (pos >= 0) {
+            return generationAt(pos);
+        }
+        Integer result = _generations.get(hash);
+        return result == null ? 0 : result;
+    }
+
+    /** Returns the position of parent I of the commit at POS, or NONE. */
+    private int parentAt(int pos, int i) {
+        return _graph.getInt(HEADER + Pack.idsSize(_count)
+                + (pos * 2 + i) * 4);
+    }
+
+    /** Returns the generation of the commit at POS. */
+    private int generationAt(int pos) {
+        return _graph.getInt(HEADER + Pack.idsSize(_count) + _count * 8
+                + pos * 4);
+    }
+
+    /** Returns the id at POS, or null if POS is NONE. */
+    private String idAt(int pos) {
+        if (pos == NONE) {
+            return null;
+        }
+        byte[] id = new byte[Pack.ID_LENGTH];
+        _graph.get(HEADER + Pack.idsSize(0) + pos * Pack.ID_LENGTH, id);
+        return Pack.toHex(id);
+    }
+
+    /** A merge base search, walking down from both commits and stopping
+     *  at the first commit reached from both.  As commits leave the queue
+     *  after all of their descendants, that commit is not an ancestor of
+     *  any other common ancestor.  Commits of the file are followed by
+     *  position without reading their ids. */
+    private class Search {
+        /** Colors of the commits of the file, by position.*/
+        private final byte[] _packed = new byte[_count];
+        /** Colors of the commits missing from the file.*/
+        private final HashMap<String, Integer> _loose = new HashMap<>();
+        /** Commits to visit.*/
+        private final PriorityQueue<Visit> _queue = new PriorityQueue<>();
+
+        /** Adds COLOR to commit HASH, queueing it if it is new. */
+        void paint(String hash, int color) {
+            int pos = find(hash);
+            if (pos >= 0) {
+                paint(pos, color);
+                return;
+            }
+            Integer old = _loose.get(hash);
+            if (old == null) {
+                _loose.put(hash, color);
+                _queue.add(new Visit(hash, NONE, generation(hash)));
+            } else {
+                _loose.put(hash, old | color);
+            }
+        }
+
+        /** Adds COLOR to the commit at POS of the file, queueing it if it
+         *  is new. */
+        void paint(int pos, int color) {
+            if (_packed[pos] == 0) {
+                _queue.add(new Visit(null, pos, generationAt(pos)));
+            }
+            _packed[pos] |= color;
+        }
+
+        /** Returns the merge base, or null if there is none. */
+        String run() {
+            while (!_queue.isEmpty()) {
+                Visit visit = _queue.poll();
+                int pos = visit._pos;
+                int color = pos == NONE ? _loose.get(visit._hash)
+                        : _packed[pos];
+                if (color == BOTH) {
+                    return visit.hash();
+                }
+                if (pos == NONE) {
+                    for (String parent : parents(visit._hash)) {
+                        if (parent != null) {
+                            paint(parent, color);
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < 2; i += 1) {
+                        int parent = parentAt(pos, i);
+                        if (parent != NONE) {
+                            paint(parent, color);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /** A commit waiting to be visited by a merge base search, ordered by
+     *  decreasing generation and then by hash. */
+    private class Visit implements Comparable<Visit> {
+        /** Hash of the commit, or null until needed for commits of the
+         *  file.*/
+        private String _hash;
+        /** Position of the commit in the file, or NONE.*/
+        private final int _pos;
+        /** Generation of the commit.*/
+        private final int _generation;
+
+        /** A visit of commit HASH at POS of GENERATION. */
+        Visit(String hash, int pos, int generation) {
+            _hash = hash;
+            _pos = pos;
+            _generation = generation;
+        }
+
+        /** Returns the hash of the commit. */
+        String hash() {
+            if (_hash == null) {
+                _hash = idAt(_pos);
+            }
+            return _hash;
+        }
+
+        @Override
+        public int compareTo(Visit other) {
+            if (_generation != other._generation) {
+                return Integer.compare(other._generation, _generation);
+            }
+            if (_pos != NONE && other._pos != NONE) {
+                return Integer.compare(_pos, other._pos);
+            }
+            return hash().compareTo(other.hash());
+        }
+    }
+}
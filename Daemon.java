@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/** Daemon of Gitlet: serves the commands of clients in the working
+ *  directory over the Unix domain socket of its repository, which it
+ *  holds open so that the story, the stat cache and the caches of
+ *  commits, trees and objects stay loaded between commands, which run
+ *  one at a time.  A client sends the number of arguments, then each
+ *  argument in modified UTF-8, shuts down its side of the connection,
+ *  and reads what the command prints until the daemon closes the
+ *  connection.  A client that sends no whole request within TIMEOUT
+ *  milliseconds is dropped, so that it cannot hold up the others.  The
+ *  repository reads the story again when another process changed it.
+ * @author Ryan Chen
+ */
+class Daemon {
+    /** Milliseconds a client has to send its request, set with
+     *  -Dgitlet.daemonTimeout=MS.*/
+    static final long TIMEOUT = Long.getLong("gitlet.daemonTimeout", 5000);
+    /** Largest request read, in bytes.*/
+    static final int MAX_REQUEST = 1 << 20;
+
+    /** Repository served.*/
+    private final Repository _repo;
+    /** Milliseconds a client has to send its request.*/
+    private final long _timeout;
+
+    /** A daemon serving the repository of the working directory. */
+    Daemon() {
+        this(new Repository(Main.CWD), TIMEOUT);
+    }
+
+    /** A daemon serving REPO, dropping clients that send no request
+     *  within TIMEOUT milliseconds. */
+    Daemon(Repository repo, long timeout) {
+        _repo = repo;
+        _timeout = timeout;
+    }
+
+    /** Serves commands on the socket of the repository until a client
+     *  sends daemon stop. */
+    void serve() {
+        if (Client.forward(_repo)) {
+            throw new GitletException("A daemon is already running.");
+        }
+        try {
+            Files.deleteIfExists(_repo.getSocketFile().toPath());
+            try (ServerSocketChannel server = ServerSocketChannel.open(
+                    StandardProtocolFamily.UNIX)) {
+                server.bind(UnixDomainSocketAddress.of(
+                        _repo.getSocketFile().toPath()));
+                boolean running = true;
+                while (running) {
+                    SocketChannel channel = server.accept();
+                    try (channel) {
+                        running = handle(channel);
+                    } catch (IOException excp) {
+                        /* The client went away; serve the next one. */
+                    } catch (RuntimeException excp) {
+                        /* Only this command failed; serve the next one. */
+                        excp.printStackTrace();
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(_repo.getSocketFile().toPath());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Runs the command read from CHANNEL, sending back what it prints.
+     *  Returns false if the command was to stop. */
+    private boolean handle(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(request(channel)));
+        int count = in.readInt();
+        if (count < 0) {
+            return true;
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            args[i] = in.readUTF();
+        }
+        if (args.length == 2 && args[0].equals("daemon")
+                && args[1].equals("stop")) {
+            return false;
+        }
+        PrintStream console = System.out;
+        PrintStream out = new PrintStream(Channels.newOutputStream(channel));
+        System.setOut(out);
+        try {
+            execute(args);
+        } finally {
+            System.setOut(console);
+            out.flush();
+        }
+        return true;
+    }
+
+    /** Returns the bytes the client of CHANNEL sends until it shuts down
+     *  its side of the connection.  Throws SocketTimeoutException if that
+     *  takes longer than the timeout, and IOException if it sends more
+     *  than MAX_REQUEST bytes.  Leaves CHANNEL blocking. */
+    private byte[] request(SocketChannel channel) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(_timeout);
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (channel.read(buffer) >= 0) {
+                result.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+                if (result.size() > MAX_REQUEST) {
+                    throw new IOException("request too large");
+                }
+                long left = TimeUnit.NANOSECONDS.toMillis(
+                        deadline - System.nanoTime());
+                if (left <= 0) {
+                    throw new SocketTimeoutException("no request");
+                }
+                selector.select(left);
+                selector.selectedKeys().clear();
+            }
+        }
+        channel.configureBlocking(true);
+        return result.toByteArray();
+    }
+
+    /** Runs the command ARGS on the repository as Main would, printing
+     *  its error message if it fails.  An unexpected failure is reported
+     *  to the client as well, and the daemon goes on. */
+    void execute(String... args) {
+        try {
+            if (args.length == 0) {
+                throw new GitletException("Please enter a command.");
+            } else if (args[0].equals("init")) {
+                Main.checkNumArgs(args, 1);
+                _repo.create();
+            } else if (args[0].equals("daemon")) {
+                throw new GitletException("A daemon is already running.");
+            } else if (!_repo.exists()) {
+                throw new GitletException("Not in "
+                        + "an initialized Gitlet directory.");
+            } else {
+                Main.run(_repo, args);
+            }
+        } catch (GitletException | IllegalArgumentException excp) {
+            System.out.print(excp.getMessage());
+        } catch (RuntimeException excp) {
+            System.out.print("Internal error: " + excp);
+            excp.printStackTrace();
+        }
+    }
+}
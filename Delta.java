@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/** Delta encoding of Gitlet.  A delta rebuilds a target from a base as a
+ *  list of instructions that either copy a run of the base or insert
+ *  literal bytes.
+ *
+ *  A delta starts with the lengths of the base and of the target as
+ *  varints.  Each instruction is a byte, COPY followed by an offset and a
+ *  length, or INSERT followed by a length and that many bytes.
+ * @author Ryan Chen
+ */
+class Delta {
+    /** Instruction inserting literal bytes.*/
+    static final int INSERT = 0;
+    /** Instruction copying bytes from the base.*/
+    static final int COPY = 1;
+    /** Length of the blocks of the base that are indexed.*/
+    static final int BLOCK = 16;
+    /** Multiplier of the rolling hash.*/
+    private static final int PRIME = 31;
+
+    /** Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int j = 0; j + BLOCK <= base.length; j += BLOCK) {
+            blocks.putIfAbsent(hash(base, j), j);
+        }
+        int pow = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            pow *= PRIME;
+        }
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer j = blocks.get(h);
+            if (j != null && same(base, j, target, i, BLOCK)) {
+                int start = j;
+                int len = BLOCK;
+                while (start + len < base.length && i + len < target.length
+                        && base[start + len] == target[i + len]) {
+                    len += 1;
+                }
+                while (start > 0 && i > pending
+                        && base[start - 1] == target[i - 1]) {
+                    start -= 1; i -= 1; len += 1;
+                }
+                insert(out, target, pending, i);
+                copy(out, start, len);
+                i += len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * pow) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the target rebuilt by applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw new IllegalArgumentException("delta base mismatch");
+        }
+        byte[] target = new byte[(int) readVarint(delta, pos)];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = (int) readVarint(delta, pos);
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(base, offset, target, t, len);
+                t += len;
+            } else if (op == INSERT) {
+                int len = (int) readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], target, t, len);
+                pos[0] += len; t += len;
+            } else {
+                throw new IllegalArgumentException("corrupt delta");
+            }
+        }
+        if (t != target.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return target;
+    }
+
+    /** Writes an instruction inserting TARGET[FROM..TO) to OUT. */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /** Writes an instruction copying LEN bytes at OFFSET to OUT. */
+    private static void copy(ByteArrayOutputStream out, int offset,
+                             int len) {
+        out.write(COPY);
+        writeVarint(out, offset);
+        writeVarint(out, len);
+    }
+
+    /** Returns true if the LEN bytes of A at I equal those of B at J. */
+    private static boolean same(byte[] a, int i, byte[] b, int j, int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the rolling hash of the block of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + data[k];
+        }
+        return h;
+    }
+
+    /** Writes VALUE to OUT as an unsigned LEB128 varint. */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /** Returns the varint of DATA at POS[0], advancing POS[0]. */
+    static long readVarint(byte[] data, int[] pos) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = data[pos[0]++];
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("corrupt varint");
+    }
+}
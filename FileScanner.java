@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/** Lists and hashes the files of a working directory.  Listing walks the
+ *  directory once, keeping the attributes of each file; hashing looks
+ *  each file up in the stat cache, and reads only those it misses, on a
+ *  pool of PARALLELISM threads.  The stat cache is only used from the
+ *  calling thread.
+ *
+ *  As in Gitlet before trees, only the files at the top of the working
+ *  directory are listed, unless the scanner is recursive, when the files
+ *  of its subdirectories are listed too.  Commands track files in
+ *  subdirectories only when run with -Dgitlet.recursive=true.
+ * @author Ryan Chen
+ */
+class FileScanner {
+    /** True if commands list the files of subdirectories, set with
+     *  -Dgitlet.recursive=true.*/
+    static final boolean RECURSIVE = Boolean.getBoolean("gitlet.recursive");
+
+    /** Stat cache of the scanned files.*/
+    private final Index _index;
+    /** Number of threads hashing files.*/
+    private final int _parallelism;
+    /** True if the files of subdirectories are listed.*/
+    private final boolean _recursive;
+
+    /** A scanner hashing files through INDEX with PARALLELISM threads,
+     *  which lists the files of subdirectories iff RECURSIVE. */
+    FileScanner(Index index, int parallelism, boolean recursive) {
+        _index = index;
+        _parallelism = Math.max(1, parallelism);
+        _recursive = recursive;
+    }
+
+    /** Returns true if this lists the files of subdirectories. */
+    boolean isRecursive() {
+        return _recursive;
+    }
+
+    /** Returns the attributes of each plain file at or under PATH, which
+     *  is relative to ROOT, by its path relative to ROOT separated by '/',
+     *  skipping .gitlet folders, and the files of subdirectories unless
+     *  this is recursive.  Returns an empty map if there is no file at
+     *  PATH, or if PATH is outside ROOT. */
+    SortedMap<String, BasicFileAttributes> list(File root, String path) {
+        TreeMap<String, BasicFileAttributes> result = new TreeMap<>();
+        walk(root, path, result::put);
+        return result;
+    }
+
+    /** Calls ACTION with the path, relative to ROOT and separated by '/',
+     *  and the attributes of each plain file at or under PATH, which is
+     *  relative to ROOT, as the walk comes to it, skipping .gitlet
+     *  folders, and subdirectories unless this is recursive.  Calls it
+     *  with nothing if PATH is outside ROOT. */
+    void walk(File root, String path,
+              BiConsumer<String, BasicFileAttributes> action) {
+        Path base = root.toPath().toAbsolutePath().normalize();
+        Path start = base.resolve(path).normalize();
+        if (!start.startsWith(base)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir,
+                        BasicFileAttributes attrs) {
+                    Path name = dir.getFileName();
+                    if (name != null && name.toString().equals(".gitlet")
+                            || !_recursive && !dir.equals(base)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()
+                            && (_recursive || base.equals(file.getParent()))) {
+                        action.accept(relative(base, file), attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file,
+                        IOException excp) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the hash of each of FILES, which maps paths relative to
+     *  ROOT to their attributes, by path. */
+    SortedMap<String, String> hash(File root,
+                                   Map<String, BasicFileAttributes> files) {
+        TreeMap<String, String> result = new TreeMap<>();
+        List<String> misses = new ArrayList<>();
+        for (Map.Entry<String, BasicFileAttributes> entry
+                : files.entrySet()) {
+            String hash = _index.cached(Utils.join(root, entry.getKey()),
+                    entry.getValue());
+            if (hash == null) {
+                misses.add(entry.getKey());
+            } else {
+                result.put(entry.getKey(), hash);
+            }
+        }
+        String[] hashes = new String[misses.size()];
+        if (_parallelism == 1 || misses.size() < 2) {
+            for (int i = 0; i < hashes.length; i += 1) {
+                hashes[i] = Utils.sha1(Utils.join(root, misses.get(i)));
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(_parallelism);
+            try {
+                pool.submit(() -> IntStream.range(0, hashes.length)
+                        .parallel()
+                        .forEach(i -> hashes[i] = Utils.sha1(
+                                Utils.join(root, misses.get(i))))).get();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException("interrupted");
+            } catch (ExecutionException excp) {
+                Throwable cause = excp.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalArgumentException(cause.getMessage());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (int i = 0; i < hashes.length; i += 1) {
+            String path = misses.get(i);
+            _index.hashed(Utils.join(root, path), files.get(path),
+                    hashes[i]);
+            result.put(path, hashes[i]);
+        }
+        return result;
+    }
+
+    /** Returns the hash of each plain file at or under PATH, relative to
+     *  ROOT, by path. */
+    SortedMap<String, String> scan(File root, String path) {
+        return hash(root, list(root, path));
+    }
+
+    /** Returns the path of FILE relative to BASE, separated by '/'. */
+    private static String relative(Path base, Path file) {
+        StringBuilder result = new StringBuilder();
+        for (Path name : base.relativize(file)) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(name);
+        }
+        return result.toString();
+    }
+}
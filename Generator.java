@@ -0,0 +1,472 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/** Generator of synthetic Gitlet repositories, for testing at scale and
+ *  for regression tests, run with java gitlet.Generator DIR [OPTION
+ *  VALUE]...  It makes a new repository in DIR and writes its blobs,
+ *  trees and commits straight through the object layer, without staging
+ *  anything, in batches written as packs.  It then records the branches
+ *  in the story and checks out the head of master.  The same options
+ *  always give the same repository, down to the ids of its commits in a
+ *  given time zone.  The options, with their defaults, are
+ *
+ *  --seed (1): seed of the random choices.
+ *
+ *  --commits (1000): number of commits made after the initial one.  The
+ *  first adds the initial files to master.
+ *
+ *  --files (1000): number of initial files.
+ *
+ *  --branch-rate (0.05): chance that a commit starts a new branch from
+ *  the head of the branch it was to go on.  Each other commit goes on a
+ *  branch picked at random among those not merged yet.
+ *
+ *  --merge-rate (0.02): chance that a commit merges another branch not
+ *  merged yet, which takes no more commits unless it is master.  A merge
+ *  commit keeps the files of its first parent, with its own changes.
+ *
+ *  --churn (5): mean number of files each commit changes.
+ *
+ *  --add-rate (0.1) and --delete-rate (0.05): chances that a change adds
+ *  a new file or deletes one; every other change rewrites a file.
+ *
+ *  --depth (0, or 2 with -Dgitlet.recursive=true) and --fanout (16):
+ *  files lie DEPTH directories deep, with FANOUT directories at each
+ *  level.  Commands see files in subdirectories only when recursive.
+ *
+ *  --size (4096), --size-sigma (1.0) and --max-size (1048576): file sizes
+ *  are log-normal around SIZE bytes with shape SIZE-SIGMA, at most
+ *  MAX-SIZE bytes.
+ *
+ *  --large-rate (0) and --large-size (1073741824): chance that a file
+ *  instead has LARGE-SIZE bytes.  Such files are streamed into the store
+ *  through a scratch file, so they may be larger than memory.
+ *
+ *  --words (a list of common words) and --message-words (4): commit
+ *  messages are MESSAGE-WORDS words drawn from the comma-separated WORDS.
+ *
+ *  --threads (gitlet.parallelism): number of threads.  The blobs of each
+ *  commit are written in parallel, and the trees and commits of the
+ *  branches in parallel with each other, as soon as their parents are.
+ *
+ *  --checkout (true): false leaves the working directory empty.
+ * @author Ryan Chen
+ */
+public class Generator {
+    /** Default words of the commit messages.*/
+    static final String WORDS = "add,fix,remove,update,refactor,test,docs,"
+            + "clean,speed,up,parser,cache,index,store,tree,branch,merge,"
+            + "status,log,config,build,error,handling,edge,case";
+    /** Number of commits planned before the previous ones are waited for
+     *  and recorded.*/
+    private static final int BATCH = 1024;
+    /** Largest blob made in memory.*/
+    private static final long IN_MEMORY = 16 << 20;
+    /** Size of the blocks a larger blob is written in.*/
+    private static final int BLOCK = 1 << 16;
+    /** Time of the first commit, in milliseconds.*/
+    private static final long START = 1500000000000L;
+    /** Largest gap between two commits, in seconds.*/
+    private static final int GAP = 3600;
+
+    /** Repository generated.*/
+    private final Repository _repo;
+    /** Source of the random choices.*/
+    private final Random _random;
+    /** Number of commits made after the initial one.*/
+    private final int _commits;
+    /** Number of initial files.*/
+    private final int _files;
+    /** Chance that a commit starts a new branch.*/
+    private final double _branchRate;
+    /** Chance that a commit merges another branch.*/
+    private final double _mergeRate;
+    /** Mean number of files changed by a commit.*/
+    private final int _churn;
+    /** Chance that a change adds a new file.*/
+    private final double _addRate;
+    /** Chance that a change deletes a file.*/
+    private final double _deleteRate;
+    /** Depth of the directories of the files.*/
+    private final int _depth;
+    /** Number of directories at each level.*/
+    private final int _fanout;
+    /** Median size of a file.*/
+    private final long _size;
+    /** Shape of the distribution of file sizes.*/
+    private final double _sizeSigma;
+    /** Largest size of a file, but for large ones.*/
+    private final long _maxSize;
+    /** Chance that a file is large.*/
+    private final double _largeRate;
+    /** Size of a large file.*/
+    private final long _largeSize;
+    /** Words of the commit messages.*/
+    private final String[] _words;
+    /** Number of words of a commit message.*/
+    private final int _messageWords;
+    /** Number of threads.*/
+    private final int _threads;
+    /** True if the head of master is checked out.*/
+    private final boolean _checkout;
+
+    /** Names of the branches, by lane.*/
+    private final List<String> _lanes = new ArrayList<>();
+    /** Lanes not merged yet.*/
+    private final List<Integer> _active = new ArrayList<>();
+    /** Head of each lane, once it is made.*/
+    private final List<CompletableFuture<Commit>> _heads = new ArrayList<>();
+    /** Commits of the batch, in order.*/
+    private final List<CompletableFuture<Commit>> _batch = new ArrayList<>();
+    /** Lane of each commit of the batch.*/
+    private final List<Integer> _batchLanes = new ArrayList<>();
+    /** Number of blobs written.*/
+    private final AtomicLong _blobs = new AtomicLong();
+    /** Number of file paths used so far.*/
+    private int _nextFile;
+    /** Time of the last commit, in milliseconds.*/
+    private long _time = START;
+    /** Threads making blobs, trees and commits.*/
+    private ForkJoinPool _pool;
+
+    /** A generator of the new repository REPO with OPTIONS, mapping the
+     *  option names above to their values. */
+    Generator(Repository repo, Map<String, String> options) {
+        Map<String, String> rest = new HashMap<>(options);
+        _repo = repo;
+        _random = new Random(Long.parseLong(option(rest, "--seed", "1")));
+        _commits = Integer.parseInt(option(rest, "--commits", "1000"));
+        _files = Integer.parseInt(option(rest, "--files", "1000"));
+        _branchRate = Double.parseDouble(option(rest, "--branch-rate",
+                "0.05"));
+        _mergeRate = Double.parseDouble(option(rest, "--merge-rate", "0.02"));
+        _churn = Integer.parseInt(option(rest, "--churn", "5"));
+        _addRate = Double.parseDouble(option(rest, "--add-rate", "0.1"));
+        _deleteRate = Double.parseDouble(option(rest, "--delete-rate",
+                "0.05"));
+        _depth = Integer.parseInt(option(rest, "--depth",
+                FileScanner.RECURSIVE ? "2" : "0"));
+        _fanout = Math.max(1, Integer.parseInt(option(rest, "--fanout",
+                "16")));
+        _size = Long.parseLong(option(rest, "--size", "4096"));
+        _sizeSigma = Double.parseDouble(option(rest, "--size-sigma", "1.0"));
+        _maxSize = Long.parseLong(option(rest, "--max-size", "1048576"));
+        _largeRate = Double.parseDouble(option(rest, "--large-rate", "0"));
+        _largeSize = Long.parseLong(option(rest, "--large-size",
+                "1073741824"));
+        _words = option(rest, "--words", WORDS).split(",");
+        _messageWords = Math.max(1, Integer.parseInt(option(rest,
+                "--message-words", "4")));
+        _threads = Math.max(1, Integer.parseInt(option(rest, "--threads",
+                String.valueOf(Materializer.PARALLELISM))));
+        _checkout = Boolean.parseBoolean(option(rest, "--checkout", "true"));
+        if (!rest.isEmpty()) {
+            throw new IllegalArgumentException("unknown option "
+                    + new TreeMap<>(rest).firstKey());
+        }
+    }
+
+    /** Generates a repository in DIR with the options given as pairs of
+     *  ARGS after it, and reports what it wrote and the time taken. */
+    public static void main(String... args) {
+        if (args.length % 2 == 0) {
+            System.out.println("Usage: java gitlet.Generator DIR "
+                    + "[OPTION VALUE]...");
+            return;
+        }
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i += 2) {
+            options.put(args[i], args[i + 1]);
+        }
+        try {
+            File dir = new File(args[0]);
+            dir.mkdirs();
+            long start = System.nanoTime();
+            Generator generator = new Generator(Repository.init(dir),
+                    options);
+            Commit head = generator.run();
+            System.out.printf("Generated %d commits on %d branches with %d "
+                    + "blobs in %.1f s; master is at %s.%n",
+                    generator._commits + 1, generator._lanes.size(),
+                    generator._blobs.get(),
+                    (System.nanoTime() - start) / 1e9, head.getHash());
+        } catch (GitletException | IllegalArgumentException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Generates the commits, records them and checks out the head of
+     *  master, and returns that head. */
+    Commit run() {
+        Story story = _repo.getStory();
+        String master = story.getCurrentPointer();
+        _lanes.add(master);
+        _active.add(0);
+        _heads.add(CompletableFuture.completedFuture(
+                story.getCurrentCommit()));
+        _pool = new ForkJoinPool(_threads);
+        _repo.getBlobs().startBatch();
+        _repo.getTrees().startBatch();
+        _repo.getCommits().startBatch();
+        try {
+            for (int i = 0; i <= _commits; i += 1) {
+                plan(i == 0);
+                if (_batch.size() == BATCH || i == _commits) {
+                    record(story);
+                }
+            }
+        } finally {
+            _pool.shutdown();
+            _repo.getBlobs().endBatch();
+            _repo.getTrees().endBatch();
+            _repo.getCommits().endBatch();
+        }
+        story.getGraph().write(_repo.getGraphFile(), story.getIds().all());
+        Commit head = story.getCommitFromBranch(master);
+        if (_checkout) {
+            checkout(story, head);
+        }
+        _repo.save();
+        return head;
+    }
+
+    /** Plans the next commit, the one adding the initial files if FIRST,
+     *  and adds it to the batch, to be made once its parents are. */
+    private void plan(boolean first) {
+        TreeMap<String, Content> changes = new TreeMap<>();
+        int lane = _active.get(_random.nextInt(_active.size()));
+        int other = -1;
+        String message;
+        if (first) {
+            for (int i = 0; i < _files; i += 1) {
+                changes.put(path(_nextFile++), content());
+            }
+            message = "Add the initial files.";
+        } else {
+            if (_random.nextDouble() < _branchRate) {
+                lane = branch(lane);
+            } else if (_active.size() > 1
+                    && _random.nextDouble() < _mergeRate) {
+                do {
+                    other = _active.get(_random.nextInt(_active.size()));
+                } while (other == lane);
+                if (other != 0) {
+                    _active.remove(Integer.valueOf(other));
+                }
+            }
+            int count = _churn <= 1 ? _churn
+                    : 1 + _random.nextInt(2 * _churn - 1);
+            for (int i = 0; i < count; i += 1) {
+                change(changes);
+            }
+            message = other < 0 ? message() : "Merged " + _lanes.get(other)
+                    + " into " + _lanes.get(lane) + ".";
+        }
+        _time += 1000L * (1 + _random.nextInt(GAP));
+        String date = Commit.DATEFORMAT.format(new Date(_time));
+        CompletableFuture<Commit> merged = other < 0
+                ? CompletableFuture.completedFuture(null) : _heads.get(other);
+        CompletableFuture<HashMap<String, String>> files =
+                CompletableFuture.supplyAsync(() -> blobs(changes), _pool);
+        CompletableFuture<Commit> made = _heads.get(lane)
+                .thenCombine(merged, (parent, second) ->
+                        new Commit[] {parent, second})
+                .thenCombineAsync(files, (parents, blobs) ->
+                        commit(message, date, parents[0], parents[1], blobs),
+                        _pool);
+        _heads.set(lane, made);
+        _batch.add(made);
+        _batchLanes.add(lane);
+    }
+
+    /** Starts a new lane at the head of lane FROM, and returns it. */
+    private int branch(int from) {
+        int result = _lanes.size();
+        _lanes.add("branch-" + result);
+        _heads.add(_heads.get(from));
+        _active.add(result);
+        return result;
+    }
+
+    /** Adds to CHANGES a file added, deleted or rewritten. */
+    private void change(TreeMap<String, Content> changes) {
+        double roll = _random.nextDouble();
+        if (_nextFile == 0 || roll < _addRate) {
+            changes.put(path(_nextFile++), content());
+        } else {
+            String path = path(_random.nextInt(_nextFile));
+            changes.put(path, roll < _addRate + _deleteRate ? null
+                    : content());
+        }
+    }
+
+    /** Returns the path of file number K. */
+    private String path(int k) {
+        StringBuilder result = new StringBuilder();
+        int rest = k;
+        for (int i = 0; i < _depth; i += 1) {
+            result.append('d').append(rest % _fanout).append('/');
+            rest /= _fanout;
+        }
+        return result.append('f').append(k).append(".txt").toString();
+    }
+
+    /** Returns the contents of a new file, of a random size. */
+    private Content content() {
+        long size;
+        if (_random.nextDouble() < _largeRate) {
+            size = _largeSize;
+        } else {
+            size = Math.min(_maxSize, Math.round(_size
+                    * Math.exp(_sizeSigma * _random.nextGaussian())));
+        }
+        return new Content(_random.nextLong(), size);
+    }
+
+    /** Returns a commit message of random words. */
+    private String message() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < _messageWords; i += 1) {
+            result.append(i == 0 ? "" : " ")
+                    .append(_words[_random.nextInt(_words.length)]);
+        }
+        return result.append('.').toString();
+    }
+
+    /** Writes the blob of each file of CHANGES in parallel, and returns a
+     *  map from each path to its blob id, or to null if it is deleted. */
+    private HashMap<String, String> blobs(TreeMap<String, Content> changes) {
+        String[] paths = changes.keySet().toArray(new String[0]);
+        Content[] contents = changes.values().toArray(new Content[0]);
+        String[] hashes = new String[paths.length];
+        IntStream.range(0, paths.length).parallel().forEach(i ->
+                hashes[i] = contents[i] == null ? null : blob(contents[i]));
+        HashMap<String, String> result = new HashMap<>();
+        for (int i = 0; i < paths.length; i += 1) {
+            result.put(paths[i], hashes[i]);
+        }
+        return result;
+    }
+
+    /** Writes the blob of CONTENT and returns its id. */
+    private String blob(Content content) {
+        Random random = new Random(content._seed);
+        _blobs.incrementAndGet();
+        if (content._size <= IN_MEMORY) {
+            byte[] bytes = new byte[(int) content._size];
+            random.nextBytes(bytes);
+            String hash = Utils.sha1(bytes);
+            _repo.getBlobs().write(hash, bytes);
+            return hash;
+        }
+        File scratch = Utils.join(_repo.getScratchFolder(),
+                "generated-" + Long.toHexString(content._seed));
+        scratch.getParentFile().mkdirs();
+        try {
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(scratch.toPath()), BLOCK)) {
+                byte[] block = new byte[BLOCK];
+                for (long left = content._size; left > 0;
+                     left -= BLOCK) {
+                    random.nextBytes(block);
+                    out.write(block, 0, (int) Math.min(left, BLOCK));
+                }
+            }
+            String hash = Utils.sha1(scratch);
+            _repo.getBlobs().write(hash, scratch);
+            return hash;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            scratch.delete();
+        }
+    }
+
+    /** Saves and returns the commit with MESSAGE and DATE whose parents
+     *  are PARENT and SECOND, if not null, holding the files of PARENT
+     *  with the CHANGES made. */
+    private Commit commit(String message, String date, Commit parent,
+                          Commit second, HashMap<String, String> changes) {
+        String tree = Tree.update(_repo.getTrees(), parent.getTreeHash(),
+                changes);
+        Commit result = new Commit(message, date, parent.getHash(), tree);
+        if (second != null) {
+            result.setParent2Hash(second.getHash());
+        }
+        result.saveCommit(_repo);
+        return result;
+    }
+
+    /** Waits for the commits of the batch and records them in STORY, in
+     *  order, each as the head of its branch. */
+    private void record(Story story) {
+        for (int i = 0; i < _batch.size(); i += 1) {
+            Commit commit;
+            try {
+                commit = _batch.get(i).join();
+            } catch (CompletionException excp) {
+                if (excp.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) excp.getCause();
+                }
+                throw excp;
+            }
+            story.recordCommit(_lanes.get(_batchLanes.get(i)), commit);
+        }
+        _batch.clear();
+        _batchLanes.clear();
+        _repo.getCommitCache().clear();
+    }
+
+    /** Writes the files of HEAD into the empty working directory and
+     *  records them in the stat cache of STORY. */
+    private void checkout(Story story, Commit head) {
+        TreeMap<String, String> files = new TreeMap<>();
+        Tree.flatten(_repo.getTrees(), head.getTreeHash(), "", files);
+        new Materializer(_repo.getBlobs(), _repo.getScratchFolder(), _threads)
+                .apply(_repo.getRoot(), files, List.of());
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            story.getIndex().record(Utils.join(_repo.getRoot(),
+                    entry.getKey()), entry.getValue());
+        }
+    }
+
+    /** Removes option NAME from OPTIONS and returns its value, or
+     *  DEFAULTVALUE if it is not there. */
+    private static String option(Map<String, String> options, String name,
+                                 String defaultValue) {
+        String value = options.remove(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /** Contents of a generated file: SIZE bytes drawn from a generator
+     *  seeded with SEED. */
+    private static class Content {
+        /** Seed of the bytes.*/
+        private final long _seed;
+        /** Number of bytes.*/
+        private final long _size;
+
+        /** The contents of SIZE bytes drawn with SEED. */
+        Content(long seed, long size) {
+            _seed = seed;
+            _size = Math.max(0, size);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/** Sorted index of commit ids, used to resolve abbreviated ids with a
+ *  binary search.
+ *
+ *  The file is a header (magic, version, count), a table of COUNT sorted
+ *  20-byte ids with a fan-out table on their first byte, then the ids
+ *  added since the table was written, unsorted.  Added ids are appended
+ *  to the file, and the whole file is rewritten sorted once there are
+ *  MERGE_THRESHOLD of them.
+ * @author Ryan Chen
+ */
+class IdIndex implements Iterable<String> {
+    /** Magic number of an id index ("GLID").*/
+    static final int MAGIC = 0x474c4944;
+    /** Version of the id index format.*/
+    static final int VERSION = 1;
+    /** Number of unsorted ids after which the file is rewritten.*/
+    static final int MERGE_THRESHOLD = 1024;
+    /** Size of the header.*/
+    private static final int HEADER = 12;
+    /** Number of hex digits of a full id.*/
+    private static final int HEX_LENGTH = 2 * Pack.ID_LENGTH;
+
+    /** The index file.*/
+    private final File _file;
+    /** The memory-mapped file, or null if there is none.*/
+    private MappedByteBuffer _table;
+    /** Number of ids in the sorted table.*/
+    private int _count;
+    /** Ids that follow the sorted table, in memory.*/
+    private final TreeSet<String> _recent = new TreeSet<>();
+    /** Ids added since the index was loaded.*/
+    private final List<String> _pending = new ArrayList<>();
+
+    /** Opens the id index stored in FILE, empty if there is none. */
+    IdIndex(File file) {
+        _file = file;
+        if (file.isFile()) {
+            load();
+        }
+    }
+
+    /** Returns the number of ids in the index. */
+    int size() {
+        return _count + _recent.size();
+    }
+
+    /** Adds the full id HASH to the index, unless it is there already. */
+    void add(String hash) {
+        if (!contains(hash)) {
+            _recent.add(hash);
+            _pending.add(hash);
+        }
+    }
+
+    /** Returns true if the index holds the full id HASH. */
+    boolean contains(String hash) {
+        return _recent.contains(hash)
+                || (_table != null && Pack.find(_table, HEADER, hash) >= 0);
+    }
+
+    /** Returns the full id starting with PREFIX.  Throws a
+     *  GitletException if there is none, or more than one. */
+    String resolve(String prefix) {
+        String lower = prefix.toLowerCase();
+        List<String> matches = new ArrayList<>(2);
+        if (isHex(lower)) {
+            int pos = lowerBound(lower);
+            for (int i = pos; i < pos + 2 && i < _count; i += 1) {
+                String id = idAt(i);
+                if (id.startsWith(lower)) {
+                    matches.add(id);
+                }
+            }
+            for (String id : _recent.tailSet(lower)) {
+                if (!id.startsWith(lower) || matches.size() > 1) {
+                    break;
+                }
+                matches.add(id);
+            }
+        }
+        if (matches.isEmpty()) {
+            throw new GitletException("No commit with that id exists.");
+        } else if (matches.size() > 1) {
+            throw new GitletException("Commit id " + prefix
+                    + " is ambiguous.");
+        }
+        return matches.get(0);
+    }
+
+    /** Returns the shortest prefix of the id HASH, of at least MIN
+     *  digits, that no other id of the index starts with. */
+    String abbreviate(String hash, int min) {
+        int length = Math.max(1, min);
+        int pos = lowerBound(hash);
+        for (int i = pos - 1; i <= pos + 1; i += 1) {
+            if (i >= 0 && i < _count) {
+                length = Math.max(length, distinct(hash, idAt(i)));
+            }
+        }
+        String lowerId = _recent.lower(hash);
+        String higherId = _recent.higher(hash);
+        if (lowerId != null) {
+            length = Math.max(length, distinct(hash, lowerId));
+        }
+        if (higherId != null) {
+            length = Math.max(length, distinct(hash, higherId));
+        }
+        return hash.substring(0, Math.min(length, hash.length()));
+    }
+
+    /** Returns an iterator over the ids of the table in order, then over
+     *  those added since it was written, reading one id at a time.  It
+     *  holds the ids as they are when it is made, so the index may be
+     *  changed and saved while it is used. */
+    @Override
+    public Iterator<String> iterator() {
+        MappedByteBuffer table = _table;
+        int count = _count;
+        Iterator<String> recent = new ArrayList<>(_recent).iterator();
+        return new Iterator<>() {
+            /** Position of the next id of the table.*/
+            private int _pos;
+
+            @Override
+            public boolean hasNext() {
+                return _pos < count || recent.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (_pos < count) {
+                    _pos += 1;
+                    return idAt(table, _pos - 1);
+                }
+                return recent.next();
+            }
+        };
+    }
+
+    /** Returns every id of the index, sorted. */
+    List<String> all() {
+        List<String> result = new ArrayList<>(size());
+        for (int i = 0; i < _count; i += 1) {
+            result.add(idAt(i));
+        }
+        result.addAll(_recent);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns true if the index file exists. */
+    boolean exists() {
+        return _file.isFile();
+    }
+
+    /** Writes the index file afresh, holding the ids IDS and those
+     *  already added. */
+    void create(Collection<String> ids) {
+        rewrite(ids);
+        _pending.clear();
+    }
+
+    /** Writes the added ids to the file, rewriting it sorted once enough
+     *  ids are unsorted. */
+    void save() {
+        if (!_file.isFile()) {
+            rewrite(_recent);
+        } else if (_recent.size() >= MERGE_THRESHOLD) {
+            rewrite(all());
+        } else if (!_pending.isEmpty()) {
+            append();
+        }
+        _pending.clear();
+    }
+
+    /** Maps the file and reads the ids that follow its table. */
+    private void load() {
+        try (FileChannel channel = FileChannel.open(_file.toPath())) {
+            _table = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_table.getInt(0) != MAGIC || _table.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad id index");
+        }
+        _count = _table.getInt(8);
+        _recent.clear();
+        byte[] id = new byte[Pack.ID_LENGTH];
+        for (int at = HEADER + Pack.idsSize(_count);
+             at + id.length <= _table.limit(); at += id.length) {
+            _table.get(at, id);
+            _recent.add(Pack.toHex(id));
+        }
+    }
+
+    /** Replaces the file with a sorted table of IDS and maps it. */
+    private void rewrite(Collection<String> ids) {
+        TreeSet<String> sorted = new TreeSet<>(ids);
+        sorted.addAll(_recent);
+        File temp = Utils.join(_file.getParentFile(),
+                _file.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(
+                            temp.toPath())))) {
+                out.writeInt(MAGIC); out.writeInt(VERSION);
+                out.writeInt(sorted.size());
+                Pack.writeIds(out, new ArrayList<>(sorted));
+            }
+            Files.move(temp.toPath(), _file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        load();
+    }
+
+    /** Appends the added ids to the file. */
+    private void append() {
+        ByteBuffer buf = ByteBuffer.allocate(_pending.size()
+                * Pack.ID_LENGTH);
+        for (String hash : _pending) {
+            buf.put(Pack.toBinary(hash));
+        }
+        buf.flip();
+        try (FileChannel channel = FileChannel.open(_file.toPath(),
+                StandardOpenOption.APPEND)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the position of the first id of the table that is not
+     *  smaller than the hex digits PREFIX. */
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the first digits of the id at POS with the hex digits
+     *  PREFIX. */
+    private int compareAt(int pos, String prefix) {
+        int start = HEADER + Pack.idsSize(0) + pos * Pack.ID_LENGTH;
+        int length = Math.min(prefix.length(), HEX_LENGTH);
+        for (int i = 0; i < length; i += 1) {
+            int b = _table.get(start + i / 2);
+            int digit = i % 2 == 0 ? (b >> 4) & 0xf : b & 0xf;
+            int cmp = digit - Character.digit(prefix.charAt(i), 16);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the id at POS of the table. */
+    private String idAt(int pos) {
+        return idAt(_table, pos);
+    }
+
+    /** Returns the id at position POS of the mapped table TABLE. */
+    private static String idAt(MappedByteBuffer table, int pos) {
+        byte[] id = new byte[Pack.ID_LENGTH];
+        table.get(HEADER + Pack.idsSize(0) + pos * Pack.ID_LENGTH, id);
+        return Pack.toHex(id);
+    }
+
+    /** Returns the number of leading digits of HASH needed to tell it
+     *  from OTHER, or 0 if they are equal. */
+    private static int distinct(String hash, String other) {
+        if (hash.equals(other)) {
+            return 0;
+        }
+        int i = 0;
+        while (i < hash.length() && i < other.length()
+                && hash.charAt(i) == other.charAt(i)) {
+            i += 1;
+        }
+        return i + 1;
+    }
+
+    /** Returns true if STR only holds lowercase hex digits. */
+    private static boolean isHex(String str) {
+        for (int i = 0; i < str.length(); i += 1) {
+            char c = str.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Stat cache of Gitlet. Remembers the size, modification time, file key
+ *  and blob hash of every file it has hashed, so that a file whose stat
+ *  data has not changed since is never read again.
+ *
+ *  As in Git, an entry is racy, and never trusted, if its file was last
+ *  modified at or after the modification time of the index file when it
+ *  was loaded or last saved.  A file changed in the same tick of the
+ *  file system clock as it was hashed keeps its modification time, so
+ *  only a file modified strictly before the index was written can be
+ *  known to be unchanged since.  Both times come from the same file
+ *  system, and so have the same resolution, whatever it is.
+ *
+ *  Saved as the magic number and the number of entries, then for each
+ *  the path, size, modification time, file key and blob id.  An index
+ *  saved in another format, such as one serialized before this format,
+ *  is dropped: it is only a cache.
+ * @author Ryan Chen
+ */
+public class Index {
+    /** Magic number and version of a saved index ("GLX" 2).*/
+    static final int MAGIC = 0x474c5802;
+
+    /** Path of a file to its cached entry.*/
+    private HashMap<String, Entry> _entries;
+    /** True if the index changed since it was loaded.*/
+    private boolean _dirty;
+    /** Number of files whose contents were read since loading.*/
+    private int _reads;
+    /** Modification time in nanoseconds of the index file when it was
+     *  loaded or last saved, or Long.MIN_VALUE if there was none.*/
+    private long _indexTime = Long.MIN_VALUE;
+
+    /** Stat data and hash of one file. */
+    private static class Entry {
+        /** Size of the file in bytes.*/
+        private long _size;
+        /** Modification time of the file in nanoseconds.*/
+        private long _mtime;
+        /** File key (device and inode) of the file, if any.*/
+        private String _fileKey;
+        /** Hash of the contents of the file.*/
+        private String _hash;
+    }
+
+    /** Constructor of an empty index. */
+    public Index() {
+        _entries = new HashMap<>();
+    }
+
+    /** Returns the index stored in FILE, or an empty one if there is
+     *  none or it is in another format. */
+    public static Index fromFile(File file) {
+        Index result = new Index();
+        if (!file.isFile()) {
+            return result;
+        }
+        result._indexTime = mtime(file);
+        byte[] bytes = Utils.readContents(file);
+        if (bytes.length < 4 || ByteBuffer.wrap(bytes).getInt() != MAGIC) {
+            result._dirty = true;
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            in.readInt();
+            int count = Codec.readCount(in);
+            for (int i = 0; i < count; i += 1) {
+                String path = Codec.readString(in);
+                Entry entry = new Entry();
+                entry._size = Codec.readVarint(in);
+                entry._mtime = in.readLong();
+                entry._fileKey = Codec.readString(in);
+                entry._hash = Codec.readId(in);
+                result._entries.put(path, entry);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Saves the index to FILE if it has changed. */
+    public void saveIndex(File file) {
+        if (!_dirty) {
+            return;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(MAGIC);
+            Codec.writeVarint(out, _entries.size());
+            for (Map.Entry<String, Entry> item : _entries.entrySet()) {
+                Entry entry = item.getValue();
+                Codec.writeString(out, item.getKey());
+                Codec.writeVarint(out, entry._size);
+                out.writeLong(entry._mtime);
+                Codec.writeString(out, entry._fileKey);
+                Codec.writeId(out, entry._hash);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.writeContents(file, result.toByteArray());
+        _indexTime = mtime(file);
+        _dirty = false;
+    }
+
+    /** Returns the hash of the contents of FILE, reading it only if its
+     *  stat data differs from the cached entry.  Returns null if FILE is
+     *  not a plain file. */
+    public String hash(File file) {
+        BasicFileAttributes attrs = stat(file);
+        if (attrs == null) {
+            forget(file);
+            return null;
+        }
+        Entry entry = _entries.get(file.getPath());
+        if (entry != null && matches(entry, attrs)) {
+            return entry._hash;
+        }
+        _reads += 1;
+        String hash = Utils.sha1(file);
+        put(file, attrs, hash);
+        return hash;
+    }
+
+    /** Returns the cached hash of FILE, whose attributes are ATTRS, or
+     *  null if its stat data differs from the cached entry. */
+    String cached(File file, BasicFileAttributes attrs) {
+        Entry entry = _entries.get(file.getPath());
+        if (entry != null && matches(entry, attrs)) {
+            return entry._hash;
+        }
+        return null;
+    }
+
+    /** Records that FILE, whose attributes are ATTRS, was just read and
+     *  has hash HASH. */
+    void hashed(File file, BasicFileAttributes attrs, String hash) {
+        _reads += 1;
+        put(file, attrs, hash);
+    }
+
+    /** Records that FILE, which was just written, has hash HASH. */
+    public void record(File file, String hash) {
+        BasicFileAttributes attrs = stat(file);
+        if (attrs == null) {
+            forget(file);
+        } else {
+            put(file, attrs, hash);
+        }
+    }
+
+    /** Drops the cached entry of FILE. */
+    public void forget(File file) {
+        if (_entries.remove(file.getPath()) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Returns the number of files read since this index was loaded. */
+    public int getReads() {
+        return _reads;
+    }
+
+    /** Stores an entry for FILE with ATTRS and HASH. */
+    private void put(File file, BasicFileAttributes attrs, String hash) {
+        Entry entry = new Entry();
+        entry._size = attrs.size();
+        entry._mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        entry._fileKey = keyOf(attrs);
+        entry._hash = hash;
+        _entries.put(file.getPath(), entry);
+        _dirty = true;
+    }
+
+    /** Returns true if ENTRY still describes a file with ATTRS.  An entry
+     *  of a file modified at or after the index file was written is racy
+     *  and never trusted. */
+    private boolean matches(Entry entry, BasicFileAttributes attrs) {
+        long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        return entry._size == attrs.size() && entry._mtime == mtime
+                && mtime < _indexTime
+                && entry._fileKey.equals(keyOf(attrs));
+    }
+
+    /** Returns the modification time of FILE in nanoseconds, or
+     *  Long.MIN_VALUE if it cannot be read. */
+    private static long mtime(File file) {
+        try {
+            return Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /** Returns the file key of ATTRS as a string. */
+    private static String keyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    /** Returns the attributes of FILE, or null if it is not a plain
+     *  file. */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
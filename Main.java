@@ -1,6 +1,19 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Driver class for Gitlet, the miniature version-control system.
@@ -13,25 +26,10 @@ public class Main {
      */
     static final File CWD = new File(".");
     /**
-     * Main Folder.
+     * True if checkouts and resets print what they wrote, set with
+     * -Dgitlet.report=true.
      */
-    static final File MAIN_FOLDER = (Utils.join(CWD, ".gitlet"));
-    /**
-     * Staging area.
-     */
-    static final File ADD_FOLDER = Utils.join(MAIN_FOLDER, "add");
-    /**
-     * Folder containg all blobs.
-     */
-    static final File BLOB_FOLDER = Utils.join(MAIN_FOLDER, "blobs");
-    /**
-     * File containing serialized story object.
-     */
-    static final File STORY_FILE = Utils.join(MAIN_FOLDER, "story");
-    /**
-     * Folder containing all commits.
-     */
-    static final File COMMIT_FOLDER = Utils.join(MAIN_FOLDER, "commits");
+    static final boolean REPORT = Boolean.getBoolean("gitlet.report");
 
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
@@ -43,54 +41,268 @@ public class Main {
             if (args[0].equals("init")) {
                 checkNumArgs(args, 1); init();
                 return;
+            } else if (args[0].equals("daemon")) {
+                daemon(args);
+                return;
+            } else if (args[0].equals("batch")) {
+                batch(args);
+                return;
             }
-            Story story = Story.storyFromFile();
-            switch (args[0]) {
-            case "add":
-                checkNumArgs(args, 2); story.add(args[1]); break;
-            case "commit":
-                checkNumArgs(args, 2);
-                Commit current = story.makeCommit(args[1]);
-                story.updateStory(current); current.saveCommit(); break;
-            case "rm":
-                checkNumArgs(args, 2); story.rm(args[1]); break;
-            case "log":
-                checkNumArgs(args, 1); story.log(); break;
-            case "global-log":
-                checkNumArgs(args, 1); story.globalLog(); break;
-            case "find":
-                checkNumArgs(args, 2); story.find(args[1]); break;
-            case "status":
-                checkNumArgs(args, 1); story.statusBasic(); break;
-            case "checkout":
-                story.checkout(args); break;
-            case "branch":
-                checkNumArgs(args, 2); story.branch(args[1]); break;
-            case "rm-branch":
-                checkNumArgs(args, 2); story.rmBranch(args[1]); break;
-            case "reset":
-                checkNumArgs(args, 2); story.reset(args[1]); break;
-            case "merge":
-                checkNumArgs(args, 2);
-                boolean mergeConflict = story.mergeConflict(args[1]);
-                Commit cool = story.makeCommit("Merged " + args[1]
-                        + " into " + story.getCurrentPointer() + ".");
-                if (mergeConflict) {
-                    System.out.println("Encountered a merge conflict.");
-                }
-                String parent2Hash =
-                        story.getCommitFromBranch(args[1]).getHash();
-                cool.setParent2Hash(parent2Hash); story.updateStory(cool);
-                cool.saveCommit(); story.resetMerge(); break;
-            default:
-                throw new GitletException("No command with that name exists.");
-            }
-            story.saveStory();
+            run(Repository.open(CWD), args);
         } catch (GitletException | IllegalArgumentException e) {
             System.out.print(e.getMessage()); System.exit(0);
         }
     }
 
+    /**
+     * Runs the command ARGS, other than init, daemon and batch, on REPO,
+     * printing what it returns.
+     *
+     * @param repo is the repository.
+     * @param args are the arguments from command line.
+     */
+    static void run(Repository repo, String... args) {
+        switch (args[0]) {
+        case "add":
+            if (args.length < 2) {
+                throw new GitletException("Incorrect operands.");
+            }
+            repo.add(Arrays.copyOfRange(args, 1, args.length)); break;
+        case "commit":
+            checkNumArgs(args, 2); repo.commit(args[1]); break;
+        case "rm":
+            checkNumArgs(args, 2); repo.rm(args[1]); break;
+        case "log":
+            checkNumArgs(args, 1); print(repo.log()); break;
+        case "global-log":
+            globalLog(repo, args); break;
+        case "find":
+            find(repo, args); break;
+        case "status":
+            checkNumArgs(args, 1); System.out.print(repo.status()); break;
+        case "checkout":
+            checkout(repo, args); break;
+        case "branch":
+            checkNumArgs(args, 2); repo.branch(args[1]); break;
+        case "rm-branch":
+            checkNumArgs(args, 2); repo.rmBranch(args[1]); break;
+        case "reset":
+            checkNumArgs(args, 2); report(repo.reset(args[1])); break;
+        case "merge":
+            checkNumArgs(args, 2);
+            MergeResult merge = repo.merge(args[1]);
+            if (merge.isFastForward()) {
+                System.out.println("Current branch fast-forwarded.");
+            } else if (merge.hasConflicts()) {
+                System.out.println("Encountered a merge conflict.");
+            }
+            break;
+        case "repack":
+            checkNumArgs(args, 1); repo.repack(); break;
+        case "compress":
+            checkNumArgs(args, 1);
+            System.out.println("Compressed " + repo.compress() + " blobs.");
+            break;
+        case "convert":
+            checkNumArgs(args, 1);
+            System.out.println("Converted " + repo.convert() + " commits.");
+            break;
+        default:
+            throw new GitletException("No command with that name exists.");
+        }
+    }
+
+    /**
+     * Prints each of COMMITS as the log does, through one buffer.
+     *
+     * @param commits are the commits printed.
+     */
+    private static void print(Iterator<Commit> commits) {
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(System.out, 1 << 16));
+        while (commits.hasNext()) {
+            out.println(commits.next().toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints RESULT if checkouts and resets print what they wrote.
+     *
+     * @param result is what a checkout or reset wrote.
+     */
+    private static void report(CheckoutReport result) {
+        if (REPORT) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Global-log command: prints the log of every commit in the order of
+     * the id index.  Takes the options --limit N, to print at most N
+     * commits, and --since DATE, to skip commits made before DATE, given
+     * as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.
+     *
+     * @param repo is the repository.
+     * @param args are the arguments from command line.
+     */
+    private static void globalLog(Repository repo, String... args) {
+        long limit = Long.MAX_VALUE;
+        Date since = null;
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new GitletException("Incorrect operands.");
+            }
+            if (args[i].equals("--limit")) {
+                limit = parseLimit(args[i + 1]);
+            } else if (args[i].equals("--since")) {
+                since = parseSince(args[i + 1]);
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        }
+        print(repo.globalLog(limit, since));
+    }
+
+    /**
+     * Returns the count given to --limit.
+     *
+     * @param arg is the count.
+     */
+    private static long parseLimit(String arg) {
+        try {
+            long result = Long.parseLong(arg);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Falls through to the error below. */
+        }
+        throw new GitletException("Incorrect operands.");
+    }
+
+    /**
+     * Returns the date given to --since.
+     *
+     * @param arg is the date.
+     */
+    private static Date parseSince(String arg) {
+        for (String format : new String[] {"yyyy-MM-dd HH:mm:ss",
+            "yyyy-MM-dd"}) {
+            SimpleDateFormat parser = new SimpleDateFormat(format);
+            parser.setLenient(false);
+            ParsePosition pos = new ParsePosition(0);
+            Date result = parser.parse(arg, pos);
+            if (result != null && pos.getIndex() == arg.length()) {
+                return result;
+            }
+        }
+        throw new GitletException("Incorrect operands.");
+    }
+
+    /**
+     * Find command: prints the ids of the commits with the given
+     * message.  Takes --grep TEXT instead, to find the commits whose
+     * message contains TEXT, or --token WORDS, to find those whose
+     * message holds each of WORDS whatever their case.
+     *
+     * @param repo is the repository.
+     * @param args are the arguments from command line.
+     */
+    private static void find(Repository repo, String... args) {
+        List<String> commitIDs;
+        if (args.length == 2) {
+            commitIDs = repo.find(args[1]);
+        } else if (args.length == 3 && args[1].equals("--grep")) {
+            commitIDs = repo.grep(args[2]);
+        } else if (args.length == 3 && args[1].equals("--token")) {
+            commitIDs = repo.findTokens(args[2]);
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+        if (commitIDs.isEmpty()) {
+            throw new GitletException("Found no commit with that message.");
+        }
+        for (String commitID : commitIDs) {
+            System.out.println(commitID);
+        }
+    }
+
+    /**
+     * Checkout command: checks out a file of the current commit with
+     * -- FILE, a file of another commit with ID -- FILE, or a branch.
+     *
+     * @param repo is the repository.
+     * @param args are the arguments from command line.
+     */
+    private static void checkout(Repository repo, String... args) {
+        if (args.length == 3 && args[1].equals("--")) {
+            repo.checkoutFile(args[2]);
+        } else if (args.length == 4 && args[2].equals("--")) {
+            repo.checkoutFile(args[1], args[3]);
+        } else if (args.length == 2 && !args[1].isEmpty()) {
+            report(repo.checkoutBranch(args[1]));
+        } else {
+            throw new GitletException("Incorrect Operands.");
+        }
+    }
+
+    /**
+     * Daemon command: serves commands from the working directory until
+     * stopped, or stops the daemon serving them.
+     *
+     * @param args are the arguments from command line.
+     */
+    static void daemon(String... args) {
+        if (args.length == 1) {
+            new Daemon().serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            if (!Client.forward(args)) {
+                throw new GitletException("No daemon is running.");
+            }
+        } else {
+            throw new GitletException("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Batch command: runs the commands in a file, or in the standard
+     * input if none is named, against one loaded story.  Takes
+     * --checkpoint N to save the story every N commands, and --atomic to
+     * save nothing if any command fails.
+     *
+     * @param args are the arguments from command line.
+     */
+    static void batch(String... args) {
+        int checkpoint = 0;
+        boolean atomic = false;
+        String name = null;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--atomic")) {
+                atomic = true;
+            } else if (args[i].equals("--checkpoint") && i + 1 < args.length
+                    && args[i + 1].matches("[1-9][0-9]{0,8}")) {
+                i += 1;
+                checkpoint = Integer.parseInt(args[i]);
+            } else if (name == null && !args[i].startsWith("--")) {
+                name = args[i];
+            } else {
+                throw new GitletException("Incorrect operands.");
+            }
+        }
+        Repository repo = Repository.open(CWD);
+        repo.setAutoSave(false);
+        try (BufferedReader in = name == null
+                ? new BufferedReader(new InputStreamReader(System.in,
+                        StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Utils.join(CWD, name).toPath(),
+                        StandardCharsets.UTF_8)) {
+            new Batch(checkpoint, atomic).run(repo, in);
+        } catch (IOException excp) {
+            throw new GitletException("No such batch file.");
+        }
+    }
+
     /**
      * Basic check for errors.
      *
@@ -100,7 +312,7 @@ public class Main {
         if (args.length == 0) {
             throw new GitletException("Please enter a command.");
         }
-        if (!args[0].equals("init") && !MAIN_FOLDER.isDirectory()) {
+        if (!args[0].equals("init") && !new Repository(CWD).exists()) {
             throw new GitletException("Not in "
                     + "an initialized Gitlet directory.");
         }
@@ -110,17 +322,7 @@ public class Main {
      * Init function of gitlet.
      */
     public static void init() {
-        if (MAIN_FOLDER.isDirectory()) {
-            throw new GitletException("A Gitlet version-control system already "
-                    + "exists in the current directory.");
-        } else {
-            MAIN_FOLDER.mkdirs();
-            COMMIT_FOLDER.mkdirs();
-            ADD_FOLDER.mkdirs();
-            BLOB_FOLDER.mkdirs();
-            Story story = new Story();
-            story.saveStory();
-        }
+        Repository.init(CWD);
     }
 
     /**
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Writes the blobs of many files into a working directory at once.
+ *
+ *  Blobs are first read, inflated and written to scratch files by a pool
+ *  of PARALLELISM threads.  Only once every one of them is written are
+ *  the files to delete and the files to replace moved aside into the
+ *  scratch folder, and the scratch files renamed over their targets, one
+ *  at a time in path order.  If any blob fails, the scratch files are
+ *  deleted, the working directory is left as it was, and the error of
+ *  the first failing path in path order is thrown, whatever the order
+ *  the threads ran in.  If a move fails, the files already moved in are
+ *  deleted and those moved aside are moved back before the error is
+ *  thrown, so that the working directory is again left as it was; the
+ *  files moved aside are deleted only once every move has succeeded.
+ *
+ *  Each scratch file is created with a unique name, and only those are
+ *  deleted, so that other processes may share the scratch folder.
+ * @author Ryan Chen
+ */
+class Materializer {
+    /** Default number of threads, set with -Dgitlet.parallelism=N.*/
+    static final int PARALLELISM = Integer.getInteger("gitlet.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Store of the blobs written.*/
+    private final BlobStore _blobs;
+    /** Folder of the scratch files, on the same file system as the
+     *  working directory.*/
+    private final File _scratch;
+    /** Number of threads.*/
+    private final int _parallelism;
+
+    /** A materializer of the blobs of BLOBS through scratch files in
+     *  SCRATCH, with PARALLELISM threads. */
+    Materializer(BlobStore blobs, File scratch, int parallelism) {
+        _blobs = blobs;
+        _scratch = scratch;
+        _parallelism = Math.max(1, parallelism);
+    }
+
+    /** Deletes each path of DELETES under ROOT, and writes each path of
+     *  WRITES under ROOT with its blob, creating directories as needed.
+     *  Returns the paths of DELETES that were deleted. */
+    List<String> apply(File root, SortedMap<String, String> writes,
+                       Collection<String> deletes) {
+        List<File> temps = prepare(writes);
+        List<String> saved = new ArrayList<>();
+        List<File> backups = new ArrayList<>();
+        List<String> moved = new ArrayList<>();
+        try {
+            List<String> deleted = new ArrayList<>();
+            for (String path : deletes) {
+                if (saveAside(root, path, saved, backups)) {
+                    Utils.pruneUnder(root, path);
+                    deleted.add(path);
+                }
+            }
+            for (String path : writes.keySet()) {
+                saveAside(root, path, saved, backups);
+            }
+            int i = 0;
+            for (String path : writes.keySet()) {
+                File file = Utils.join(root, path);
+                file.getParentFile().mkdirs();
+                move(temps.get(i), file);
+                moved.add(path);
+                i += 1;
+            }
+            discard(backups);
+            return deleted;
+        } catch (IOException excp) {
+            undo(root, moved, saved, backups);
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            discard(temps);
+        }
+    }
+
+    /** Moves the plain file at PATH under ROOT, if there is one, to a new
+     *  scratch file, and adds PATH to SAVED and that file to BACKUPS.
+     *  Returns true iff there was a file to move. */
+    private boolean saveAside(File root, String path, List<String> saved,
+                              List<File> backups) throws IOException {
+        File file = Utils.join(root, path);
+        if (!file.isFile()) {
+            return false;
+        }
+        File backup = Files.createTempFile(_scratch.toPath(), "backup-",
+                ".tmp").toFile();
+        backups.add(backup);
+        move(file, backup);
+        saved.add(path);
+        return true;
+    }
+
+    /** Undoes the moves of apply under ROOT: deletes the paths of MOVED,
+     *  which were moved in, and moves each file of BACKUPS back to its
+     *  path in SAVED, latest first.  Backups that cannot be moved back are
+     *  left in the scratch folder. */
+    private static void undo(File root, List<String> moved,
+                             List<String> saved, List<File> backups) {
+        for (int i = moved.size() - 1; i >= 0; i -= 1) {
+            Utils.deleteUnder(root, moved.get(i));
+        }
+        for (int i = saved.size() - 1; i >= 0; i -= 1) {
+            File file = Utils.join(root, saved.get(i));
+            file.getParentFile().mkdirs();
+            try {
+                move(backups.get(i), file);
+            } catch (IOException excp) {
+                /* Left in the scratch folder. */
+            }
+        }
+        for (int i = saved.size(); i < backups.size(); i += 1) {
+            backups.get(i).delete();
+        }
+    }
+
+    /** Renames SOURCE over TARGET. */
+    private static void move(File source, File target) throws IOException {
+        Files.move(source.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Writes the blob of each path of WRITES to a scratch file, and
+     *  returns those files in path order. */
+    private List<File> prepare(SortedMap<String, String> writes) {
+        _scratch.mkdirs();
+        List<File> temps = new ArrayList<>(writes.size());
+        List<Callable<Void>> tasks = new ArrayList<>(writes.size());
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            File temp = createTemp(temps);
+            temps.add(temp);
+            tasks.add(() -> {
+                _blobs.copyTo(entry.getValue(), temp);
+                return null;
+            });
+        }
+        RuntimeException failure = null;
+        if (_parallelism == 1 || tasks.size() < 2) {
+            for (Callable<Void> task : tasks) {
+                failure = run(task);
+                if (failure != null) {
+                    break;
+                }
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.min(_parallelism, tasks.size()));
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    failure = result(future);
+                    if (failure != null) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                failure = new IllegalArgumentException("interrupted");
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        if (failure != null) {
+            discard(temps);
+            throw failure;
+        }
+        return temps;
+    }
+
+    /** Returns a new, empty scratch file with a unique name, deleting
+     *  TEMPS, those created before it, if it cannot be created. */
+    private File createTemp(List<File> temps) {
+        try {
+            return Files.createTempFile(_scratch.toPath(), "checkout-",
+                    ".tmp").toFile();
+        } catch (IOException excp) {
+            discard(temps);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Runs TASK, and returns what it threw, or null. */
+    private static RuntimeException run(Callable<Void> task) {
+        try {
+            task.call();
+            return null;
+        } catch (RuntimeException excp) {
+            return excp;
+        } catch (Exception excp) {
+            return new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns what the task of the finished FUTURE threw, or null. */
+    private static RuntimeException result(Future<Void> future)
+        throws InterruptedException {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                return (RuntimeException) cause;
+            }
+            return new IllegalArgumentException(cause.getMessage());
+        }
+    }
+
+    /** Deletes whichever of TEMPS, scratch files, are left. */
+    private static void discard(List<File> temps) {
+        for (File temp : temps) {
+            temp.delete();
+        }
+    }
+}
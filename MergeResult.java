@@ -0,0 +1,48 @@
+package gitlet;
+
+import java.util.Collections;
+import java.util.List;
+
+/** What a merge did: the commit the current branch ends at, whether the
+ *  branch was only fast-forwarded to the given one, and the files left in
+ *  conflict, holding both versions between conflict markers.
+ * @author Ryan Chen
+ */
+public class MergeResult {
+    /** Head of the current branch after the merge.*/
+    private final Commit _commit;
+    /** True if the current branch was fast-forwarded.*/
+    private final boolean _fastForward;
+    /** Paths of the files in conflict, in order.*/
+    private final List<String> _conflicts;
+
+    /** A merge that left the current branch at COMMIT, fast-forwarded if
+     *  FASTFORWARD, with the files at CONFLICTS in conflict. */
+    MergeResult(Commit commit, boolean fastForward, List<String> conflicts) {
+        _commit = commit;
+        _fastForward = fastForward;
+        _conflicts = Collections.unmodifiableList(conflicts);
+    }
+
+    /** Returns the merge commit, or the given branch's head if the
+     *  current branch was fast-forwarded. */
+    public Commit getCommit() {
+        return _commit;
+    }
+
+    /** Returns true if the current branch was only fast-forwarded, and
+     *  no merge commit was made. */
+    public boolean isFastForward() {
+        return _fastForward;
+    }
+
+    /** Returns the paths of the files in conflict, in order. */
+    public List<String> getConflicts() {
+        return _conflicts;
+    }
+
+    /** Returns true if any file is in conflict. */
+    public boolean hasConflicts() {
+        return !_conflicts.isEmpty();
+    }
+}
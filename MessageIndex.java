@@ -0,0 +1,458 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/** Index of the commits of Gitlet by message.  The log file is a magic
+ *  number followed by one record per commit, its message and its id, so
+ *  a commit only appends a record.  The position of a record in the log
+ *  is the ordinal of its commit.
+ *
+ *  Messages are searched through a memory-mapped search index covering
+ *  the records at the start of the log.  It is a header (magic, version,
+ *  number of records, length of the log covered, positions of the token
+ *  and trigram tables), the offset of each record in the log as a long,
+ *  then the terms: each a string, the number of commits whose message
+ *  holds it and their ordinals as varint differences.  Each table is the
+ *  number of its terms followed by their positions in sorted order as
+ *  longs.  Tokens are the lowercase runs of letters and digits of a
+ *  message, and trigrams its lowercase substrings of three characters.
+ *
+ *  Records appended after the search index was written are scanned, and
+ *  the index is rewritten when they make up more than a sixteenth of the
+ *  log, so that rewriting costs a constant amount per commit.
+ * @author Ryan Chen
+ */
+class MessageIndex {
+    /** Magic number and version of a message log ("GLM" 1).*/
+    static final int MAGIC = 0x474c4d01;
+    /** Magic number of a search index ("GLMI").*/
+    static final int INDEX_MAGIC = 0x474c4d49;
+    /** Version of the search index format.*/
+    static final int VERSION = 1;
+    /** Length of the substrings indexed for substring search.*/
+    static final int GRAM = 3;
+    /** Smallest number of bytes of the log left unindexed before the
+     *  search index is rewritten.*/
+    static final int REBUILD_BYTES = 1 << 18;
+    /** Size of the header of the search index.*/
+    private static final int HEADER = 36;
+    /** Size of the header of the log.*/
+    private static final int LOG_HEADER = 4;
+
+    /** The log file.*/
+    private final File _file;
+    /** The search index file.*/
+    private final File _indexFile;
+    /** Messages and ids of the commits added since the index was opened,
+     *  in pairs.*/
+    private final List<String> _pending = new ArrayList<>();
+
+    /** The message index whose log is FILE. */
+    MessageIndex(File file) {
+        _file = file;
+        _indexFile = Utils.join(file.getParentFile(), file.getName() + ".idx");
+    }
+
+    /** Records that commit HASH has message MSG. */
+    void add(String msg, String hash) {
+        _pending.add(msg);
+        _pending.add(hash);
+    }
+
+    /** Returns the ids of the commits with message MSG. */
+    List<String> find(String msg) {
+        return search(tokens(msg), false, msg::equals);
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT. */
+    List<String> grep(String text) {
+        return search(grams(text.toLowerCase()), true, m -> m.contains(text));
+    }
+
+    /** Returns the ids of the commits whose message holds every token of
+     *  QUERY, ignoring case. */
+    List<String> findTokens(String query) {
+        Set<String> wanted = tokens(query);
+        return search(wanted, false, m -> tokens(m).containsAll(wanted));
+    }
+
+    /** Returns the number of bytes of the log and the search index. */
+    long bytes() {
+        return _file.length() + _indexFile.length();
+    }
+
+    /** Writes the log afresh from the ids of the commits of each message
+     *  in IDS, followed by the commits added since opening, and indexes
+     *  it. */
+    void create(Map<String, ? extends Set<String>> ids) {
+        File temp = Utils.join(_file.getParentFile(),
+                _file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        temp.toPath())))) {
+            out.writeInt(MAGIC);
+            for (Map.Entry<String, ? extends Set<String>> entry
+                    : ids.entrySet()) {
+                for (String hash : entry.getValue()) {
+                    Codec.writeString(out, entry.getKey());
+                    Codec.writeId(out, hash);
+                }
+            }
+            writePending(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        move(temp, _file);
+        _indexFile.delete();
+        rebuildIfNeeded();
+    }
+
+    /** Appends the commits added since opening to the log, and rewrites
+     *  the search index if too much of the log is left out of it. */
+    void save() {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        if (!_file.isFile()) {
+            create(Collections.emptyMap());
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        _file.toPath(), StandardOpenOption.APPEND)))) {
+            writePending(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        rebuildIfNeeded();
+    }
+
+    /** Returns the lowercase runs of letters and digits of MSG. */
+    static Set<String> tokens(String msg) {
+        Set<String> result = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= msg.length(); i += 1) {
+            boolean inToken = i < msg.length()
+                    && Character.isLetterOrDigit(msg.charAt(i));
+            if (inToken && start < 0) {
+                start = i;
+            } else if (!inToken && start >= 0) {
+                result.add(msg.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the substrings of GRAM characters of TEXT. */
+    static Set<String> grams(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            result.add(text.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    /** Returns the ids of the commits whose message is accepted by
+     *  ACCEPT, in the order of the log.  Only the commits indexed under
+     *  every one of TERMS, trigrams if GRAMS and tokens otherwise, are
+     *  read from the indexed part of the log, unless there are no TERMS. */
+    private List<String> search(Collection<String> terms, boolean grams,
+                                Predicate<String> accept) {
+        List<String> result = new ArrayList<>();
+        ByteBuffer log = map(_file);
+        ByteBuffer index = openIndex(log);
+        long scanned = LOG_HEADER;
+        if (index != null) {
+            scanned = index.getLong(12);
+            if (terms.isEmpty()) {
+                scan(log, LOG_HEADER, scanned, accept, result);
+            } else {
+                long table = index.getLong(grams ? 28 : 20);
+                int[] ords = null;
+                for (String term : terms) {
+                    int[] postings = postings(index, table, term);
+                    ords = ords == null ? postings : intersect(ords, postings);
+                    if (ords.length == 0) {
+                        break;
+                    }
+                }
+                for (int ord : ords) {
+                    long offset = index.getLong(HEADER + ord * 8);
+                    scan(log, offset, offset + 1, accept, result);
+                }
+            }
+        }
+        if (log != null) {
+            scan(log, scanned, log.limit(), accept, result);
+        }
+        for (int i = 0; i < _pending.size(); i += 2) {
+            if (accept.test(_pending.get(i))) {
+                result.add(_pending.get(i + 1));
+            }
+        }
+        return result;
+    }
+
+    /** Adds to RESULT the ids of the records of LOG starting from FROM and
+     *  before TO whose message is accepted by ACCEPT.  Stops at a record
+     *  cut short. */
+    private static void scan(ByteBuffer log, long from, long to,
+                             Predicate<String> accept, List<String> result) {
+        log.position((int) from);
+        try {
+            while (log.position() < to) {
+                String msg = Codec.readString(log);
+                String hash = Codec.readId(log);
+                if (accept.test(msg)) {
+                    result.add(hash);
+                }
+            }
+        } catch (IOException | BufferUnderflowException excp) {
+            return;
+        }
+    }
+
+    /** Returns the ordinals of the commits listed under TERM in the table
+     *  at TABLE of INDEX. */
+    private static int[] postings(ByteBuffer index, long table, String term) {
+        int lo = 0;
+        int hi = index.getInt((int) table) - 1;
+        ByteBuffer buf = index.duplicate();
+        try {
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                buf.position((int) index.getLong((int) table + 4 + mid * 8));
+                int cmp = Codec.readString(buf).compareTo(term);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    int[] result = new int[(int) Codec.readVarint(buf)];
+                    int ord = 0;
+                    for (int i = 0; i < result.length; i += 1) {
+                        ord += (int) Codec.readVarint(buf);
+                        result[i] = ord;
+                    }
+                    return result;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return new int[0];
+    }
+
+    /** Returns the ordinals that are in both of the sorted A and B. */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1; i += 1; j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Writes the pending records to OUT and forgets them. */
+    private void writePending(DataOutputStream out) throws IOException {
+        for (int i = 0; i < _pending.size(); i += 2) {
+            Codec.writeString(out, _pending.get(i));
+            Codec.writeId(out, _pending.get(i + 1));
+        }
+        _pending.clear();
+    }
+
+    /** Rewrites the search index if the part of the log it leaves out is
+     *  large enough. */
+    private void rebuildIfNeeded() {
+        long indexed = LOG_HEADER;
+        ByteBuffer index = openIndex(map(_file));
+        if (index != null) {
+            indexed = index.getLong(12);
+        }
+        if (_file.length() - indexed
+                > Math.max(REBUILD_BYTES, indexed / 16)) {
+            rebuild();
+        }
+    }
+
+    /** Writes a search index of the whole log. */
+    private void rebuild() {
+        ByteBuffer log = map(_file);
+        HashMap<String, Postings> tokens = new HashMap<>();
+        HashMap<String, Postings> grams = new HashMap<>();
+        long[] offsets = new long[1024];
+        int count = 0;
+        log.position(LOG_HEADER);
+        long end = LOG_HEADER;
+        try {
+            while (log.hasRemaining()) {
+                int offset = log.position();
+                String msg = Codec.readString(log);
+                Codec.readId(log);
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count] = offset;
+                for (String token : tokens(msg)) {
+                    tokens.computeIfAbsent(token, k -> new Postings())
+                            .add(count);
+                }
+                for (String gram : grams(msg.toLowerCase())) {
+                    grams.computeIfAbsent(gram, k -> new Postings())
+                            .add(count);
+                }
+                count += 1;
+                end = log.position();
+            }
+        } catch (IOException | BufferUnderflowException excp) {
+            /* A record cut short is left to the next rebuild. */
+        }
+        File temp = Utils.join(_indexFile.getParentFile(),
+                _indexFile.getName() + ".tmp");
+        long tokensAt;
+        long gramsAt;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        temp.toPath())))) {
+            out.writeInt(INDEX_MAGIC); out.writeInt(VERSION);
+            out.writeInt(count); out.writeLong(end);
+            out.writeLong(0); out.writeLong(0);
+            for (int i = 0; i < count; i += 1) {
+                out.writeLong(offsets[i]);
+            }
+            long[] tokenPositions = writeTerms(out, tokens);
+            long[] gramPositions = writeTerms(out, grams);
+            tokensAt = out.size();
+            writeTable(out, tokenPositions);
+            gramsAt = out.size();
+            writeTable(out, gramPositions);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.WRITE)) {
+            ByteBuffer tables = ByteBuffer.allocate(16);
+            tables.putLong(tokensAt).putLong(gramsAt).flip();
+            channel.write(tables, 20);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        move(temp, _indexFile);
+    }
+
+    /** Writes each term of TERMS and its postings to OUT in sorted order,
+     *  and returns the positions at which they were written. */
+    private static long[] writeTerms(DataOutputStream out,
+                                     Map<String, Postings> terms)
+        throws IOException {
+        List<String> sorted = new ArrayList<>(terms.keySet());
+        Collections.sort(sorted);
+        long[] result = new long[sorted.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = out.size();
+            Codec.writeString(out, sorted.get(i));
+            Postings postings = terms.get(sorted.get(i));
+            Codec.writeVarint(out, postings._size);
+            int previous = 0;
+            for (int j = 0; j < postings._size; j += 1) {
+                Codec.writeVarint(out, postings._ords[j] - previous);
+                previous = postings._ords[j];
+            }
+        }
+        return result;
+    }
+
+    /** Writes a table of the terms at POSITIONS to OUT. */
+    private static void writeTable(DataOutputStream out, long[] positions)
+        throws IOException {
+        out.writeInt(positions.length);
+        for (long position : positions) {
+            out.writeLong(position);
+        }
+    }
+
+    /** Returns the search index mapped, or null if there is none or it
+     *  does not fit LOG, the mapped log. */
+    private ByteBuffer openIndex(ByteBuffer log) {
+        ByteBuffer result = map(_indexFile);
+        if (result == null || log == null) {
+            return null;
+        }
+        if (result.getInt(0) != INDEX_MAGIC || result.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("bad message index");
+        }
+        return result.getLong(12) <= log.limit() ? result : null;
+    }
+
+    /** Returns FILE mapped, or null if there is none. */
+    private static MappedByteBuffer map(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replaces TARGET with FILE. */
+    private static void move(File file, File target) {
+        try {
+            Files.move(file.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Ordinals of the commits holding one term, in increasing order. */
+    private static class Postings {
+        /** The ordinals.*/
+        private int[] _ords = new int[2];
+        /** Number of ordinals.*/
+        private int _size;
+
+        /** Adds ORD, unless it is the last ordinal already. */
+        void add(int ord) {
+            if (_size > 0 && _ords[_size - 1] == ord) {
+                return;
+            }
+            if (_size == _ords.length) {
+                _ords = Arrays.copyOf(_ords, _size * 2);
+            }
+            _ords[_size] = ord;
+            _size += 1;
+        }
+    }
+}
@@ -0,0 +1,821 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** Object store of Gitlet.  Objects are kept either loose, one file per
+ *  object named by its hash, or in pack files under the "pack" folder;
+ *  reads check the packs first.
+ *
+ *  A store created with compression keeps every object deflated behind a
+ *  small header (magic number and inflated size).  Such a store is marked
+ *  by a "deflated" file; stores without it hold raw objects until
+ *  they are migrated with {@link #compress(Map)}.  While a migration is
+ *  under way, or was cut short, a "compressing" file marks the store as
+ *  mixed: each object is then read deflated if it starts with the header,
+ *  and raw otherwise.
+ *
+ *  Repacking may store an object as a delta against another version of
+ *  the same file.  Chains are at most MAX_DEPTH long, and objects rebuilt
+ *  from deltas are kept in a small cache so that the bases of a chain are
+ *  rebuilt only once.  Objects may be read from several threads at once.
+ *
+ *  Writes may be batched, for tools writing many objects at once: the
+ *  objects are then kept in memory, where reads find them, and written
+ *  as a pack every BATCH_SIZE bytes and when the batch ends, rather than
+ *  one loose file each.
+ * @author Ryan Chen
+ */
+class ObjectStore {
+    /** Magic number at the start of a deflated object ("GLZ1").*/
+    static final int DEFLATED_MAGIC = 0x474c5a31;
+    /** Deflate level, set with -Dgitlet.compression=LEVEL.*/
+    static final int LEVEL = Integer.getInteger("gitlet.compression",
+            Deflater.DEFAULT_COMPRESSION);
+    /** Size of the header of a deflated object.*/
+    static final int DEFLATED_HEADER = 12;
+    /** Size of the buffers used to stream objects.*/
+    static final int BUFFER_SIZE = 1 << 16;
+    /** Longest chain of deltas written by a repack.*/
+    static final int MAX_DEPTH = 10;
+    /** Largest object, in bytes, stored as a delta.*/
+    static final int MAX_DELTA_SIZE = 16 << 20;
+    /** Bytes of rebuilt objects kept in the cache.*/
+    static final long CACHE_SIZE = 32 << 20;
+    /** Bytes of batched objects written as one pack, set with
+     *  -Dgitlet.batchSize=BYTES.*/
+    static final long BATCH_SIZE = Long.getLong("gitlet.batchSize",
+            256 << 20);
+
+    /** Folder containing loose objects.*/
+    private final File _dir;
+    /** Folder containing pack files.*/
+    private final File _packDir;
+    /** Marker file present if objects are stored deflated.*/
+    private final File _marker;
+    /** Marker file present while the store is converted by compress.*/
+    private final File _compressing;
+    /** True if new stores of this kind are deflated.*/
+    private final boolean _deflate;
+    /** Deflate level of the objects written.*/
+    private final int _level;
+    /** Packs of this store, loaded on first use.*/
+    private List<Pack> _packs;
+    /** 1 if this store is deflated, 0 if not, -1 if unknown.*/
+    private int _deflated = -1;
+    /** 1 if this store holds both raw and deflated objects, 0 if not, -1
+     *  if unknown.*/
+    private int _mixed = -1;
+    /** Recently rebuilt objects, least recently used first.*/
+    private final LinkedHashMap<String, byte[]> _cache =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size of the objects in the cache.*/
+    private long _cached;
+    /** Stored bytes of the objects batched and not yet packed, by id, or
+     *  null if writes are not batched.*/
+    private TreeMap<String, byte[]> _batch;
+    /** Total size of the batched objects.*/
+    private long _batched;
+
+    /** An object store rooted at DIR, deflating objects if DEFLATE. */
+    ObjectStore(File dir, boolean deflate) {
+        this(dir, deflate, LEVEL);
+    }
+
+    /** An object store rooted at DIR, deflating objects at LEVEL if
+     *  DEFLATE. */
+    ObjectStore(File dir, boolean deflate, int level) {
+        _dir = dir;
+        _packDir = Utils.join(dir, "pack");
+        _marker = Utils.join(dir, "deflated");
+        _compressing = Utils.join(dir, "compressing");
+        _deflate = deflate;
+        _level = level;
+    }
+
+    /** Creates the folder of a new, empty store. */
+    void init() {
+        _dir.mkdirs();
+        if (_deflate) {
+            Utils.writeContents(_marker, "");
+        }
+        _deflated = -1;
+        _mixed = -1;
+    }
+
+    /** Returns true if the folder of this store was created. */
+    boolean exists() {
+        return _dir.isDirectory();
+    }
+
+    /** Returns true if the objects of this store are deflated. */
+    boolean isDeflated() {
+        if (_deflated < 0) {
+            _deflated = _marker.isFile() ? 1 : 0;
+        }
+        return _deflated == 1;
+    }
+
+    /** Returns true if a conversion by compress is under way or was cut
+     *  short, so that raw and deflated objects are both found here. */
+    private boolean isMixed() {
+        if (_mixed < 0) {
+            _mixed = _compressing.isFile() ? 1 : 0;
+        }
+        return _mixed == 1;
+    }
+
+    /** Returns true if the store holds the object HASH. */
+    boolean contains(String hash) {
+        if (batched(hash) != null) {
+            return true;
+        }
+        for (Pack pack : packs()) {
+            if (pack.contains(hash)) {
+                return true;
+            }
+        }
+        return loose(hash).isFile();
+    }
+
+    /** Returns the contents of the object HASH, or null if there is no
+     *  such object. */
+    byte[] read(String hash) {
+        try (InputStream in = open(hash)) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the contents of the object HASH, or null if
+     *  there is no such object. */
+    InputStream open(String hash) {
+        byte[] batched = batched(hash);
+        if (batched != null) {
+            return inflate(new ByteArrayInputStream(batched), hash);
+        }
+        for (Pack pack : packs()) {
+            if (pack.contains(hash)) {
+                String base = pack.baseOf(hash);
+                if (base != null) {
+                    return new ByteArrayInputStream(rebuild(pack, hash, base));
+                }
+                return inflate(new BufferedInputStream(pack.open(hash),
+                        BUFFER_SIZE), hash);
+            }
+        }
+        return inflate(openLoose(hash), hash);
+    }
+
+    /** Returns RAW, the stored stream of object HASH, without its header
+     *  and inflated if this store is deflated. */
+    private InputStream inflate(InputStream raw, String hash) {
+        if (raw == null || !isDeflated() && !isMixed()) {
+            return raw;
+        }
+        try {
+            if (isMixed() && !hasHeader(raw)) {
+                return raw;
+            }
+            DataInputStream header = new DataInputStream(raw);
+            if (header.readInt() != DEFLATED_MAGIC) {
+                raw.close();
+                throw new IllegalArgumentException("corrupt object " + hash);
+            }
+            header.readLong();
+            return new InflaterInputStream(raw);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream over the stored bytes of the object HASH, or null
+     *  if there is no such object or it is stored as a delta. */
+    InputStream openRaw(String hash) {
+        byte[] batched = batched(hash);
+        if (batched != null) {
+            return new ByteArrayInputStream(batched);
+        }
+        for (Pack pack : packs()) {
+            if (pack.contains(hash)) {
+                if (pack.baseOf(hash) != null) {
+                    return null;
+                }
+                return new BufferedInputStream(pack.open(hash), BUFFER_SIZE);
+            }
+        }
+        return openLoose(hash);
+    }
+
+    /** Returns a stream over the loose object HASH, or null. */
+    private InputStream openLoose(String hash) {
+        File file = loose(hash);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return new BufferedInputStream(Files.newInputStream(
+                    file.toPath()), BUFFER_SIZE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores CONTENTS as the object HASH unless it is already present. */
+    void write(String hash, byte[] contents) {
+        if (contains(hash)
+                || isBatching() && batch(hash, encode(contents))) {
+            return;
+        }
+        store(hash, contents.length, new ByteArrayInputStream(contents),
+                isDeflated());
+    }
+
+    /** Stores the contents of FILE as the object HASH unless it is already
+     *  present.  Files larger than MAX_DELTA_SIZE are never batched. */
+    void write(String hash, File file) {
+        if (isBatching() && file.length() <= MAX_DELTA_SIZE) {
+            write(hash, Utils.readContents(file));
+        } else if (!contains(hash) && !isDeflated()) {
+            File temp = temp(hash);
+            try {
+                Utils.copyContents(file, temp);
+                rename(temp, loose(hash));
+            } finally {
+                temp.delete();
+            }
+        } else if (!contains(hash)) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                store(hash, file.length(), in, isDeflated());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Writes the object HASH to FILE, in constant memory for objects
+     *  stored in full. */
+    void copyTo(String hash, File file) {
+        if (!isDeflated() && !isMixed() && transferTo(hash, file)) {
+            return;
+        }
+        try (InputStream in = open(hash)) {
+            if (in == null) {
+                throw new GitletException("Trying to copy "
+                        + "a file that doesnt exist");
+            }
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the raw object HASH to FILE through file channels.  Returns
+     *  false if it is missing or stored as a delta. */
+    private boolean transferTo(String hash, File file) {
+        Pack found = packOf(hash);
+        if (found == null && !loose(hash).isFile()
+                || found != null && found.baseOf(hash) != null) {
+            return false;
+        }
+        if (found == null) {
+            Utils.copyContents(loose(hash), file);
+            return true;
+        }
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            return found.transferTo(hash, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Batches the writes that follow, until endBatch. */
+    synchronized void startBatch() {
+        if (_batch == null) {
+            _batch = new TreeMap<>();
+            _batched = 0;
+        }
+    }
+
+    /** Writes the objects batched as a pack, and ends the batch. */
+    synchronized void endBatch() {
+        if (_batch != null) {
+            writeBatch();
+            _batch = null;
+        }
+    }
+
+    /** Returns true if writes are batched. */
+    private synchronized boolean isBatching() {
+        return _batch != null;
+    }
+
+    /** Returns the stored bytes of the batched object HASH, or null if it
+     *  is not batched. */
+    private synchronized byte[] batched(String hash) {
+        return _batch == null ? null : _batch.get(hash);
+    }
+
+    /** Adds the object HASH with STORED bytes to the batch, writing the
+     *  batch as a pack once it holds BATCH_SIZE bytes.  Returns false if
+     *  writes are not batched. */
+    private synchronized boolean batch(String hash, byte[] stored) {
+        if (_batch == null) {
+            return false;
+        }
+        if (_batch.putIfAbsent(hash, stored) == null) {
+            _batched += stored.length;
+            if (_batched >= BATCH_SIZE) {
+                writeBatch();
+            }
+        }
+        return true;
+    }
+
+    /** Writes the objects batched as a new pack, and empties the batch. */
+    private synchronized void writeBatch() {
+        if (_batch.isEmpty()) {
+            return;
+        }
+        Pack.Writer writer = new Pack.Writer(_packDir,
+                new ArrayList<>(_batch.keySet()));
+        for (Map.Entry<String, byte[]> entry : _batch.entrySet()) {
+            writer.add(entry.getKey(), null,
+                    new ByteArrayInputStream(entry.getValue()));
+        }
+        writer.finish();
+        _packs = null;
+        _batch.clear();
+        _batched = 0;
+    }
+
+    /** Moves every loose object and every existing pack into a single new
+     *  pack.  BASES maps objects to a preferred delta base, usually the
+     *  previous version of the same file. */
+    void repack(Map<String, String> bases) {
+        List<String> loose = looseHashes();
+        List<Pack> old = packs();
+        if (loose.isEmpty() && old.size() <= 1 && bases.isEmpty()) {
+            return;
+        }
+        TreeSet<String> all = allHashes();
+        Map<String, String> chosen = chooseBases(all, bases);
+        Pack.Writer writer = new Pack.Writer(_packDir, new ArrayList<>(all));
+        for (String hash : all) {
+            String base = chosen.get(hash);
+            byte[] stored = null;
+            if (base != null) {
+                byte[] contents = readUpTo(hash);
+                byte[] source = contents == null ? null : cached(base);
+                if (source != null) {
+                    byte[] delta = deflate(Delta.create(source, contents));
+                    stored = encode(contents);
+                    if (delta.length < stored.length) {
+                        writer.add(hash, base, new ByteArrayInputStream(delta));
+                        continue;
+                    }
+                }
+            }
+            try (InputStream in = stored != null
+                    ? new ByteArrayInputStream(stored) : openRaw(hash)) {
+                writer.add(hash, null, in != null ? in
+                        : new ByteArrayInputStream(encode(read(hash))));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        Pack fresh = writer.finish();
+        for (Pack pack : old) {
+            if (!pack.getFile().equals(fresh.getFile())) {
+                pack.delete();
+            }
+        }
+        _packs = null;
+        for (String hash : loose) {
+            loose(hash).delete();
+        }
+    }
+
+    /** Rewrites every object of a raw store deflated, leaving all of them
+     *  loose, then repacks with delta bases BASES if the store had packs.
+     *  Returns the number of objects converted.
+     *
+     *  The store is marked mixed first, and each object is replaced by
+     *  its deflated version on its own, so that the store can be read at
+     *  every point.  Only once all of them are deflated is the store
+     *  marked deflated, the old packs deleted and the mark of a mixed
+     *  store removed.  A conversion cut short is finished by calling this
+     *  again, which skips the objects already deflated. */
+    int compress(Map<String, String> bases) {
+        if (!_deflate || isDeflated() && !isMixed()) {
+            return 0;
+        }
+        if (!isMixed()) {
+            Utils.writeContents(_compressing, "");
+            _mixed = 1;
+        }
+        TreeSet<String> all = allHashes();
+        List<Pack> old = packs();
+        int converted = 0;
+        for (String hash : all) {
+            if (looseDeflated(hash)) {
+                continue;
+            }
+            long size = sizeOf(hash);
+            byte[] contents = size < 0 ? read(hash) : null;
+            try (InputStream in = contents != null
+                    ? new ByteArrayInputStream(contents) : open(hash)) {
+                store(hash, contents != null ? contents.length : size, in,
+                        true);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            converted += 1;
+        }
+        Utils.writeContents(_marker, "");
+        _deflated = 1;
+        for (Pack pack : old) {
+            pack.delete();
+        }
+        _packs = null;
+        if (!old.isEmpty()) {
+            repack(bases);
+        }
+        _compressing.delete();
+        _mixed = 0;
+        return converted;
+    }
+
+    /** Returns true if the object HASH is stored loose and deflated. */
+    private boolean looseDeflated(String hash) {
+        try (InputStream in = openLoose(hash)) {
+            return in != null && hasHeader(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the size of the contents of object HASH without reading
+     *  them: from its header if it is stored deflated, or else from its
+     *  pack entry or its file.  Returns -1 if it is stored as a delta. */
+    private long sizeOf(String hash) {
+        Pack pack = packOf(hash);
+        if (pack != null && pack.baseOf(hash) != null) {
+            return -1;
+        }
+        try (InputStream in = openRaw(hash)) {
+            if (hasHeader(in)) {
+                DataInputStream header = new DataInputStream(in);
+                header.readInt();
+                return header.readLong();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return pack != null ? pack.length(hash) : loose(hash).length();
+    }
+
+    /** Returns true if the stream IN, which must support marks, starts
+     *  with the header of a deflated object, leaving it where it was. */
+    private static boolean hasHeader(InputStream in) throws IOException {
+        in.mark(DEFLATED_HEADER);
+        byte[] magic = in.readNBytes(4);
+        in.reset();
+        return magic.length == 4
+                && ByteBuffer.wrap(magic).getInt() == DEFLATED_MAGIC;
+    }
+
+    /** Replaces the contents of every object by TRANSFORM applied to
+     *  them, unless TRANSFORM returns null, leaving the objects loose and
+     *  repacking them without deltas if the store had packs.  Returns the
+     *  number of objects changed. */
+    int rewrite(UnaryOperator<byte[]> transform) {
+        TreeSet<String> all = allHashes();
+        HashSet<String> changed = new HashSet<>();
+        for (String hash : all) {
+            byte[] contents = transform.apply(read(hash));
+            if (contents != null) {
+                store(hash, contents.length,
+                        new ByteArrayInputStream(contents), isDeflated());
+                changed.add(hash);
+            }
+        }
+        List<Pack> old = packs();
+        if (changed.isEmpty() || old.isEmpty()) {
+            return changed.size();
+        }
+        for (String hash : all) {
+            if (!changed.contains(hash) && !loose(hash).isFile()) {
+                byte[] contents = read(hash);
+                store(hash, contents.length,
+                        new ByteArrayInputStream(contents), isDeflated());
+            }
+        }
+        for (Pack pack : old) {
+            pack.delete();
+        }
+        _packs = null;
+        repack(Collections.emptyMap());
+        return changed.size();
+    }
+
+    /** Returns the delta base of each of the objects ALL, following
+     *  BASES but breaking cycles and cutting chains at MAX_DEPTH. */
+    private static Map<String, String> chooseBases(Set<String> all,
+            Map<String, String> bases) {
+        HashMap<String, Integer> depth = new HashMap<>();
+        HashMap<String, String> chosen = new HashMap<>();
+        for (String hash : all) {
+            ArrayList<String> path = new ArrayList<>();
+            HashSet<String> onPath = new HashSet<>();
+            String below = hash;
+            while (below != null && !depth.containsKey(below)) {
+                path.add(below); onPath.add(below);
+                String base = bases.get(below);
+                if (base == null || !all.contains(base)
+                        || onPath.contains(base)) {
+                    base = null;
+                }
+                below = base;
+            }
+            int d = below == null ? 0 : depth.get(below);
+            for (int i = path.size() - 1; i >= 0; i -= 1) {
+                String node = path.get(i);
+                if (below == null || d >= MAX_DEPTH) {
+                    d = 0;
+                } else {
+                    d += 1;
+                    chosen.put(node, below);
+                }
+                depth.put(node, d);
+                below = node;
+            }
+        }
+        return chosen;
+    }
+
+    /** Returns object HASH rebuilt from the delta in PACK against BASE.
+     *  Only the cache is locked, so that threads rebuild objects in
+     *  parallel; two threads may rebuild the same object at once. */
+    private byte[] rebuild(Pack pack, String hash, String base) {
+        byte[] result = fromCache(hash);
+        if (result == null) {
+            byte[] delta;
+            try (InputStream in = new InflaterInputStream(
+                    new BufferedInputStream(pack.open(hash), BUFFER_SIZE))) {
+                delta = in.readAllBytes();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            result = Delta.apply(cached(base), delta);
+            remember(hash, result);
+        }
+        return result;
+    }
+
+    /** Returns the contents of object HASH, through the cache, or null
+     *  if it is larger than MAX_DELTA_SIZE. */
+    private byte[] cached(String hash) {
+        byte[] result = fromCache(hash);
+        if (result == null) {
+            result = readUpTo(hash);
+            if (result != null) {
+                remember(hash, result);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of object HASH if they are in the cache, or
+     *  null. */
+    private synchronized byte[] fromCache(String hash) {
+        return _cache.get(hash);
+    }
+
+    /** Adds CONTENTS of object HASH to the cache, evicting the least
+     *  recently used objects to stay within CACHE_SIZE. */
+    private synchronized void remember(String hash, byte[] contents) {
+        if (contents.length > CACHE_SIZE / 4 || _cache.containsKey(hash)) {
+            return;
+        }
+        _cache.put(hash, contents);
+        _cached += contents.length;
+        Iterator<byte[]> iter = _cache.values().iterator();
+        while (_cached > CACHE_SIZE && iter.hasNext()) {
+            _cached -= iter.next().length;
+            iter.remove();
+        }
+    }
+
+    /** Returns the contents of object HASH, or null if it is missing or
+     *  larger than MAX_DELTA_SIZE. */
+    private byte[] readUpTo(String hash) {
+        try (InputStream in = open(hash)) {
+            if (in == null) {
+                return null;
+            }
+            byte[] result = in.readNBytes(MAX_DELTA_SIZE + 1);
+            return result.length > MAX_DELTA_SIZE ? null : result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns CONTENTS in the stored form of this store. */
+    private byte[] encode(byte[] contents) {
+        if (!isDeflated()) {
+            return contents;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(result);
+        try {
+            out.writeInt(DEFLATED_MAGIC);
+            out.writeLong(contents.length);
+            out.write(deflate(contents));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    /** Returns CONTENTS deflated. */
+    private byte[] deflate(byte[] contents) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(_level);
+        try (OutputStream out = new DeflaterOutputStream(result, deflater)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        return result.toByteArray();
+    }
+
+    /** Returns the pack holding the object HASH, or null if it is not
+     *  packed. */
+    private Pack packOf(String hash) {
+        for (Pack pack : packs()) {
+            if (pack.contains(hash)) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the hashes of all loose objects. */
+    List<String> looseHashes() {
+        List<String> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(_dir);
+        if (names != null) {
+            for (String name : names) {
+                if (Pack.toBinary(name) != null) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the hashes of all objects, loose and packed, in order. */
+    private TreeSet<String> allHashes() {
+        TreeSet<String> all = new TreeSet<>(looseHashes());
+        for (Pack pack : packs()) {
+            all.addAll(pack.hashes());
+        }
+        return all;
+    }
+
+    /** Writes the SIZE bytes of IN as the loose object HASH, deflated if
+     *  DEFLATE.  The object appears only once it is complete. */
+    private void store(String hash, long size, InputStream in,
+                       boolean deflate) {
+        File temp = temp(hash);
+        try (OutputStream out = deflate ? deflated(temp, size)
+                : new BufferedOutputStream(Files.newOutputStream(
+                        temp.toPath()), BUFFER_SIZE)) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        rename(temp, loose(hash));
+    }
+
+    /** Returns a stream writing a deflated object of SIZE bytes to FILE. */
+    private OutputStream deflated(File file, long size)
+        throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file.toPath()), BUFFER_SIZE));
+        out.writeInt(DEFLATED_MAGIC);
+        out.writeLong(size);
+        Deflater deflater = new Deflater(_level);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /** Renames FROM to TO, replacing TO. */
+    private static void rename(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Adds to STATE the name, size and modification time of each file
+     *  whose change means another process repacked or converted this
+     *  store: its marker and its pack files. */
+    void describe(List<String> state) {
+        state.add(_dir.getName() + " " + _marker.isFile() + " "
+                + _compressing.isFile());
+        File[] packFiles = _packDir.listFiles();
+        if (packFiles != null) {
+            for (File file : packFiles) {
+                state.add(file.getName() + " " + file.length() + " "
+                        + file.lastModified());
+            }
+        }
+    }
+
+    /** Forgets the packs and marker of this store, so that those
+     *  written by another process are seen. */
+    synchronized void refresh() {
+        _packs = null;
+        _deflated = -1;
+        _mixed = -1;
+    }
+
+    /** Returns the file of the loose object HASH. */
+    private File loose(String hash) {
+        return Utils.join(_dir, hash);
+    }
+
+    /** Returns a new, empty file the loose object HASH is written to
+     *  before it is renamed into place.  Its name is unique, so that
+     *  threads and processes storing the same object do not write over
+     *  each other. */
+    private File temp(String hash) {
+        try {
+            return Files.createTempFile(_dir.toPath(), hash, ".tmp")
+                    .toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the packs of this store. */
+    private synchronized List<Pack> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            File[] idxFiles = _packDir.listFiles((dir, name)
+                -> name.endsWith(".idx"));
+            if (idxFiles != null) {
+                for (File idxFile : idxFiles) {
+                    _packs.add(new Pack(idxFile));
+                }
+            }
+        }
+        return _packs;
+    }
+}
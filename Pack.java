@@ -0,0 +1,446 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A pack file of Gitlet: many objects appended to one file, found through
+ *  a sorted, memory-mapped index with a fan-out table on the first byte of
+ *  each id.
+ *
+ *  The .pack file is a header (magic, version, count) followed by the
+ *  stored objects in index order.  The .idx file is a header (magic,
+ *  version, count), 256 cumulative counts by first id byte, the sorted
+ *  20-byte ids, then the offset and the length of each object as longs.
+ *  Since version 2 it ends with the position of the delta base of each
+ *  object as an int, or -1 for objects stored in full; a delta object
+ *  holds a deflated {@link Delta} against its base.
+ *
+ *  A pack is named by the hash of its pack file, so that a pack rewritten
+ *  with other contents never replaces the files of another in place.  Its
+ *  .pack file is put in place before its .idx file, and packs are found by
+ *  their .idx files, so a pack is seen only once it is complete.
+ * @author Ryan Chen
+ */
+class Pack {
+    /** Magic number of a pack file ("GLPK").*/
+    static final int PACK_MAGIC = 0x474c504b;
+    /** Magic number of an index file ("GLIX").*/
+    static final int IDX_MAGIC = 0x474c4958;
+    /** Version of the pack format.*/
+    static final int VERSION = 2;
+    /** Size of the header of both files.*/
+    private static final int HEADER = 12;
+    /** Number of entries in the fan-out table.*/
+    private static final int FANOUT = 256;
+    /** Length of a binary object id.*/
+    static final int ID_LENGTH = 20;
+
+    /** The pack file.*/
+    private final File _packFile;
+    /** The memory-mapped index.*/
+    private final MappedByteBuffer _idx;
+    /** Number of objects in the pack.*/
+    private final int _count;
+    /** Version of the index.*/
+    private final int _version;
+
+    /** Opens the pack whose index is IDXFILE. */
+    Pack(File idxFile) {
+        String name = idxFile.getName();
+        _packFile = Utils.join(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel channel = FileChannel.open(idxFile.toPath())) {
+            _idx = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _version = _idx.getInt(4);
+        if (_idx.getInt(0) != IDX_MAGIC || _version < 1
+                || _version > VERSION) {
+            throw new IllegalArgumentException("bad pack index " + name);
+        }
+        _count = _idx.getInt(8);
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns the pack file. */
+    File getFile() {
+        return _packFile;
+    }
+
+    /** Returns true if this pack holds the object HASH. */
+    boolean contains(String hash) {
+        return find(hash) >= 0;
+    }
+
+    /** Returns the id of the delta base of object HASH, or null if it is
+     *  stored in full or not in this pack. */
+    String baseOf(String hash) {
+        int pos = find(hash);
+        if (pos < 0 || _version < 2) {
+            return null;
+        }
+        int base = _idx.getInt(idStart() + _count * (ID_LENGTH + 16)
+                + pos * 4);
+        if (base < 0) {
+            return null;
+        }
+        byte[] id = new byte[ID_LENGTH];
+        _idx.get(idStart() + base * ID_LENGTH, id);
+        return toHex(id);
+    }
+
+    /** Returns the number of stored bytes of object HASH, or -1 if it is
+     *  not in this pack. */
+    long length(String hash) {
+        int pos = find(hash);
+        return pos < 0 ? -1 : lengthAt(pos);
+    }
+
+    /** Returns a stream over the stored bytes of object HASH, or null if
+     *  it is not in this pack. */
+    InputStream open(String hash) {
+        int pos = find(hash);
+        if (pos < 0) {
+            return null;
+        }
+        try {
+            return new Region(FileChannel.open(_packFile.toPath()),
+                    offsetAt(pos), lengthAt(pos));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copies the stored bytes of object HASH to the end of OUT without
+     *  passing them through the heap.  Returns false if it is not in this
+     *  pack. */
+    boolean transferTo(String hash, FileChannel out) {
+        int pos = find(hash);
+        if (pos < 0) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(_packFile.toPath())) {
+            Utils.transfer(channel, offsetAt(pos), lengthAt(pos), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Returns the ids of all objects in this pack, in sorted order. */
+    List<String> hashes() {
+        List<String> result = new ArrayList<>(_count);
+        byte[] id = new byte[ID_LENGTH];
+        for (int i = 0; i < _count; i += 1) {
+            _idx.get(idStart() + i * ID_LENGTH, id);
+            result.add(toHex(id));
+        }
+        return result;
+    }
+
+    /** Deletes the files of this pack, its index first so that it is no
+     *  longer found. */
+    void delete() {
+        Utils.join(_packFile.getParentFile(), _packFile.getName()
+                .replace(".pack", ".idx")).delete();
+        _packFile.delete();
+    }
+
+    /** Returns the position of HASH in the index, or -1. */
+    private int find(String hash) {
+        return find(_idx, HEADER, hash);
+    }
+
+    /** Returns the position of HASH in a table of sorted ids of BUF that
+     *  starts at START with a fan-out table, or -1. */
+    static int find(ByteBuffer buf, int start, String hash) {
+        byte[] id = toBinary(hash);
+        if (id == null) {
+            return -1;
+        }
+        int ids = start + FANOUT * 4;
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : buf.getInt(start + (first - 1) * 4);
+        int hi = buf.getInt(start + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(buf, ids + mid * ID_LENGTH, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id at START in BUF with ID. */
+    private static int compareAt(ByteBuffer buf, int start, byte[] id) {
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int cmp = (buf.get(start + i) & 0xff) - (id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Writes a fan-out table of the sorted HASHES to OUT, followed by
+     *  the ids themselves. */
+    static void writeIds(DataOutputStream out, List<String> hashes)
+            throws IOException {
+        int[] fanout = new int[FANOUT];
+        for (String hash : hashes) {
+            fanout[Integer.parseInt(hash.substring(0, 2), 16)] += 1;
+        }
+        for (int i = 0, total = 0; i < FANOUT; i += 1) {
+            total += fanout[i];
+            out.writeInt(total);
+        }
+        for (String hash : hashes) {
+            out.write(toBinary(hash));
+        }
+    }
+
+    /** Returns the size of a table of COUNT ids written by
+     *  {@link #writeIds}. */
+    static int idsSize(int count) {
+        return FANOUT * 4 + count * ID_LENGTH;
+    }
+
+    /** Returns the start of the id table. */
+    private static int idStart() {
+        return HEADER + FANOUT * 4;
+    }
+
+    /** Returns the offset of the object at position POS. */
+    private long offsetAt(int pos) {
+        return _idx.getLong(idStart() + _count * ID_LENGTH + pos * 8);
+    }
+
+    /** Returns the length of the object at position POS. */
+    private long lengthAt(int pos) {
+        return _idx.getLong(idStart() + _count * (ID_LENGTH + 8) + pos * 8);
+    }
+
+    /** Writer of a new pack, which takes its objects in sorted order. */
+    static class Writer {
+        /** Folder of the pack.*/
+        private final File _dir;
+        /** File the pack is written to before it is named.*/
+        private final File _temp;
+        /** Digest of the bytes of the pack file written.*/
+        private final MessageDigest _digest;
+        /** Ids of the objects, sorted.*/
+        private final List<String> _hashes;
+        /** Offset of each object.*/
+        private final long[] _offsets;
+        /** Length of each object.*/
+        private final long[] _lengths;
+        /** Position of the delta base of each object, or -1.*/
+        private final int[] _bases;
+        /** Stream writing the pack file.*/
+        private final DataOutputStream _out;
+        /** Offset of the next object.*/
+        private long _offset;
+        /** Position of the next object.*/
+        private int _next;
+
+        /** A writer of a pack in DIR holding the objects HASHES, which
+         *  must be sorted. */
+        Writer(File dir, List<String> hashes) {
+            dir.mkdirs();
+            _dir = dir;
+            _hashes = hashes;
+            _offsets = new long[hashes.size()];
+            _lengths = new long[hashes.size()];
+            _bases = new int[hashes.size()];
+            try {
+                _digest = MessageDigest.getInstance("SHA-1");
+                _temp = Files.createTempFile(dir.toPath(), "pack-", ".tmp")
+                        .toFile();
+                _out = new DataOutputStream(new BufferedOutputStream(
+                        new DigestOutputStream(Files.newOutputStream(
+                                _temp.toPath()), _digest)));
+                _out.writeInt(PACK_MAGIC); _out.writeInt(VERSION);
+                _out.writeInt(hashes.size());
+            } catch (IOException | NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            _offset = HEADER;
+        }
+
+        /** Appends the object HASH, which is the next one in order, with
+         *  stored bytes IN.  BASE is the id of its delta base, or null if
+         *  it is stored in full. */
+        void add(String hash, String base, InputStream in) {
+            if (!hash.equals(_hashes.get(_next))) {
+                throw new IllegalArgumentException("pack out of order");
+            }
+            _bases[_next] = base == null ? -1
+                    : Collections.binarySearch(_hashes, base);
+            if (base != null && _bases[_next] < 0) {
+                throw new IllegalArgumentException("delta base not in pack");
+            }
+            try {
+                _offsets[_next] = _offset;
+                _lengths[_next] = in.transferTo(_out);
+                _offset += _lengths[_next];
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            _next += 1;
+        }
+
+        /** Writes the index, puts the pack file and then the index in
+         *  place under the hash of the pack file, and returns the new
+         *  pack.  A pack of the same name already in place has the same
+         *  contents, and so the same index. */
+        Pack finish() {
+            File idxTemp = null;
+            try {
+                _out.close();
+                if (_next != _hashes.size()) {
+                    throw new IllegalArgumentException("pack incomplete");
+                }
+                String name = "pack-" + toHex(_digest.digest());
+                idxTemp = Files.createTempFile(_dir.toPath(), name, ".tmp")
+                        .toFile();
+                try (DataOutputStream out = open(idxTemp)) {
+                    writeIndex(out);
+                }
+                File idxFile = Utils.join(_dir, name + ".idx");
+                Files.move(_temp.toPath(),
+                        Utils.join(_dir, name + ".pack").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.move(idxTemp.toPath(), idxFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                return new Pack(idxFile);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            } finally {
+                _temp.delete();
+                if (idxTemp != null) {
+                    idxTemp.delete();
+                }
+            }
+        }
+
+        /** Writes the index of this pack to OUT. */
+        private void writeIndex(DataOutputStream out) throws IOException {
+            out.writeInt(IDX_MAGIC); out.writeInt(VERSION);
+            out.writeInt(_hashes.size());
+            writeIds(out, _hashes);
+            for (long offset : _offsets) {
+                out.writeLong(offset);
+            }
+            for (long length : _lengths) {
+                out.writeLong(length);
+            }
+            for (int base : _bases) {
+                out.writeInt(base);
+            }
+        }
+    }
+
+    /** A stream over LENGTH bytes of a pack starting at an offset. */
+    private static class Region extends InputStream {
+        /** Channel of the pack file.*/
+        private final FileChannel _channel;
+        /** Position of the next byte.*/
+        private long _pos;
+        /** Position just past the last byte.*/
+        private final long _end;
+
+        /** A region of CHANNEL of LENGTH bytes starting at OFFSET. */
+        Region(FileChannel channel, long offset, long length) {
+            _channel = channel;
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_pos >= _end) {
+                return -1;
+            }
+            int n = (int) Math.min(len, _end - _pos);
+            n = _channel.read(ByteBuffer.wrap(b, off, n), _pos);
+            if (n < 0) {
+                throw new IOException("truncated pack");
+            }
+            _pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+    }
+
+    /** Returns a buffered data stream writing FILE. */
+    private static DataOutputStream open(File file) throws IOException {
+        OutputStream out = Files.newOutputStream(file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /** Returns HASH as 20 bytes, or null if it is not a full SHA-1 id. */
+    static byte[] toBinary(String hash) {
+        if (hash == null || hash.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] result = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int hi = Character.digit(hash.charAt(2 * i), 16);
+            int lo = Character.digit(hash.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
+    /** Returns ID as a hexadecimal string. */
+    static String toHex(byte[] id) {
+        StringBuilder result = new StringBuilder(Utils.UID_LENGTH);
+        for (byte b : id) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** Branches of Gitlet and the current branch.  Saved as the magic number,
+ *  the name of the current branch, then the number of branches and the
+ *  name and commit id of each.
+ * @author Ryan Chen
+ */
+class Refs {
+    /** Magic number and version of saved refs ("GLR" 1).*/
+    static final int MAGIC = 0x474c5201;
+
+    /** Name of the current branch.*/
+    private String _head;
+    /** Commit id of each branch.*/
+    private final HashMap<String, String> _branches;
+    /** True if the refs changed since they were loaded.*/
+    private boolean _dirty;
+
+    /** Refs with current branch HEAD and BRANCHES, not saved yet. */
+    Refs(String head, Map<String, String> branches) {
+        _head = head;
+        _branches = new HashMap<>(branches);
+        _dirty = true;
+    }
+
+    /** Returns the refs saved in FILE. */
+    static Refs fromFile(File file) {
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("corrupt refs");
+            }
+            String head = Codec.readString(in);
+            int count = Codec.readCount(in);
+            HashMap<String, String> branches = new HashMap<>();
+            for (int i = 0; i < count; i += 1) {
+                branches.put(Codec.readString(in), Codec.readId(in));
+            }
+            Refs result = new Refs(head, branches);
+            result._dirty = false;
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Saves the refs to FILE if they have changed. */
+    void saveRefs(File file) {
+        if (!_dirty) {
+            return;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(MAGIC);
+            Codec.writeString(out, _head);
+            Codec.writeVarint(out, _branches.size());
+            for (Map.Entry<String, String> entry : _branches.entrySet()) {
+                Codec.writeString(out, entry.getKey());
+                Codec.writeId(out, entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.replaceContents(file, result.toByteArray());
+        _dirty = false;
+    }
+
+    /** Returns the name of the current branch. */
+    String getHead() {
+        return _head;
+    }
+
+    /** Makes BRANCH the current branch. */
+    void setHead(String branch) {
+        if (!branch.equals(_head)) {
+            _head = branch;
+            _dirty = true;
+        }
+    }
+
+    /** Returns true if there is a branch named BRANCH. */
+    boolean containsKey(String branch) {
+        return _branches.containsKey(branch);
+    }
+
+    /** Returns the commit id of BRANCH, or null if there is none. */
+    String get(String branch) {
+        return _branches.get(branch);
+    }
+
+    /** Points BRANCH at commit HASH. */
+    void put(String branch, String hash) {
+        if (!hash.equals(_branches.put(branch, hash))) {
+            _dirty = true;
+        }
+    }
+
+    /** Deletes BRANCH. */
+    void remove(String branch) {
+        if (_branches.remove(branch) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Returns the names of all branches. */
+    Set<String> keySet() {
+        return _branches.keySet();
+    }
+}
@@ -0,0 +1,459 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
+
+/** A Gitlet repository, opened on the working directory it versions.
+ *  Each operation loads the story on first use, runs, and saves what it
+ *  changed; nothing is printed, and failures throw GitletException.  A
+ *  failed operation drops the story unsaved, so the next one reads it
+ *  again.
+ *
+ *  A repository may be held open across many operations, which keeps the
+ *  story, the stat cache, the commit graph and the caches of commits and
+ *  objects loaded between them.  Before each operation, the files of
+ *  .gitlet are compared with those the last one left, and the story and
+ *  the packs of each store are read again if another process changed
+ *  them; objects are named by their contents, so the caches stay valid.
+ *  Operations may be called from several threads, and run one at a time.
+ *  The iterators of log and global-log read commits as they are reached,
+ *  outside that order, and see the history as it was when they were
+ *  made.
+ * @author Ryan Chen
+ */
+public class Repository {
+    /** Working directory.*/
+    private final File _root;
+    /** Folder holding the repository.*/
+    private final File _folder;
+    /** Staging folder of a repository made before the staging index.*/
+    private final File _addFolder;
+    /** File containing the files staged for addition.*/
+    private final File _stagedFile;
+    /** Folder of the scratch files of checkouts.*/
+    private final File _scratchFolder;
+    /** File containing the serialized story of a repository made before
+     *  the story was split into parts.*/
+    private final File _storyFile;
+    /** Socket on which a daemon serves commands.*/
+    private final File _socketFile;
+    /** Folder containing all commits.*/
+    private final File _commitFolder;
+    /** File containing the stat cache of the working directory.*/
+    private final File _indexFile;
+    /** File containing the commit graph.*/
+    private final File _graphFile;
+    /** File containing the sorted index of commit ids.*/
+    private final File _idsFile;
+    /** File containing the branches and the current branch.*/
+    private final File _refsFile;
+    /** File containing the files staged for removal.*/
+    private final File _removedFile;
+    /** File containing the index of commits by message.*/
+    private final File _messagesFile;
+    /** Store of all blobs.*/
+    private final BlobStore _blobs;
+    /** Store of all commits.*/
+    private final ObjectStore _commits;
+    /** Store of all trees.*/
+    private final ObjectStore _trees;
+    /** Commits decoded from this repository.*/
+    private final CommitCache _commitCache =
+            new CommitCache(CommitCache.CAPACITY);
+    /** Loaded story, or null if it must be read again.*/
+    private Story _story;
+    /** State of .gitlet after the last save.*/
+    private List<String> _state;
+    /** True if each operation saves the story.*/
+    private boolean _autoSave = true;
+
+    /** The repository of the working directory ROOT, which need not
+     *  exist yet. */
+    Repository(File root) {
+        _root = root;
+        _folder = Utils.join(root, ".gitlet");
+        _addFolder = Utils.join(_folder, "add");
+        _stagedFile = Utils.join(_folder, "staged");
+        _scratchFolder = Utils.join(_folder, "tmp");
+        _storyFile = Utils.join(_folder, "story");
+        _socketFile = Utils.join(_folder, "daemon.sock");
+        _commitFolder = Utils.join(_folder, "commits");
+        _indexFile = Utils.join(_folder, "index");
+        _graphFile = Utils.join(_folder, "commit-graph");
+        _idsFile = Utils.join(_folder, "commit-ids");
+        _refsFile = Utils.join(_folder, "refs");
+        _removedFile = Utils.join(_folder, "removed");
+        _messagesFile = Utils.join(_folder, "messages");
+        _blobs = new BlobStore(Utils.join(_folder, "blobs"));
+        _commits = new ObjectStore(_commitFolder, false);
+        _trees = new ObjectStore(Utils.join(_folder, "trees"), false);
+    }
+
+    /** Creates a repository in the working directory ROOT, and returns
+     *  it open. */
+    public static Repository init(File root) {
+        Repository result = new Repository(root);
+        result.create();
+        return result;
+    }
+
+    /** Returns the repository of the working directory ROOT. */
+    public static Repository open(File root) {
+        Repository result = new Repository(root);
+        if (!result.exists()) {
+            throw new GitletException("Not in "
+                    + "an initialized Gitlet directory.");
+        }
+        return result;
+    }
+
+    /** Creates this repository, with the initial commit on master. */
+    synchronized void create() {
+        if (exists()) {
+            throw new GitletException("A Gitlet version-control system "
+                    + "already exists in the current directory.");
+        }
+        _folder.mkdirs();
+        _commitFolder.mkdirs();
+        _blobs.init();
+        _trees.init();
+        _story = new Story(this);
+        save();
+    }
+
+    /** Returns true if this repository was created. */
+    boolean exists() {
+        return _folder.isDirectory();
+    }
+
+    /** Stages each file at PATHS, or every file under each directory. */
+    public void add(String... paths) {
+        run(story -> story.add(paths));
+    }
+
+    /** Returns a commit of the files staged, with MESSAGE. */
+    public Commit commit(String message) {
+        return apply(story -> story.commit(message));
+    }
+
+    /** Unstages the file at PATH and, if it is tracked, stages it for
+     *  removal and deletes it. */
+    public void rm(String path) {
+        run(story -> story.rm(path));
+    }
+
+    /** Returns the commits from the head of the current branch back to
+     *  the initial commit along first parents, read as they are
+     *  reached. */
+    public Iterator<Commit> log() {
+        Commit head = apply(Story::getCurrentCommit);
+        return new Iterator<Commit>() {
+            private Commit _next = head;
+
+            @Override
+            public boolean hasNext() {
+                return _next != null;
+            }
+
+            @Override
+            public Commit next() {
+                if (_next == null) {
+                    throw new NoSuchElementException();
+                }
+                Commit result = _next;
+                _next = result.getParent();
+                return result;
+            }
+        };
+    }
+
+    /** Returns at most LIMIT commits made at or after SINCE, or all of
+     *  them if it is null, in the order of the id index, read one at a
+     *  time as they are reached. */
+    public Iterator<Commit> globalLog(long limit, Date since) {
+        Iterator<String> ids = apply(story -> story.getIds().iterator());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                ids, Spliterator.ORDERED), false)
+                .map(hash -> Commit.read(this, hash))
+                .filter(commit -> since == null
+                        || !commit.getTime().before(since))
+                .limit(limit).iterator();
+    }
+
+    /** Returns the ids of the commits with MESSAGE. */
+    public List<String> find(String message) {
+        return apply(story -> story.getMessages().find(message));
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT. */
+    public List<String> grep(String text) {
+        return apply(story -> story.getMessages().grep(text));
+    }
+
+    /** Returns the ids of the commits whose message holds each of WORDS,
+     *  whatever their case. */
+    public List<String> findTokens(String words) {
+        return apply(story -> story.getMessages().findTokens(words));
+    }
+
+    /** Returns the status of the repository. */
+    public Status status() {
+        return apply(Story::status);
+    }
+
+    /** Writes the file at PATH as it is in the current commit. */
+    public void checkoutFile(String path) {
+        run(story -> story.checkoutFile(null, path));
+    }
+
+    /** Writes the file at PATH as it is in the commit whose id starts with
+     *  COMMITID. */
+    public void checkoutFile(String commitID, String path) {
+        run(story -> story.checkoutFile(commitID, path));
+    }
+
+    /** Checks out the head of BRANCH, which becomes the current branch,
+     *  and returns what was written and deleted. */
+    public CheckoutReport checkoutBranch(String branch) {
+        return apply(story -> story.checkoutBranch(branch));
+    }
+
+    /** Makes a branch NAME at the current commit. */
+    public void branch(String name) {
+        run(story -> story.branch(name));
+    }
+
+    /** Removes the branch NAME. */
+    public void rmBranch(String name) {
+        run(story -> story.rmBranch(name));
+    }
+
+    /** Checks out the commit whose id starts with COMMITID, which becomes
+     *  the head of the current branch, and returns what was written and
+     *  deleted. */
+    public CheckoutReport reset(String commitID) {
+        return apply(story -> story.reset(commitID));
+    }
+
+    /** Merges BRANCH into the current branch. */
+    public MergeResult merge(String branch) {
+        return apply(story -> story.merge(branch));
+    }
+
+    /** Moves all loose objects into pack files. */
+    public void repack() {
+        run(Story::repack);
+    }
+
+    /** Deflates the blobs of an uncompressed repository, and returns how
+     *  many were rewritten. */
+    public int compress() {
+        return apply(Story::compress);
+    }
+
+    /** Rewrites the commits saved with Java serialization in binary form,
+     *  and returns how many were rewritten. */
+    public int convert() {
+        return apply(Story::convert);
+    }
+
+    /** Runs COMMAND on the story. */
+    private void run(Consumer<Story> command) {
+        apply(story -> {
+            command.accept(story);
+            return null;
+        });
+    }
+
+    /** Returns what COMMAND returns when run on the story, which is then
+     *  saved, or dropped if COMMAND fails.  A failure other than a
+     *  GitletException or IllegalArgumentException drops the story even
+     *  if operations do not save, as it may be left half changed. */
+    private synchronized <T> T apply(Function<Story, T> command) {
+        Story story = getStory();
+        T result;
+        try {
+            result = command.apply(story);
+        } catch (GitletException | IllegalArgumentException excp) {
+            if (_autoSave) {
+                _story = null;
+            } else {
+                story.endCommand();
+            }
+            throw excp;
+        } catch (RuntimeException excp) {
+            _story = null;
+            throw excp;
+        }
+        if (_autoSave) {
+            save();
+        } else {
+            story.endCommand();
+        }
+        return result;
+    }
+
+    /** Sets whether each operation saves the story to AUTOSAVE.  If it
+     *  is false, the story stays loaded, changes and all, until save is
+     *  called, and changes by other processes are not seen. */
+    synchronized void setAutoSave(boolean autoSave) {
+        _autoSave = autoSave;
+    }
+
+    /** Saves every part of the story that changed. */
+    synchronized void save() {
+        if (_story != null) {
+            _story.saveStory();
+            _state = state();
+        }
+    }
+
+    /** Returns the story, reading it again if another process changed the
+     *  repository since it was last saved.  The tree store of a repository
+     *  made before there were trees is created on the first read. */
+    synchronized Story getStory() {
+        if (_story == null || _autoSave && !state().equals(_state)) {
+            _blobs.refresh();
+            _commits.refresh();
+            _trees.refresh();
+            if (!_trees.exists()) {
+                _trees.init();
+            }
+            _story = Story.storyFromFile(this);
+        }
+        return _story;
+    }
+
+    /** Returns the name, size, modification time and file key of each
+     *  file directly in .gitlet, with what shows that a store was
+     *  repacked or converted. */
+    private List<String> state() {
+        List<String> result = new ArrayList<>();
+        File[] files = _folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.equals(_socketFile)) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(
+                            file.toPath(), BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        result.add(file.getName() + " " + attrs.size() + " "
+                                + attrs.lastModifiedTime().to(
+                                        TimeUnit.NANOSECONDS) + " "
+                                + attrs.fileKey());
+                    }
+                } catch (IOException excp) {
+                    result.add(file.getName());
+                }
+            }
+        }
+        _blobs.describe(result);
+        _commits.describe(result);
+        _trees.describe(result);
+        result.sort(null);
+        return result;
+    }
+
+    /** Returns the working directory. */
+    public File getRoot() {
+        return _root;
+    }
+
+    /** Returns the folder holding the repository. */
+    File getFolder() {
+        return _folder;
+    }
+
+    /** Returns the staging folder of a repository made before the staging
+     *  index. */
+    File getAddFolder() {
+        return _addFolder;
+    }
+
+    /** Returns the file containing the files staged for addition. */
+    File getStagedFile() {
+        return _stagedFile;
+    }
+
+    /** Returns the folder of the scratch files of checkouts. */
+    File getScratchFolder() {
+        return _scratchFolder;
+    }
+
+    /** Returns the file containing the story of a repository made before
+     *  the story was split into parts. */
+    File getStoryFile() {
+        return _storyFile;
+    }
+
+    /** Returns the socket on which a daemon serves commands. */
+    File getSocketFile() {
+        return _socketFile;
+    }
+
+    /** Returns the file containing the stat cache. */
+    File getIndexFile() {
+        return _indexFile;
+    }
+
+    /** Returns the file containing the commit graph. */
+    File getGraphFile() {
+        return _graphFile;
+    }
+
+    /** Returns the file containing the sorted index of commit ids. */
+    File getIdsFile() {
+        return _idsFile;
+    }
+
+    /** Returns the file containing the branches and the current
+     *  branch. */
+    File getRefsFile() {
+        return _refsFile;
+    }
+
+    /** Returns the file containing the files staged for removal. */
+    File getRemovedFile() {
+        return _removedFile;
+    }
+
+    /** Returns the file containing the index of commits by message. */
+    File getMessagesFile() {
+        return _messagesFile;
+    }
+
+    /** Returns the store of all blobs. */
+    BlobStore getBlobs() {
+        return _blobs;
+    }
+
+    /** Returns the store of all commits. */
+    ObjectStore getCommits() {
+        return _commits;
+    }
+
+    /** Returns the store of all trees. */
+    ObjectStore getTrees() {
+        return _trees;
+    }
+
+    /** Returns the cache of the commits decoded from this repository. */
+    CommitCache getCommitCache() {
+        return _commitCache;
+    }
+}
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/** Files staged for addition: the path of each with the id of its blob,
+ *  which is written to the blob store when the file is staged.  Saved as
+ *  the magic number, then the number of files and the path and blob id
+ *  of each, in path order.
+ * @author Ryan Chen
+ */
+class Staging {
+    /** Magic number and version of a saved staging index ("GLA" 1).*/
+    static final int MAGIC = 0x474c4101;
+
+    /** Blob id of each staged file, by path.*/
+    private final TreeMap<String, String> _files = new TreeMap<>();
+    /** True if the staging index changed since it was loaded.*/
+    private boolean _dirty;
+
+    /** An empty staging index, not saved yet. */
+    Staging() {
+        _dirty = true;
+    }
+
+    /** Returns the staging index saved in FILE, or an empty one if there
+     *  is none. */
+    static Staging fromFile(File file) {
+        Staging result = new Staging();
+        if (!file.isFile()) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("corrupt staging index");
+            }
+            int count = Codec.readCount(in);
+            for (int i = 0; i < count; i += 1) {
+                result._files.put(Codec.readString(in), Codec.readId(in));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        result._dirty = false;
+        return result;
+    }
+
+    /** Saves the staging index to FILE if it has changed. */
+    void saveStaging(File file) {
+        if (!_dirty) {
+            return;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(MAGIC);
+            Codec.writeVarint(out, _files.size());
+            for (Map.Entry<String, String> entry : _files.entrySet()) {
+                Codec.writeString(out, entry.getKey());
+                Codec.writeId(out, entry.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.replaceContents(file, result.toByteArray());
+        _dirty = false;
+    }
+
+    /** Returns the blob id staged for PATH, or null if it is not
+     *  staged. */
+    String get(String path) {
+        return _files.get(path);
+    }
+
+    /** Returns true if PATH is staged. */
+    boolean containsKey(String path) {
+        return _files.containsKey(path);
+    }
+
+    /** Stages PATH with blob id HASH. */
+    void put(String path, String hash) {
+        if (!hash.equals(_files.put(path, hash))) {
+            _dirty = true;
+        }
+    }
+
+    /** Unstages PATH. */
+    void remove(String path) {
+        if (_files.remove(path) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Unstages every file. */
+    void clear() {
+        if (!_files.isEmpty()) {
+            _files.clear();
+            _dirty = true;
+        }
+    }
+
+    /** Returns true if no file is staged. */
+    boolean isEmpty() {
+        return _files.isEmpty();
+    }
+
+    /** Returns the staged paths, in order. */
+    SortedSet<String> keySet() {
+        return _files.navigableKeySet();
+    }
+
+    /** Returns the staged paths with their blob ids, in path order. */
+    Map<String, String> entries() {
+        return Collections.unmodifiableMap(_files);
+    }
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/** Status of a Gitlet repository: its branches, the files staged for
+ *  addition and removal, the changes to the working directory that are
+ *  not staged, and the files that are not tracked.  Every list is in
+ *  path or name order.
+ * @author Ryan Chen
+ */
+public class Status {
+    /** Change of a file modified since it was committed or staged.*/
+    public static final String MODIFIED = "modified";
+    /** Change of a file deleted since it was committed or staged.*/
+    public static final String DELETED = "deleted";
+
+    /** Name of the current branch.*/
+    private final String _current;
+    /** Names of all branches.*/
+    private final List<String> _branches;
+    /** Paths of the files staged for addition.*/
+    private final List<String> _staged;
+    /** Paths of the files staged for removal.*/
+    private final List<String> _removed;
+    /** Change of each file changed but not staged, by path.*/
+    private final SortedMap<String, String> _modified;
+    /** Paths of the untracked files.*/
+    private final List<String> _untracked;
+
+    /** The status of a repository whose current branch is CURRENT, among
+     *  BRANCHES, with STAGED and REMOVED files staged, the unstaged
+     *  changes MODIFIED, and UNTRACKED files. */
+    Status(String current, SortedSet<String> branches, List<String> staged,
+           SortedSet<String> removed, SortedMap<String, String> modified,
+           SortedSet<String> untracked) {
+        _current = current;
+        _branches = Collections.unmodifiableList(new ArrayList<>(branches));
+        _staged = Collections.unmodifiableList(staged);
+        _removed = Collections.unmodifiableList(new ArrayList<>(removed));
+        _modified = Collections.unmodifiableSortedMap(modified);
+        _untracked = Collections.unmodifiableList(new ArrayList<>(untracked));
+    }
+
+    /** Returns the name of the current branch. */
+    public String getCurrentBranch() {
+        return _current;
+    }
+
+    /** Returns the names of all branches. */
+    public List<String> getBranches() {
+        return _branches;
+    }
+
+    /** Returns the paths of the files staged for addition. */
+    public List<String> getStaged() {
+        return _staged;
+    }
+
+    /** Returns the paths of the files staged for removal. */
+    public List<String> getRemoved() {
+        return _removed;
+    }
+
+    /** Returns the files changed since they were committed or staged,
+     *  but not staged, each with MODIFIED or DELETED. */
+    public SortedMap<String, String> getModified() {
+        return _modified;
+    }
+
+    /** Returns the paths of the files that are neither tracked nor
+     *  staged. */
+    public List<String> getUntracked() {
+        return _untracked;
+    }
+
+    /** Returns true if nothing is staged, changed or untracked. */
+    public boolean isClean() {
+        return _staged.isEmpty() && _removed.isEmpty()
+                && _modified.isEmpty() && _untracked.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("=== Branches ===%n"));
+        for (String branch : _branches) {
+            result.append(branch.equals(_current) ? "*" : "")
+                    .append(String.format("%s%n", branch));
+        }
+        result.append(String.format("%n=== Staged Files ===%n"));
+        for (String path : _staged) {
+            result.append(String.format("%s%n", path));
+        }
+        result.append(String.format("%n=== Removed Files ===%n"));
+        for (String path : _removed) {
+            result.append(String.format("%s%n", path));
+        }
+        result.append(String.format(
+                "%n=== Modifications Not Staged For Commit ===%n"));
+        for (Map.Entry<String, String> entry : _modified.entrySet()) {
+            result.append(String.format("%s (%s)%n", entry.getKey(),
+                    entry.getValue()));
+        }
+        result.append(String.format("%n=== Untracked Files ===%n"));
+        for (String path : _untracked) {
+            result.append(String.format("%s%n", path));
+        }
+        return result.toString();
+    }
+}
@@ -1,15 +1,23 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Date;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.SortedSet;
+import java.util.SortedMap;
 import java.util.Collections;
 
 import static gitlet.Utils.*;
@@ -18,40 +26,99 @@ import static gitlet.Utils.*;
  * @author Ryan Chen
  */
 public class Story implements Serializable {
-    /** Branch to Hash.*/
+    /** Serial version of repositories created before it was pinned.*/
+    private static final long serialVersionUID = -454879007343191991L;
+    /** Branch to Hash, in a story saved before it was split.*/
     private HashMap<String, String> _branchToHash;
-    /** Message to Hash.*/
+    /** Message to Hash, in a story saved before it was split.*/
     private HashMap<String, HashSet<String>> _msgToHash;
-    /** Commit logs.*/
+    /** Logs of all commits, in a story saved before it was split.*/
     private HashSet<String> _commitLogs;
-    /** Marked for removal.*/
+    /** Files staged for removal, in a story saved before it was split.*/
     private HashSet<String> _toBeRemoved;
-    /** All commit hashes.*/
+    /** All commit hashes, in a story saved before it was split.*/
     private HashSet<String> _allCommitHashes;
-    /** Current pointer.*/
+    /** Current pointer, in a story saved before it was split.*/
     private String _currentPointer;
-    /** Mark blue helper function for merge.*/
-    private HashSet<String> _markedBlue;
-    /** Hash ID for LCA.*/
-    private String _bestHash;
-    /** Distance to LCA.*/
-    private int _bestDist;
-
-    /** Constructor of story class.*/
-    public Story() {
-        Commit first = Commit.EMPTYCOMMIT;
+    /** Repository this is the story of.*/
+    private transient Repository _repo;
+    /** Branches and the current branch.*/
+    private transient Refs _refs;
+    /** Files staged for addition, loaded when first needed.*/
+    private transient Staging _staged;
+    /** Files staged for removal, loaded when first needed.*/
+    private transient HashSet<String> _removed;
+    /** Files staged for removal as last saved, or null if never saved.*/
+    private transient HashSet<String> _removedSaved;
+    /** Index of the commits by message, loaded when first needed.*/
+    private transient MessageIndex _messages;
+    /** Stat cache of the working directory and staging area.*/
+    private transient Index _index;
+    /** Commit graph, loaded when first needed.*/
+    private transient CommitGraph _graph;
+    /** Sorted index of commit ids, loaded when first needed.*/
+    private transient IdIndex _ids;
+    /** Working directory as the current command sees it, or null if it
+     *  is not listed yet or has changed since.*/
+    private transient WorkingTreeSnapshot _snapshot;
+    /** Magic number and version of an encoded story ("GLS" 1).*/
+    static final int MAGIC = 0x474c5301;
+    /** Magic number and version of the removal staging file ("GLD" 1).*/
+    static final int REMOVED_MAGIC = 0x474c4401;
+
+    /** Constructor of the story of a new repository.
+     * @param repo is that repository. */
+    Story(Repository repo) {
+        _repo = repo;
+        Commit first = Commit.initial();
+        HashMap<String, String> branches = new HashMap<>();
+        branches.put("master", first.getHash());
+        _refs = new Refs("master", branches);
+        _removed = new HashSet<>();
+        _staged = new Staging();
+        getMessages().add(first.getMessage(), first.getHash());
+        getIds().add(first.getHash());
+        first.saveCommit(_repo);
+    }
+
+    /** Constructor of a story of REPO whose parts other than REFS are
+     * loaded when first needed.
+     * @param repo is the repository.
+     * @param refs are the branches of the repository. */
+    private Story(Repository repo, Refs refs) {
+        _repo = repo;
+        _refs = refs;
+    }
+
+    /** Constructor of a story decoded from IN.
+     * @param in is the stream holding an encoded story. */
+    private Story(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("corrupt story");
+        }
+        _currentPointer = Codec.readString(in);
+        int count = Codec.readCount(in);
         _branchToHash = new HashMap<>();
-        _currentPointer = "master";
-        _branchToHash.put("master", first.getHash());
-        _msgToHash = new HashMap<>(); _allCommitHashes = new HashSet<>();
-        HashSet<String> firstHash = new HashSet<>();
-        firstHash.add(first.getHash());
-        _allCommitHashes.add(first.getHash());
-        _msgToHash.put(first.getMessage(), firstHash);
+        for (int i = 0; i < count; i += 1) {
+            _branchToHash.put(Codec.readString(in), Codec.readId(in));
+        }
+        count = Codec.readCount(in);
+        _msgToHash = new HashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            String msg = Codec.readString(in);
+            _msgToHash.put(msg, readIds(in));
+        }
+        count = Codec.readCount(in);
         _commitLogs = new HashSet<>();
-        _commitLogs.add(first.toString());
+        for (int i = 0; i < count; i += 1) {
+            _commitLogs.add(Codec.readString(in));
+        }
+        count = Codec.readCount(in);
         _toBeRemoved = new HashSet<>();
-        first.saveCommit();
+        for (int i = 0; i < count; i += 1) {
+            _toBeRemoved.add(Codec.readString(in));
+        }
+        _allCommitHashes = readIds(in);
     }
 
     /** Returns a commit with message.
@@ -61,414 +128,377 @@ public class Story implements Serializable {
             throw new GitletException("Please enter a commit message.");
         }
         String date = Commit.DATEFORMAT.format(new Date());
-        HashMap<String, String> fileNameToFileHash = new HashMap<>();
+        HashMap<String, String> changes = new HashMap<>();
         Commit parent = this.getCurrentCommit();
         String parentHash = parent.getHash();
-        for (Map.Entry<String, String> entry
-                : parent.getFileNameToFileHash().entrySet()) {
-            fileNameToFileHash.put(entry.getKey(), entry.getValue());
-        }
-        List<String> stagedFiles = plainFilenamesIn(Main.ADD_FOLDER);
-        if (stagedFiles != null) {
-            if (stagedFiles.isEmpty() && _toBeRemoved.isEmpty()) {
-                throw new GitletException("No changes added to the commit.");
-            } else {
-                for (String name : stagedFiles) {
-                    File inStage = Utils.join(Main.ADD_FOLDER, name);
-                    byte[] bytesFile = Utils.readContents(inStage);
-                    String hash = sha1(bytesFile);
-                    File inBlobs = Utils.join(Main.BLOB_FOLDER, hash);
-                    Utils.writeContents(inBlobs, bytesFile);
-                    if (fileNameToFileHash.containsKey(name)) {
-                        fileNameToFileHash.replace(name, hash);
-                    } else {
-                        fileNameToFileHash.put(name, hash);
-                    }
-                    inStage.delete();
-                }
-            }
+        if (getStaged().isEmpty() && getRemoved().isEmpty()) {
+            throw new GitletException("No changes added to the commit.");
         }
-        if (!_toBeRemoved.isEmpty()) {
-            for (String name : _toBeRemoved) {
-                fileNameToFileHash.remove(name);
-            }
+        changes.putAll(getStaged().entries());
+        getStaged().clear();
+        for (String name : getRemoved()) {
+            changes.put(name, null);
         }
-        return new Commit(msg, date, parentHash, fileNameToFileHash);
+        String tree = Tree.update(_repo.getTrees(), parent.getTreeHash(),
+                changes);
+        return new Commit(msg, date, parentHash, tree);
     }
 
     /** Updates story after a change.
      * @param commit is the commit that the created the change.*/
     public void updateStory(Commit commit) {
-        _branchToHash.put(_currentPointer, commit.getHash());
-        if (_msgToHash.containsKey(commit.getMessage())) {
-            HashSet<String> currentHashes =
-                    _msgToHash.get(commit.getMessage());
-            currentHashes.add(commit.getHash());
-            _msgToHash.put(commit.getMessage(), currentHashes);
-        } else {
-            HashSet<String> currentHashes = new HashSet<>();
-            currentHashes.add(commit.getHash());
-            _msgToHash.put(commit.getMessage(), currentHashes);
-        }
-        _commitLogs.add(commit.toString());
-        _allCommitHashes.add(commit.getHash());
-        _toBeRemoved.clear();
-    }
-
-    /** Add function of gitlet.
-     * @param nameOfFile is the name of the file being added.*/
-    public void add(String nameOfFile) {
-        File inCWD = Utils.join(Main.CWD, nameOfFile);
-        if (!inCWD.isFile()) {
-            throw new GitletException("File does not exist.");
+        _refs.put(_refs.getHead(), commit.getHash());
+        getMessages().add(commit.getMessage(), commit.getHash());
+        getIds().add(commit.getHash());
+        getRemoved().clear();
+    }
+
+    /** Records a commit made without the working directory, such as a
+     * generated one, as the head of a branch.
+     * @param branch is the branch, made if it does not exist.
+     * @param commit is the commit, already saved. */
+    public void recordCommit(String branch, Commit commit) {
+        _refs.put(branch, commit.getHash());
+        getMessages().add(commit.getMessage(), commit.getHash());
+        getIds().add(commit.getHash());
+    }
+
+    /** Returns a commit with message MSG of the files staged, saved and
+     * made the head of the current branch.
+     * @param msg is that message. */
+    public Commit commit(String msg) {
+        Commit result = makeCommit(msg);
+        updateStory(result);
+        result.saveCommit(_repo);
+        return result;
+    }
+
+    /** Add function of gitlet.  Stages each file named, or every file
+     * of the working directory for ".".  Files in subdirectories, and
+     * every file under each directory named, are staged only when
+     * commands are recursive.  The files are listed in one walk, hashed
+     * in parallel, and staged together.
+     * @param names are the names of the files and directories added.*/
+    public void add(String... names) {
+        FileScanner scanner = scanner();
+        TreeMap<String, BasicFileAttributes> files = new TreeMap<>();
+        for (String name : names) {
+            SortedMap<String, BasicFileAttributes> found =
+                    scanner.list(_repo.getRoot(), name);
+            if (found.isEmpty() && !(name.equals(".") || scanner.isRecursive()
+                    && Utils.join(_repo.getRoot(), name).isDirectory())) {
+                throw new GitletException("File does not exist.");
+            }
+            files.putAll(found);
         }
-        File inStage = Utils.join(Main.ADD_FOLDER, nameOfFile);
-        byte[] contentCWD = Utils.readContents(inCWD);
         Commit currentCommit = getCurrentCommit();
-        if (currentCommit.getFileNameToFileHash().get(nameOfFile) != null) {
-            if (currentCommit.getFileNameToFileHash().get(nameOfFile).
-                    equals(Utils.sha1(contentCWD))) {
-                inStage.delete();
-            } else {
-                Utils.writeContents(inStage, contentCWD);
+        for (Map.Entry<String, String> entry
+                : scanner.hash(_repo.getRoot(), files).entrySet()) {
+            String nameOfFile = entry.getKey();
+            String hashCWD = entry.getValue();
+            if (hashCWD.equals(currentCommit.getFileHash(nameOfFile))) {
+                getStaged().remove(nameOfFile);
+            } else if (!hashCWD.equals(getStaged().get(nameOfFile))) {
+                _repo.getBlobs().write(hashCWD,
+                        Utils.join(_repo.getRoot(), nameOfFile));
+                getStaged().put(nameOfFile, hashCWD);
             }
-        } else {
-            Utils.writeContents(inStage, contentCWD);
+            getRemoved().remove(nameOfFile);
         }
-        _toBeRemoved.remove(nameOfFile);
     }
 
-    /** Rm function of gitlet. .
-     * @param name is the name of the file removed.*/
-    public void rm(String name) {
-        File inStage = Utils.join(Main.ADD_FOLDER, name);
-        if (!inStage.isFile() && !getCurrentCommit().
-                getFileNameToFileHash().containsKey(name)) {
-            throw new GitletException("No reason to remove the file.");
-        }
-        inStage.delete();
-        if (getCurrentCommit().getFileNameToFileHash().containsKey(name)) {
-            _toBeRemoved.add(name); File inCWD = Utils.join(Main.CWD, name);
-            Utils.restrictedDelete(inCWD);
+    /** Returns the working directory as this command sees it, listing
+     * it on first use. */
+    public WorkingTreeSnapshot getSnapshot() {
+        if (_snapshot == null) {
+            _snapshot = new WorkingTreeSnapshot(_repo.getRoot(), scanner(),
+                    getCurrentCommit().getFileNameToFileHash(), getStaged(),
+                    getRemoved());
         }
+        return _snapshot;
     }
 
-    /** Finds the commit ID with given message.
-     * @param msg is the message of the commit.*/
-    public void find(String msg) {
-        if (!_msgToHash.containsKey(msg)) {
-            throw new GitletException("Found no commit with that message.");
-        }
-        HashSet<String> commitIDs = _msgToHash.get(msg);
-        for (String commitID : commitIDs) {
-            System.out.println(commitID);
-        }
+    /** Returns a scanner of the working directory through the stat
+     * cache, hashing with as many threads as a checkout writes with. */
+    private FileScanner scanner() {
+        return new FileScanner(getIndex(), Materializer.PARALLELISM,
+                FileScanner.RECURSIVE);
     }
 
-    /** Prints the log of the story.*/
-    public void log() {
-        for (Commit cur = getCommitFromBranch(_currentPointer);
-             cur != null; cur = cur.getParent()) {
-            System.out.println(cur.toString());
+    /** Rm function of gitlet. .
+     * @param name is the name of the file removed.*/
+    public void rm(String name) {
+        boolean tracked = getCurrentCommit().getFileHash(name) != null;
+        if (!getStaged().containsKey(name) && !tracked) {
+            throw new GitletException("No reason to remove the file.");
         }
-    }
-
-    /** Prints the global log of the story.*/
-    public void globalLog() {
-        for (String log : _commitLogs) {
-            System.out.println(log);
+        getStaged().remove(name);
+        if (tracked) {
+            getRemoved().add(name);
+            Utils.restrictedDelete(_repo.getRoot(), name);
+            _snapshot = null;
         }
     }
 
     /** Adds a branch.
      * @param name is the name of the branch. */
     public void branch(String name) {
-        if (_branchToHash.containsKey(name)) {
+        if (_refs.containsKey(name)) {
             throw new GitletException("A branch with that"
                     + " name already exists.");
         }
-        _branchToHash.put(name, _branchToHash.get(_currentPointer));
+        _refs.put(name, _refs.get(_refs.getHead()));
     }
 
     /** Removes branch.
      * @param name is the name of the branch. */
     public void rmBranch(String name) {
-        if (!_branchToHash.containsKey(name)) {
+        if (!_refs.containsKey(name)) {
             throw new GitletException("A branch with that name "
                     + "does not exist.");
-        } else if (_currentPointer.equals(name)) {
+        } else if (_refs.getHead().equals(name)) {
             throw new GitletException("Cannot remove the current branch.");
         }
-        _branchToHash.remove(name);
+        _refs.remove(name);
     }
 
-    /** Checkout function of the story.
-     * @param args are the arguments from Main. */
-    public void checkout(String...args) {
-        if (args.length == 3) {
-            if (args[1].equals("--")) {
-                HashMap<String, String> fileNameToHash =
-                        getCurrentCommit().getFileNameToFileHash();
-                if (!fileNameToHash.containsKey(args[2])) {
-                    throw new GitletException("File does not "
-                            + "exist in that commit.");
-                }
-                String hashBlob = fileNameToHash.get(args[2]);
-                Utils.copyFile(Main.CWD, Main.BLOB_FOLDER, hashBlob, args[2]);
-            } else {
-                throw new GitletException("Incorrect Operands.");
-            }
-        } else if (args.length == 4) {
-            if (args[2].equals("--")) {
-                String commitID = findFullHash(args[1]);
-                if (commitID == null) {
-                    throw new GitletException("No commit with that id exists.");
-                }
-                Commit current = Commit.fromFile(commitID);
-                if (current != null) {
-                    HashMap<String, String> fileNameToHash =
-                            current.getFileNameToFileHash();
-                    if (!fileNameToHash.containsKey(args[3])) {
-                        throw new GitletException("File does not "
-                                + "exist in that commit.");
-                    }
-                    String hashBlob = fileNameToHash.get(args[3]);
-                    Utils.copyFile(Main.CWD,
-                            Main.BLOB_FOLDER, hashBlob, args[3]);
-                }
-            } else {
-                throw new GitletException("Incorrect Operands.");
+    /** Writes the file at PATH as it is in the commit whose id starts
+     * with COMMITID, or in the current commit if COMMITID is null.
+     * @param commitID is the id of the commit, or null.
+     * @param path is the path of the file. */
+    public void checkoutFile(String commitID, String path) {
+        Commit commit;
+        if (commitID == null) {
+            commit = getCurrentCommit();
+        } else {
+            String fullID = findFullHash(commitID);
+            if (fullID == null) {
+                throw new GitletException("No commit with that id exists.");
             }
-        } else if (args.length == 2) {
-            if (!args[1].isEmpty()) {
-                if (!_branchToHash.containsKey(args[1])) {
-                    throw new GitletException("No such branch exists.");
-                } else if (_currentPointer.equals(args[1])) {
-                    throw new GitletException("No need to checkout "
-                            + "the current branch.");
-                }
-                String commitHash = _branchToHash.get(args[1]);
-                Commit commitFromBranch = Commit.fromFile(commitHash);
-                if (commitFromBranch == null) {
-                    throw new GitletException("iip");
-                }
-                copyAndDelete(commitFromBranch); clearStagingArea();
-                _currentPointer = args[1];
-                _branchToHash.put(_currentPointer, commitHash);
-            } else {
-                throw new GitletException("Incorrect Operands.");
+            commit = Commit.fromFile(_repo, fullID);
+        }
+        if (commit != null) {
+            String hashBlob = commit.getFileHash(path);
+            if (hashBlob == null) {
+                throw new GitletException("File does not "
+                        + "exist in that commit.");
             }
-        } else {
-            throw new GitletException("Incorrect Operands.");
+            TreeMap<String, String> writes = new TreeMap<>();
+            writes.put(path, hashBlob);
+            materialize(writes, new TreeSet<>());
+        }
+    }
+
+    /** Checks out the head of BRANCH, which becomes the current branch.
+     * @param branch is the name of the branch.
+     * @return what was written and deleted. */
+    public CheckoutReport checkoutBranch(String branch) {
+        if (!_refs.containsKey(branch)) {
+            throw new GitletException("No such branch exists.");
+        } else if (_refs.getHead().equals(branch)) {
+            throw new GitletException("No need to checkout "
+                    + "the current branch.");
+        }
+        String commitHash = _refs.get(branch);
+        checkCWDForUntrackedFiles(commitHash);
+        Commit commitFromBranch = Commit.fromFile(_repo, commitHash);
+        if (commitFromBranch == null) {
+            throw new GitletException("iip");
         }
+        CheckoutReport report = copyAndDelete(commitFromBranch);
+        clearStagingArea();
+        _refs.setHead(branch);
+        _refs.put(_refs.getHead(), commitHash);
+        return report;
     }
 
-    /** Copies and deletes files in CWD.
+    /** Copies and deletes files in CWD.  Only the files that differ
+     * between the current commit and the given one are touched: those it
+     * lacks are deleted, and the others are written unless the working
+     * directory already holds them.
      * @param commitFromBranch is the commit we are
-     * retrieving files from.*/
-    public void copyAndDelete(Commit commitFromBranch) {
-        Commit currentCommit = getCurrentCommit();
-        if (commitFromBranch != null) {
-            for (Map.Entry<String, String> entry
-                    :commitFromBranch.getFileNameToFileHash().entrySet()) {
-                copyFile(Main.CWD, Main.BLOB_FOLDER,
-                        entry.getValue(), entry.getKey());
-            }
-            for (String nameCurrent : currentCommit.getFileNameToFileHash().
-                    keySet()) {
-                if (!commitFromBranch.getFileNameToFileHash().
-                        containsKey(nameCurrent)) {
-                    File fileToDelete = Utils.join(Main.CWD, nameCurrent);
-                    fileToDelete.delete();
-                }
+     * retrieving files from.
+     * @return what was written and deleted. */
+    public CheckoutReport copyAndDelete(Commit commitFromBranch) {
+        if (commitFromBranch == null) {
+            return new CheckoutReport(_repo.getTrees(), null);
+        }
+        String target = commitFromBranch.getTreeHash();
+        CheckoutReport report = new CheckoutReport(_repo.getTrees(), target);
+        HashMap<String, String> changes = new HashMap<>();
+        Tree.diff(_repo.getTrees(), getCurrentCommit().getTreeHash(),
+                target, "", changes);
+        WorkingTreeSnapshot snapshot = getSnapshot();
+        snapshot.hashAll(changes.keySet());
+        TreeMap<String, String> writes = new TreeMap<>();
+        TreeSet<String> deletes = new TreeSet<>();
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                deletes.add(entry.getKey());
+            } else if (!entry.getValue().equals(
+                    snapshot.hash(entry.getKey()))) {
+                writes.put(entry.getKey(), entry.getValue());
             }
         }
+        for (String path : materialize(writes, deletes)) {
+            report.deleted(path);
+        }
+        for (String path : deletes) {
+            getIndex().forget(Utils.join(_repo.getRoot(), path));
+        }
+        for (String path : writes.keySet()) {
+            report.wrote(path);
+        }
+        return report;
+    }
 
+    /** Deletes the files at DELETES and writes the blob of each file of
+     * WRITES in the working directory, in parallel, and records the files
+     * written in the stat cache.
+     * @param writes maps paths to the blobs written to them.
+     * @param deletes are the paths deleted.
+     * @return the paths of deletes that were deleted. */
+    private List<String> materialize(TreeMap<String, String> writes,
+                                     TreeSet<String> deletes) {
+        List<String> deleted = new Materializer(_repo.getBlobs(),
+                _repo.getScratchFolder(), Materializer.PARALLELISM)
+                .apply(_repo.getRoot(), writes, deletes);
+        _snapshot = null;
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            getIndex().record(Utils.join(_repo.getRoot(), entry.getKey()),
+                    entry.getValue());
+        }
+        return deleted;
     }
 
     /** Helper function that returns the full hash of a commit.
      * @param smallHash is the shortened hash of the commit. */
     public String findFullHash(String smallHash) {
-        if (_allCommitHashes.contains(smallHash)) {
-            return smallHash;
-        }
-        for (String value : _allCommitHashes) {
-            if (value.substring(0, Math.min(value.length(),
-                    smallHash.length())).equals(smallHash)) {
-                return value;
-            }
-        }
-        throw new GitletException("No commit with that id exists.");
+        return getIds().resolve(smallHash);
+    }
+
+    /** Returns the shortest abbreviation of a commit hash.
+     * @param hash is the full hash of the commit.
+     * @param min is the smallest number of digits to use. */
+    public String abbreviate(String hash, int min) {
+        return getIds().abbreviate(hash, min);
     }
 
     /** Clears the staging area. */
     public void clearStagingArea() {
-        this._toBeRemoved.clear();
-        List<String> names =  plainFilenamesIn(Main.ADD_FOLDER);
-        if (names == null) {
-            return;
-        }
-        for (String name : names) {
-            File addedFile = Utils.join(Main.ADD_FOLDER, name);
-            if (!addedFile.isDirectory()) {
-                addedFile.delete();
-            }
-        }
+        getRemoved().clear();
+        getStaged().clear();
     }
 
 
-    /** Checks for Untracked Files in CWD and throws error.
+    /** Checks for Untracked Files in CWD and throws error.  Only the
+     * trees along the paths of untracked files are read.
      * @param comID is the commit ID. */
     public void checkCWDForUntrackedFiles(String comID) {
-        List<String> names =  plainFilenamesIn(Main.CWD);
-        if (names == null) {
-            return;
-        }
-        Commit current = getCurrentCommit();
-        List<String> inStage = Utils.plainFilenamesIn(Main.ADD_FOLDER);
-        for (String name : names) {
-            if (!inStage.contains(name)) {
-                if (!current.getFileNameToFileHash().containsKey(name)) {
-                    if (Commit.fromFile(comID)
-                            .getFileNameToFileHash().containsKey(name)) {
-                        throw new GitletException("There is an untracked file"
-                                + " in the way; delete it or add it first.");
-                    }
-                }
+        WorkingTreeSnapshot snapshot = getSnapshot();
+        Commit target = null;
+        for (String name : snapshot.paths()) {
+            if (snapshot.isStaged(name) || snapshot.isTracked(name)) {
+                continue;
+            }
+            if (target == null) {
+                target = Commit.fromFile(_repo, comID);
+            }
+            if (target.getFileHash(name) != null) {
+                throw new GitletException("There is an untracked file"
+                        + " in the way; delete it or add it first.");
             }
         }
     }
 
     /** Reset command of the story.
-     * @param commitID is the commitID being checked-out*/
-    public void reset(String commitID) {
+     * @param commitID is the commitID being checked-out
+     * @return what was written and deleted. */
+    public CheckoutReport reset(String commitID) {
         String thisCommitID = findFullHash(commitID);
         checkCWDForUntrackedFiles(thisCommitID);
         if (thisCommitID == null) {
             throw new GitletException("No commit with that id exists.");
         }
-        Commit commitFromBranch = Commit.fromFile(thisCommitID);
-        copyAndDelete(commitFromBranch);
+        Commit commitFromBranch = Commit.fromFile(_repo, thisCommitID);
+        CheckoutReport report = copyAndDelete(commitFromBranch);
         clearStagingArea();
-        _branchToHash.put(_currentPointer, thisCommitID);
+        _refs.put(_refs.getHead(), thisCommitID);
+        return report;
     }
 
-    /** Prints out the status of the story. */
-    public void statusBasic() {
-        System.out.println("=== Branches ===");
-        SortedSet<String> keySet = new TreeSet<>(_branchToHash.keySet());
-        for (String key : keySet) {
-            if (key.equals(_currentPointer)) {
-                System.out.println("*" + key);
-            } else {
-                System.out.println(key);
-            }
-        }
-        System.out.println();
-        System.out.println("=== Staged Files ===");
-        List<String> added = Utils.plainFilenamesIn(Main.ADD_FOLDER);
-        for (String stagedFile : added) {
-            System.out.println(stagedFile);
-        }
-        System.out.println();
-        System.out.println("=== Removed Files ===");
-        List<String> list = new ArrayList<>(_toBeRemoved);
-        Collections.sort(list);
-        for (String name : list) {
-            System.out.println(name);
-        }
-        System.out.println(); statusExtra();
-    }
-
-    /** Prints out the status of the story (part 2). */
-    public void statusExtra() {
-        List<String> added = Utils.plainFilenamesIn(Main.ADD_FOLDER);
-        HashMap<String, String> commitFileToHash =
-                getCurrentCommit()
-                        .getFileNameToFileHash();
-        List<String> fileNamesCWD = Utils.plainFilenamesIn(Main.CWD);
+    /** Returns the status of the story: the branches, the files staged,
+     * and the changes and untracked files of the working directory. */
+    public Status status() {
+        Staging added = getStaged();
+        WorkingTreeSnapshot snapshot = getSnapshot();
         HashSet<String> allFileNames = new HashSet<>();
-        if (commitFileToHash != null) {
-            allFileNames.addAll(commitFileToHash.keySet());
-        }
-        if (fileNamesCWD != null) {
-            allFileNames.addAll(fileNamesCWD);
-        }
-        HashMap<String, String> modFiles = new HashMap<>();
-        TreeSet<String> untrackedFiles = new TreeSet<>();
-        ArrayList<String> modNames = new ArrayList<>();
-        Commit current = getCurrentCommit();
+        allFileNames.addAll(snapshot.tracked());
+        allFileNames.addAll(snapshot.paths());
+        snapshot.hashAll(snapshot.tracked());
+        snapshot.hashAll(added.keySet());
+        TreeMap<String, String> modFiles = new TreeMap<>();
         for (String name : allFileNames) {
-            File fileCWD = Utils.join(Main.CWD, name);
-            boolean tracked = current.getFileNameToFileHash()
-                    .containsKey(name);
-            boolean stagedAdd = added.contains(name);
-            boolean stagedRemoval = _toBeRemoved.contains(name);
-            if (tracked && !stagedAdd && fileCWD.isFile()) {
-                if (!Utils.sha1(Utils.readContents(fileCWD)).
-                        equals(current.getFileNameToFileHash().get(name))) {
-                    modFiles.put(name, " (modified)"); modNames.add(name);
+            boolean inDir = snapshot.exists(name);
+            boolean tracked = snapshot.isTracked(name);
+            boolean stagedAdd = snapshot.isStaged(name);
+            boolean stagedRemoval = snapshot.isRemoved(name);
+            if (tracked && !stagedAdd && inDir) {
+                if (!snapshot.hash(name).equals(snapshot.trackedHash(name))) {
+                    modFiles.put(name, Status.MODIFIED);
                 }
             }
-            if (stagedAdd && fileCWD.isFile()) {
-                if (!Utils.sha1(Utils.readContents(fileCWD)).
-                        equals(Utils.sha1(Utils.readContents
-                                (Utils.join(Main.ADD_FOLDER, name))))) {
-                    modFiles.put(name, " (modified)");
-                    modNames.add(name);
+            if (stagedAdd && inDir) {
+                if (!snapshot.hash(name).equals(added.get(name))) {
+                    modFiles.put(name, Status.MODIFIED);
                 }
             }
-            if (stagedAdd && !fileCWD.isFile()) {
-                modFiles.put(name, " (deleted)"); modNames.add(name);
-            }
-            if (tracked && !stagedRemoval && !fileCWD.isFile()) {
-                modFiles.put(name, " (deleted)"); modNames.add(name);
-            }
-            if (fileCWD.isFile() && !stagedAdd && !tracked) {
-                untrackedFiles.add(name);
+            if (stagedAdd && !inDir) {
+                modFiles.put(name, Status.DELETED);
             }
-            if (fileCWD.isFile() && !stagedAdd
-                    && stagedRemoval && tracked) {
-                untrackedFiles.add(name);
+            if (tracked && !stagedRemoval && !inDir) {
+                modFiles.put(name, Status.DELETED);
             }
         }
-        statusBonus(modNames, modFiles, untrackedFiles);
+        return new Status(_refs.getHead(), new TreeSet<>(_refs.keySet()),
+                new ArrayList<>(added.keySet()),
+                new TreeSet<>(getRemoved()), modFiles, snapshot.untracked());
     }
 
-    /** Prints out the status of the story (part 3).
-     * @param modNames is all of the modified names.
-     * @param modFiles is all of the modified files.
-     * @param untrackedFiles are all untracked. */
-    public void statusBonus(ArrayList<String> modNames,
-            HashMap<String, String> modFiles, TreeSet<String> untrackedFiles) {
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        for (int i = 0; i < modNames.size(); i++) {
-            String temp = modNames.get(i)
-                    + modFiles.get(modNames.get(i));
-            System.out.println(temp);
-        }
-        System.out.println();
-        System.out.println("=== Untracked Files ===");
-        for (String file : untrackedFiles) {
-            System.out.println(file);
-        }
-    }
-
-    /** Merge, marking true if there is a merge conflict.
+    /** Merges BRANCH into the current branch, committing the result
+     * unless the current branch was only fast-forwarded.
      * @param branch is the given branch.
-     * @return true if there is a merge conflict.*/
-    public boolean mergeConflict(String branch) {
+     * @return what the merge did. */
+    public MergeResult merge(String branch) {
+        List<String> conflicts = mergeConflict(branch);
+        if (conflicts == null) {
+            return new MergeResult(getCurrentCommit(), true,
+                    Collections.emptyList());
+        }
+        Commit merged = makeCommit("Merged " + branch
+                + " into " + getCurrentPointer() + ".");
+        merged.setParent2Hash(getCommitFromBranch(branch).getHash());
+        updateStory(merged);
+        merged.saveCommit(_repo);
+        return new MergeResult(merged, false, conflicts);
+    }
+
+    /** Merge, returning the files in conflict.
+     * @param branch is the given branch.
+     * @return the paths of the files in conflict, in order, or null if
+     * the current branch was fast-forwarded.*/
+    public List<String> mergeConflict(String branch) {
         checkCWDForUntrackedFiles(getCommitFromBranch(branch).getHash());
         String splitPointCommitHash;
         boolean basic = basicSplitPointCheck(branch);
         if (!basic) {
             splitPointCommitHash = complexSplitPoint(branch);
         } else {
-            return false;
+            return null;
         }
-        String branchCommitID = _branchToHash.get(branch);
+        String branchCommitID = _refs.get(branch);
         HashMap<String, String> splitPointFileToHash;
-        Commit splitPT = Commit.fromFile(splitPointCommitHash);
+        Commit splitPT = Commit.fromFile(_repo, splitPointCommitHash);
         if (splitPT == null) {
             splitPointFileToHash = new HashMap<>();
         } else {
@@ -487,18 +517,20 @@ public class Story implements Serializable {
                 currentFileToHash, branchFileToHash, splitPointFileToHash);
     }
 
-    /** Merge, marking true if there is a merge conflict.
+    /** Merge, returning the files in conflict.
      * @param branchComID is the ID of the branch.
      * @param allFiles contains all files.
      * @param curToHash maps current files to hash.
      * @param brToHash maps branch files to hash.
      * @param spToHash maps splitpoint files to hash.
-     * @return true if there is a merge conflict.*/
-    public boolean mergeConflict2(String branchComID,
+     * @return the paths of the files in conflict, in order.*/
+    public List<String> mergeConflict2(String branchComID,
               HashSet<String> allFiles, HashMap<String, String> curToHash,
               HashMap<String, String> brToHash,
               HashMap<String, String> spToHash) {
-        boolean doNothing = false; boolean b = false;
+        boolean doNothing = false;
+        TreeSet<String> conflicts = new TreeSet<>();
+        TreeMap<String, String> taken = new TreeMap<>();
         for (String fileName : allFiles) {
             String curID = curToHash.get(fileName); boolean curEmpt = false;
             String brID = brToHash.get(fileName); boolean spEmpt = false;
@@ -516,12 +548,9 @@ public class Story implements Serializable {
             if (!curEmpt && !spEmpt && !brEmpt) {
                 allExist = true;
             }
-            File currentFile = Utils.join(Main.BLOB_FOLDER, curID);
-            File branchFile = Utils.join(Main.BLOB_FOLDER, brID);
             if (allExist && !spID.equals(brID)
                     && spID.equals(curID)) {
-                checkout("checkout", branchComID, "--", fileName);
-                add(fileName);
+                taken.put(fileName, brID);
             } else if (allExist && !spID.equals(curID)
                     && spID.equals(brID)) {
                 doNothing = true;
@@ -531,43 +560,57 @@ public class Story implements Serializable {
             } else if (spEmpt && brEmpt && !curEmpt) {
                 doNothing = true;
             } else if (spEmpt && !brEmpt && curEmpt) {
-                checkout("checkout", branchComID, "--", fileName);
-                add(fileName);
+                taken.put(fileName, brID);
             } else if (!spEmpt && brEmpt
                     && !curEmpt && curID.equals(spID)) {
-                Utils.restrictedDelete(Utils.join(Main.CWD, fileName));
-                _toBeRemoved.add(fileName);
+                Utils.restrictedDelete(_repo.getRoot(), fileName);
+                getRemoved().add(fileName);
             } else if (!spEmpt && curEmpt
                     && !brEmpt && brID.equals(spID)) {
                 doNothing = true;
             } else {
                 String curCont = ""; String brCont = "";
                 if (!curEmpt) {
-                    curCont = Utils.readContentsAsString(currentFile);
+                    curCont = readBlobAsString(curID);
                 }
                 if (!brEmpt) {
-                    brCont = Utils.readContentsAsString(branchFile);
+                    brCont = readBlobAsString(brID);
                 }
                 String newContent = "<<<<<<< HEAD\n" + curCont
                         + "=======\n" + brCont + ">>>>>>>\n";
-                File file = Utils.join(Main.CWD, fileName); b = true;
+                File file = Utils.join(_repo.getRoot(), fileName);
+                conflicts.add(fileName);
+                file.getParentFile().mkdirs();
                 Utils.writeContents(file, newContent); add(fileName);
             }
         }
-        return b;
+        materialize(taken, new TreeSet<>());
+        for (Map.Entry<String, String> entry : taken.entrySet()) {
+            getStaged().put(entry.getKey(), entry.getValue());
+        }
+        _snapshot = null;
+        return new ArrayList<>(conflicts);
+    }
+
+    /** Returns the contents of blob HASH as a String.
+     * @param hash is the hash of the blob. */
+    private String readBlobAsString(String hash) {
+        byte[] contents = _repo.getBlobs().read(hash);
+        if (contents == null) {
+            throw new GitletException("Trying to copy "
+                    + "a file that doesnt exist");
+        }
+        return new String(contents, StandardCharsets.UTF_8);
     }
 
     /** Checks for basic cases of splitpoint for merge.
      * @return true if it is simple to find the splitpoint.
      * @param branch is the given branch.  */
     public boolean basicSplitPointCheck(String branch) {
-        List<String> list = Utils.plainFilenamesIn(Main.ADD_FOLDER);
-        if (list != null) {
-            if (!list.isEmpty() || !_toBeRemoved.isEmpty()) {
-                throw new GitletException("You have uncommitted changes.");
-            }
+        if (!getStaged().isEmpty() || !getRemoved().isEmpty()) {
+            throw new GitletException("You have uncommitted changes.");
         }
-        if (!_branchToHash.containsKey(branch)) {
+        if (!_refs.containsKey(branch)) {
             throw new GitletException("A branch "
                     + "with that name does not exist.");
         }
@@ -576,127 +619,281 @@ public class Story implements Serializable {
         if (currentCommit.getHash().equals(branchCommit.getHash())) {
             throw new GitletException("Cannot merge a branch with itself.");
         }
-        ArrayList<String> currentAncestors = new ArrayList<>();
-        ArrayList<String> branchAncestors = new ArrayList<>();
-        for (Commit current = getCurrentCommit();
-             current != null; current = current.getParent()) {
-            currentAncestors.add(current.getHash());
-        }
-        for (Commit branchCom = getCommitFromBranch(branch);
-             branchCom != null; branchCom = branchCom.getParent()) {
-            branchAncestors.add(branchCom.getHash());
-        }
-        if (currentAncestors.containsAll(branchAncestors)) {
+        CommitGraph graph = getGraph();
+        if (graph.isAncestor(branchCommit.getHash(), currentCommit.getHash())) {
             throw new GitletException("Given branch is an ancestor "
                     + "of the current branch.");
-        } else if (branchAncestors.containsAll(currentAncestors)) {
+        } else if (graph.isAncestor(currentCommit.getHash(),
+                branchCommit.getHash())) {
             reset(branchCommit.getHash());
-            _branchToHash.put(_currentPointer, branchCommit.getHash());
-            System.out.println("Current branch fast-forwarded.");
+            _refs.put(_refs.getHead(), branchCommit.getHash());
+            return true;
         }
         return false;
     }
 
-    /** Resets merge variables after merging.  */
-    public void resetMerge() {
-        _markedBlue = null;
-        _bestHash = null;
-        _bestDist = Integer.MAX_VALUE;
-    }
-
     /** Helper function for merge to find splitPoint beyond basic cases.
      * @return the splitpoint.
      * @param branch is the given branch. */
     public String complexSplitPoint(String branch) {
-        Commit branchCommit = getCommitFromBranch(branch);
-        _markedBlue = new HashSet<>();
-        _bestDist = Integer.MAX_VALUE;
-        _bestHash = null;
-        Commit current = getCurrentCommit();
-        markBlue(current);
-        markRed(branchCommit, _bestDist);
-        return _bestHash;
-    }
-
-    /** Marking Blue during merge.
-     * @param reference is the reference commit.*/
-    public void markBlue(Commit reference) {
-        if (reference == null) {
-            return;
-        }
-        _markedBlue.add(reference.getHash());
-        if (reference.getParentHash() != null
-                && reference.getParent2Hash() != null) {
-            markBlue(reference.getParent());
-            markBlue(reference.getParent2());
-        } else if (reference.getParentHash() != null) {
-            markBlue(reference.getParent());
-        } else if (reference.getParent2Hash() != null) {
-            markBlue(reference.getParent2());
-        }
-    }
-
-    /** Marking Red during merge.
-     * @param commit is the current commit.
-     * @param count is the steps that it is currently at.  */
-    public void markRed(Commit commit, int count) {
-        if (commit == null) {
-            return;
-        }
-        if (_markedBlue.contains(commit.getHash())) {
-            if (count < _bestDist) {
-                _bestDist = count;
-                _bestHash = commit.getHash();
-            }
-        }
-        markRed(commit.getParent(), count + 1);
-        markRed(commit.getParent2(), count + 1);
+        return getGraph().mergeBase(getCurrentCommit().getHash(),
+                getCommitFromBranch(branch).getHash());
     }
 
     /** Returns the current commit. */
     public Commit getCurrentCommit() {
-        String commitHash = _branchToHash.get(_currentPointer);
-        return Commit.fromFile(commitHash);
+        String commitHash = _refs.get(_refs.getHead());
+        return Commit.fromFile(_repo, commitHash);
     }
 
     /** Returns commit according to hash.
      * @param branch is the branch commit.*/
     public Commit getCommitFromBranch(String branch) {
-        String commitHash = _branchToHash.get(branch);
+        String commitHash = _refs.get(branch);
         if (commitHash == null) {
             throw new GitletException("A branch with that name does not exist");
         }
-        return Commit.fromFile(commitHash);
+        return Commit.fromFile(_repo, commitHash);
     }
 
     /** Returns the current story pointer. */
     public String getCurrentPointer() {
-        return _currentPointer;
+        return _refs.getHead();
     }
 
-    /** Returns allCommitHashes. */
-    public HashSet<String> getAllCommitHashes() {
-        return _allCommitHashes;
+    /** Gets the story of REPO.  A story saved in one file, in binary form
+     * or with Java serialization, is split into its parts.
+     * @param repo is the repository.
+     * @returns the story.*/
+    public static Story storyFromFile(Repository repo) {
+        if (!repo.getStoryFile().isFile()) {
+            return new Story(repo, Refs.fromFile(repo.getRefsFile()));
+        }
+        byte[] bytes = Utils.readContents(repo.getStoryFile());
+        Story story;
+        if (Codec.isJavaSerialized(bytes)) {
+            story = Utils.deserialize(bytes, Story.class);
+        } else {
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes))) {
+                story = new Story(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        story._repo = repo;
+        story.split();
+        return story;
+    }
+
+    /** Moves the contents of a story saved in one file into its parts,
+     * and deletes that file once they are saved. */
+    private void split() {
+        _refs = new Refs(_currentPointer, _branchToHash);
+        _removed = _toBeRemoved;
+        getMessages().create(_msgToHash);
+        _ids = new IdIndex(_repo.getIdsFile());
+        _ids.create(_allCommitHashes);
+        saveStory();
+        _repo.getStoryFile().delete();
+        _branchToHash = null; _msgToHash = null; _commitLogs = null;
+        _toBeRemoved = null; _allCommitHashes = null; _currentPointer = null;
+    }
+
+    /** Returns a set of ids read from IN, preceded by their number.
+     * @param in is the stream read. */
+    private static HashSet<String> readIds(DataInputStream in)
+        throws IOException {
+        int count = Codec.readCount(in);
+        HashSet<String> result = new HashSet<>(count * 2);
+        for (int i = 0; i < count; i += 1) {
+            result.add(Codec.readId(in));
+        }
+        return result;
+    }
+
+    /** Rewrites every commit of a repository saved with Java serialization
+     *  in binary form.  The story itself is rewritten on save.
+     * @return the number of commits rewritten. */
+    public int convert() {
+        return _repo.getCommits().rewrite(bytes ->
+                Codec.isJavaSerialized(bytes)
+                ? Commit.decode(bytes).encode() : null);
+    }
+
+    /** Moves all loose blobs and commits into pack files. */
+    public void repack() {
+        _repo.getBlobs().repack(deltaBases());
+        _repo.getCommits().repack(Collections.emptyMap());
+        _repo.getTrees().repack(Collections.emptyMap());
+        getGraph().write(_repo.getGraphFile(), getIds().all());
+        _graph = null;
+    }
+
+    /** Rewrites the blobs of an uncompressed repository deflated.
+     * @return the number of blobs rewritten. */
+    public int compress() {
+        return _repo.getBlobs().compress(deltaBases());
+    }
+
+    /** Returns a map from every blob changed by a commit to the blob of
+     *  the same file in the parent of that commit.  Only the trees that
+     *  differ between a commit and its parent are read. */
+    private HashMap<String, String> deltaBases() {
+        ObjectStore trees = _repo.getTrees();
+        HashMap<String, String> bases = new HashMap<>();
+        for (String hash : getIds().all()) {
+            Commit commit = Commit.fromFile(_repo, hash);
+            Commit parent = commit.getParent();
+            if (parent == null) {
+                continue;
+            }
+            String parentTree = parent.getTreeHash();
+            TreeMap<String, String> changes = new TreeMap<>();
+            Tree.diff(trees, parentTree, commit.getTreeHash(), "", changes);
+            for (Map.Entry<String, String> entry : changes.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                String previous = Tree.lookup(trees, parentTree,
+                        entry.getKey());
+                if (previous != null) {
+                    bases.putIfAbsent(entry.getValue(), previous);
+                }
+            }
+        }
+        return bases;
+    }
+
+    /** Returns the stat cache, loading it on first use. */
+    public Index getIndex() {
+        if (_index == null) {
+            _index = Index.fromFile(_repo.getIndexFile());
+        }
+        return _index;
+    }
+
+    /** Returns the sorted index of commit ids. */
+    public IdIndex getIds() {
+        if (_ids == null) {
+            _ids = new IdIndex(_repo.getIdsFile());
+        }
+        return _ids;
+    }
+
+    /** Returns the index of commits by message. */
+    public MessageIndex getMessages() {
+        if (_messages == null) {
+            _messages = new MessageIndex(_repo.getMessagesFile());
+        }
+        return _messages;
+    }
+
+    /** Returns the files staged for addition, loading them on first use.
+     * Files left in the staging folder of an older repository are moved
+     * into the blob store and the staging index. */
+    public Staging getStaged() {
+        if (_staged == null) {
+            _staged = Staging.fromFile(_repo.getStagedFile());
+            List<String> names = plainFilenamesUnder(_repo.getAddFolder());
+            if (names != null) {
+                for (String name : names) {
+                    File inStage = Utils.join(_repo.getAddFolder(), name);
+                    String hash = Utils.sha1(inStage);
+                    _repo.getBlobs().write(hash, inStage);
+                    _staged.put(name, hash);
+                    getIndex().forget(inStage);
+                }
+                _staged.saveStaging(_repo.getStagedFile());
+                for (String name : names) {
+                    deleteUnder(_repo.getAddFolder(), name);
+                }
+                _repo.getAddFolder().delete();
+            }
+        }
+        return _staged;
     }
 
-    /** Returns the msgToHash hashmap. */
-    public HashMap<String, HashSet<String>> getMsgToHash() {
-        return _msgToHash;
+    /** Returns the files staged for removal, loading them on first use. */
+    public HashSet<String> getRemoved() {
+        if (_removed == null) {
+            _removed = new HashSet<>();
+            if (_repo.getRemovedFile().isFile()) {
+                try (DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(
+                                Utils.readContents(_repo.getRemovedFile())))) {
+                    if (in.readInt() != REMOVED_MAGIC) {
+                        throw new IllegalArgumentException(
+                                "corrupt removal staging");
+                    }
+                    int count = Codec.readCount(in);
+                    for (int i = 0; i < count; i += 1) {
+                        _removed.add(Codec.readString(in));
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            _removedSaved = new HashSet<>(_removed);
+        }
+        return _removed;
     }
 
-    /** Returns Commit Logs. */
-    public HashSet<String> getCommitLogs() {
-        return _commitLogs;
+    /** Returns the commit graph. */
+    public CommitGraph getGraph() {
+        if (_graph == null) {
+            _graph = CommitGraph.fromFile(_repo.getGraphFile(), _repo);
+        }
+        return _graph;
     }
 
-    /** Gets story from a file.
-     * @returns the full story.*/
-    public static Story storyFromFile() {
-        return Utils.readObject(Main.STORY_FILE, Story.class);
+    /** Ends a command, so that the next one lists the working directory
+     *  afresh. */
+    public void endCommand() {
+        _snapshot = null;
     }
 
-    /** Saves the story to a file. */
+    /** Saves every part of the story that changed, and the commit graph
+     *  if too many commits had to be read around it.  The next command
+     *  lists the working directory afresh.  Each part is replaced whole,
+     *  and the refs are saved last: a command cut short before them
+     *  leaves the branches where they were. */
     public void saveStory() {
-        Utils.writeObject(Main.STORY_FILE, this);
+        endCommand();
+        if (_staged != null) {
+            _staged.saveStaging(_repo.getStagedFile());
+        }
+        if (_removed != null && !_removed.equals(_removedSaved)) {
+            saveRemoved();
+        }
+        if (_index != null) {
+            _index.saveIndex(_repo.getIndexFile());
+        }
+        if (_messages != null) {
+            _messages.save();
+        }
+        if (_ids != null) {
+            _ids.save();
+        }
+        if (_graph != null && _graph.getMissing() >= CommitGraph.REFRESH) {
+            _graph.write(_repo.getGraphFile(), getIds().all());
+        }
+        _refs.saveRefs(_repo.getRefsFile());
+    }
+
+    /** Saves the files staged for removal. */
+    private void saveRemoved() {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(REMOVED_MAGIC);
+            Codec.writeVarint(out, _removed.size());
+            for (String name : _removed) {
+                Codec.writeString(out, name);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.replaceContents(_repo.getRemovedFile(), result.toByteArray());
+        _removedSaved = new HashSet<>(_removed);
     }
 }
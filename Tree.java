@@ -0,0 +1,256 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Tree of Gitlet: the files and subdirectories of one directory of a
+ *  commit.  A tree is stored in a tree store under the hash of its binary
+ *  form (the magic number, then the number of files and the name and blob
+ *  id of each, then the number of subdirectories and the name and tree id
+ *  of each, all in name order), so that directories that did not change
+ *  between commits are the same object.  Paths within a tree are
+ *  separated by '/'.
+ * @author Ryan Chen
+ */
+class Tree {
+    /** Magic number and version of an encoded tree ("GLT" 1).*/
+    static final int MAGIC = 0x474c5401;
+    /** Number of decoded trees kept in memory.*/
+    static final int CACHE_SIZE = 4096;
+    /** Hash of the tree of an empty directory.*/
+    static final String EMPTY = Utils.sha1(new Tree().encode());
+
+    /** Recently decoded trees by hash, least recently used first.  Trees
+     *  are named by their contents, so one cache serves every store.*/
+    private static final LinkedHashMap<String, Tree> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Tree> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /** Blob id of each file, by name.*/
+    private final TreeMap<String, String> _files;
+    /** Tree id of each subdirectory, by name.*/
+    private final TreeMap<String, String> _dirs;
+
+    /** An empty tree. */
+    private Tree() {
+        _files = new TreeMap<>();
+        _dirs = new TreeMap<>();
+    }
+
+    /** A copy of TREE. */
+    private Tree(Tree tree) {
+        _files = new TreeMap<>(tree._files);
+        _dirs = new TreeMap<>(tree._dirs);
+    }
+
+    /** Writes to STORE the trees of a commit holding FILES, which maps
+     *  paths to blob ids, and returns the id of the root tree. */
+    static String fromFiles(ObjectStore store, Map<String, String> files) {
+        return update(store, null, files);
+    }
+
+    /** Writes to STORE the trees of the root tree ROOT, or of an empty
+     *  root if it is null, with CHANGES made: each path is set to its
+     *  blob id, or removed if it maps to null.  Only the trees along the
+     *  changed paths are read and written; directories left empty are
+     *  dropped.  Returns the id of the new root tree. */
+    static String update(ObjectStore store, String root,
+                         Map<String, String> changes) {
+        Tree tree = root == null ? new Tree() : new Tree(read(store, root));
+        TreeMap<String, HashMap<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                below.computeIfAbsent(path.substring(0, slash),
+                        k -> new HashMap<>())
+                        .put(path.substring(slash + 1), entry.getValue());
+            } else if (entry.getValue() == null) {
+                tree._files.remove(path);
+            } else {
+                tree._files.put(path, entry.getValue());
+                tree._dirs.remove(path);
+            }
+        }
+        for (Map.Entry<String, HashMap<String, String>> entry
+                : below.entrySet()) {
+            String name = entry.getKey();
+            String child = update(store, tree._dirs.get(name),
+                    entry.getValue());
+            if (child.equals(EMPTY)) {
+                tree._dirs.remove(name);
+            } else {
+                tree._dirs.put(name, child);
+                tree._files.remove(name);
+            }
+        }
+        return tree.write(store);
+    }
+
+    /** Adds to FILES the path of every file under the tree HASH of STORE,
+     *  preceded by PREFIX, with its blob id. */
+    static void flatten(ObjectStore store, String hash, String prefix,
+                        Map<String, String> files) {
+        Tree tree = read(store, hash);
+        for (Map.Entry<String, String> entry : tree._files.entrySet()) {
+            files.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree._dirs.entrySet()) {
+            flatten(store, entry.getValue(), prefix + entry.getKey() + "/",
+                    files);
+        }
+    }
+
+    /** Adds to CHANGES what turns the files under the tree FROM of STORE
+     *  into those under the tree TO, their paths preceded by PREFIX: the
+     *  blob id of each file added or changed, and null for each file
+     *  removed.  Subtrees with the same id on both sides are skipped
+     *  without being read. */
+    static void diff(ObjectStore store, String from, String to,
+                     String prefix, Map<String, String> changes) {
+        if (from.equals(to)) {
+            return;
+        }
+        Tree before = read(store, from);
+        Tree after = read(store, to);
+        for (Map.Entry<String, String> entry : before._files.entrySet()) {
+            if (!after._files.containsKey(entry.getKey())) {
+                changes.put(prefix + entry.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, String> entry : after._files.entrySet()) {
+            if (!entry.getValue().equals(
+                    before._files.get(entry.getKey()))) {
+                changes.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, String> entry : before._dirs.entrySet()) {
+            String other = after._dirs.get(entry.getKey());
+            diff(store, entry.getValue(), other == null ? EMPTY : other,
+                    prefix + entry.getKey() + "/", changes);
+        }
+        for (Map.Entry<String, String> entry : after._dirs.entrySet()) {
+            if (!before._dirs.containsKey(entry.getKey())) {
+                diff(store, EMPTY, entry.getValue(),
+                        prefix + entry.getKey() + "/", changes);
+            }
+        }
+    }
+
+    /** Returns the number of files under the tree HASH of STORE. */
+    static int count(ObjectStore store, String hash) {
+        Tree tree = read(store, hash);
+        int result = tree._files.size();
+        for (String dir : tree._dirs.values()) {
+            result += count(store, dir);
+        }
+        return result;
+    }
+
+    /** Returns the blob id of the file at PATH under the tree HASH of
+     *  STORE, or null if there is none.  Reads only the trees along
+     *  PATH. */
+    static String lookup(ObjectStore store, String hash, String path) {
+        Tree tree = read(store, hash);
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', start)) {
+            String dir = tree._dirs.get(path.substring(start, slash));
+            if (dir == null) {
+                return null;
+            }
+            tree = read(store, dir);
+            start = slash + 1;
+        }
+        return tree._files.get(path.substring(start));
+    }
+
+    /** Returns the tree HASH of STORE. */
+    private static Tree read(ObjectStore store, String hash) {
+        if (hash.equals(EMPTY)) {
+            return new Tree();
+        }
+        synchronized (CACHE) {
+            Tree cached = CACHE.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] bytes = store.read(hash);
+        if (bytes == null) {
+            throw new IllegalArgumentException("missing tree " + hash);
+        }
+        Tree result = decode(bytes);
+        synchronized (CACHE) {
+            CACHE.put(hash, result);
+        }
+        return result;
+    }
+
+    /** Saves this tree to STORE, unless it is there already or empty,
+     *  and returns its id. */
+    private String write(ObjectStore store) {
+        byte[] bytes = encode();
+        String hash = Utils.sha1(bytes);
+        if (!hash.equals(EMPTY) && !store.contains(hash)) {
+            store.write(hash, bytes);
+        }
+        synchronized (CACHE) {
+            CACHE.put(hash, this);
+        }
+        return hash;
+    }
+
+    /** Returns this tree in binary form. */
+    private byte[] encode() {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(result)) {
+            out.writeInt(MAGIC);
+            for (TreeMap<String, String> entries
+                    : List.of(_files, _dirs)) {
+                Codec.writeVarint(out, entries.size());
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    Codec.writeString(out, entry.getKey());
+                    Codec.writeId(out, entry.getValue());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.toByteArray();
+    }
+
+    /** Returns the tree in BYTES. */
+    private static Tree decode(byte[] bytes) {
+        Tree result = new Tree();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("corrupt tree");
+            }
+            for (TreeMap<String, String> entries
+                    : List.of(result._files, result._dirs)) {
+                int count = Codec.readCount(in);
+                for (int i = 0; i < count; i += 1) {
+                    entries.put(Codec.readString(in), Codec.readId(in));
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+}
@@ -1,10 +1,32 @@
 package gitlet;
 
-import ucb.junit.textui;
+import org.junit.runner.JUnitCore;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import static org.junit.Assert.*;
 
 /** The suite of all JUnit tests for the gitlet package.
@@ -12,10 +34,10 @@ import static org.junit.Assert.*;
  */
 public class UnitTest {
 
-    /** Run the JUnit tests in the loa package. Add xxxTest.class entries to
-     *  the arguments of runClasses to run other JUnit tests. */
+    /** Run the JUnit tests in the gitlet package. Add the names of other
+     *  test classes to the arguments of JUnitCore.main to run them too. */
     public static void main(String[] ignored) {
-        System.exit(textui.runClasses(UnitTest.class));
+        JUnitCore.main(UnitTest.class.getName());
     }
 
     /** First test to get commit message. */
@@ -114,5 +136,984 @@ public class UnitTest {
         assert (firstCommit.getHash().substring(0,
                 emptyCommitID.length()).equals(emptyCommitID));
     }
-}
 
+    /** Tests that a second status of an unchanged working directory
+     *  reads no file contents. */
+    @Test
+    public void testIndexNoOpStatus() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        Repository repo = Repository.init(dir);
+        FileTime past = FileTime.from(Instant.now().getEpochSecond() - 10,
+                TimeUnit.SECONDS);
+        for (String name : List.of("a.txt", "b.txt", "c.txt")) {
+            File file = Utils.join(dir, name);
+            Utils.writeContents(file, name);
+            Files.setLastModifiedTime(file.toPath(), past);
+        }
+        repo.add("a.txt", "b.txt");
+        repo.commit("two files");
+        Utils.writeContents(Utils.join(dir, "b.txt"), "changed");
+        Files.setLastModifiedTime(Utils.join(dir, "b.txt").toPath(), past);
+        repo.status();
+        Repository again = Repository.open(dir);
+        Status status = again.status();
+        assertEquals(Map.of("b.txt", Status.MODIFIED), status.getModified());
+        assertEquals(List.of("c.txt"), status.getUntracked());
+        assertEquals(0, again.getStory().getIndex().getReads());
+    }
+
+    /** Tests that an entry of a file modified in the same second as the
+     *  index was written is racy, as it is on a file system keeping
+     *  modification times in whole seconds, and is trusted once the
+     *  index is written later. */
+    @Test
+    public void testIndexRacy() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File a = Utils.join(dir, "a.txt");
+        File indexFile = Utils.join(dir, "index");
+        FileTime second = FileTime.from(1600000000L, TimeUnit.SECONDS);
+        Utils.writeContents(a, "aaaa");
+        Files.setLastModifiedTime(a.toPath(), second);
+        Index index = new Index();
+        assertEquals(Utils.sha1("aaaa"), index.hash(a));
+        index.saveIndex(indexFile);
+        Files.setLastModifiedTime(indexFile.toPath(), second);
+        Utils.writeContents(a, "bbbb");
+        Files.setLastModifiedTime(a.toPath(), second);
+        Index loaded = Index.fromFile(indexFile);
+        assertEquals(Utils.sha1("bbbb"), loaded.hash(a));
+        assertEquals(1, loaded.getReads());
+        loaded.saveIndex(indexFile);
+        Files.setLastModifiedTime(indexFile.toPath(),
+                FileTime.from(1600000001L, TimeUnit.SECONDS));
+        Index later = Index.fromFile(indexFile);
+        assertEquals(Utils.sha1("bbbb"), later.hash(a));
+        assertEquals(0, later.getReads());
+    }
+
+    /** Tests that replacing the contents of a file leaves only the file
+     *  with its new contents. */
+    @Test
+    public void testReplaceContents() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File refs = Utils.join(dir, "refs");
+        Utils.writeContents(refs, "old contents");
+        Utils.replaceContents(refs, "new".getBytes());
+        assertEquals("new", Utils.readContentsAsString(refs));
+        Utils.replaceContents(Utils.join(dir, "staged"), new byte[0]);
+        assertEquals(List.of("refs", "staged"), Utils.plainFilenamesIn(dir));
+    }
+
+    /** Tests that an index saved in another format is dropped. */
+    @Test
+    public void testIndexOldFormat() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File indexFile = Utils.join(dir, "index");
+        Utils.writeObject(indexFile, new HashMap<String, String>());
+        Index index = Index.fromFile(indexFile);
+        File a = Utils.join(dir, "a.txt");
+        Utils.writeContents(a, "hello");
+        assertEquals(Utils.sha1("hello"), index.hash(a));
+        assertEquals(1, index.getReads());
+        index.saveIndex(indexFile);
+        assertFalse(Codec.isJavaSerialized(Utils.readContents(indexFile)));
+    }
+
+    /** Tests that the index notices a modified file. */
+    @Test
+    public void testIndexModifiedFile() throws IOException,
+            InterruptedException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        File a = Utils.join(dir, "a.txt");
+        Utils.writeContents(a, "hello");
+        Thread.sleep(5);
+        Index index = new Index();
+        index.hash(a);
+        Utils.writeContents(a, "hello, world");
+        assertEquals(Utils.sha1("hello, world"), index.hash(a));
+        assertEquals(2, index.getReads());
+        a.delete();
+        assertNull(index.hash(a));
+    }
+
+    /** Tests that objects are still found after repacking. */
+    @Test
+    public void testRepack() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        ObjectStore store = new ObjectStore(dir, false);
+        String[] words = {"apple", "banana", "cherry"};
+        for (String word : words) {
+            store.write(Utils.sha1(word), word.getBytes());
+        }
+        store.repack(new HashMap<>());
+        assertEquals(0, store.looseHashes().size());
+        store.write(Utils.sha1("date"), "date".getBytes());
+        store.repack(new HashMap<>());
+        ObjectStore reopened = new ObjectStore(dir, false);
+        for (String word : words) {
+            assertEquals(word, new String(reopened.read(Utils.sha1(word))));
+        }
+        assertEquals("date", new String(reopened.read(Utils.sha1("date"))));
+        assertNull(reopened.read(Utils.sha1("elderberry")));
+    }
+
+    /** Tests that repacking the same objects with other delta bases
+     *  writes a pack of another name rather than replacing the old one
+     *  in place, and leaves no temporary files. */
+    @Test
+    public void testRepackSameObjects() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        ObjectStore store = new ObjectStore(dir, false);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i += 1) {
+            text.append("line ").append(i).append("\n");
+        }
+        String first = text.toString();
+        String second = text.append("last\n").toString();
+        store.write(Utils.sha1(first), first.getBytes());
+        store.write(Utils.sha1(second), second.getBytes());
+        store.repack(new HashMap<>());
+        File packDir = new File(dir, "pack");
+        List<String> before = Utils.plainFilenamesIn(packDir);
+        store.repack(Map.of(Utils.sha1(second), Utils.sha1(first)));
+        List<String> after = Utils.plainFilenamesIn(packDir);
+        assertEquals(2, after.size());
+        assertFalse(after.contains(before.get(0)));
+        for (String name : after) {
+            assertFalse(name.endsWith(".tmp"));
+        }
+        ObjectStore reopened = new ObjectStore(dir, false);
+        assertEquals(first, new String(reopened.read(Utils.sha1(first))));
+        assertEquals(second, new String(reopened.read(Utils.sha1(second))));
+    }
+
+    /** Tests that storing an object leaves alone the temporary files of
+     *  other processes storing it, whatever thread they run in. */
+    @Test
+    public void testObjectStoreTemp() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        for (boolean deflate : new boolean[] {false, true}) {
+            ObjectStore store = new ObjectStore(new File(dir,
+                    "store" + deflate), deflate);
+            store.init();
+            String hash = Utils.sha1("apple");
+            File other = new File(dir, "store" + deflate + "/" + hash
+                    + "." + Thread.currentThread().getId() + ".tmp");
+            Utils.writeContents(other, "other");
+            File source = new File(dir, "source");
+            Utils.writeContents(source, "apple");
+            store.write(hash, source);
+            assertEquals("apple", new String(store.read(hash)));
+            assertEquals("other", Utils.readContentsAsString(other));
+            assertEquals(List.of(hash), store.looseHashes());
+        }
+    }
+
+    /** Tests that batched objects are read before the batch is packed,
+     *  and written as a pack rather than loose. */
+    @Test
+    public void testBatch() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        ObjectStore store = new ObjectStore(dir, true);
+        store.init();
+        store.startBatch();
+        String[] words = {"apple", "banana", "cherry"};
+        for (String word : words) {
+            store.write(Utils.sha1(word), word.getBytes());
+        }
+        assertTrue(store.contains(Utils.sha1("banana")));
+        assertEquals("cherry", new String(store.read(Utils.sha1("cherry"))));
+        store.endBatch();
+        assertEquals(0, store.looseHashes().size());
+        ObjectStore reopened = new ObjectStore(dir, true);
+        for (String word : words) {
+            assertEquals(word, new String(reopened.read(Utils.sha1(word))));
+        }
+        reopened.write(Utils.sha1("date"), "date".getBytes());
+        assertEquals(1, reopened.looseHashes().size());
+    }
+
+    /** Tests that a commit only writes the trees along changed paths. */
+    @Test
+    public void testTree() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        ObjectStore store = new ObjectStore(dir, false);
+        HashMap<String, String> files = new HashMap<>();
+        files.put("top.txt", Utils.sha1("top"));
+        files.put("src/a/x.txt", Utils.sha1("x"));
+        files.put("src/y.txt", Utils.sha1("y"));
+        files.put("lib/z.txt", Utils.sha1("z"));
+        String root = Tree.fromFiles(store, files);
+        assertEquals(4, store.looseHashes().size());
+
+        HashMap<String, String> changes = new HashMap<>();
+        changes.put("lib/z.txt", Utils.sha1("z2"));
+        String changed = Tree.update(store, root, changes);
+        assertEquals(6, store.looseHashes().size());
+        assertEquals(Utils.sha1("z2"),
+                Tree.lookup(store, changed, "lib/z.txt"));
+        assertEquals(Utils.sha1("x"),
+                Tree.lookup(store, changed, "src/a/x.txt"));
+        assertEquals(Utils.sha1("z"), Tree.lookup(store, root, "lib/z.txt"));
+        assertNull(Tree.lookup(store, changed, "src/x.txt"));
+        assertNull(Tree.lookup(store, changed, "nope/x.txt"));
+
+        changes.clear();
+        changes.put("src/a/x.txt", null);
+        changes.put("src/y.txt", null);
+        HashMap<String, String> flat = new HashMap<>();
+        Tree.flatten(store, Tree.update(store, changed, changes), "", flat);
+        HashMap<String, String> expected = new HashMap<>();
+        expected.put("top.txt", Utils.sha1("top"));
+        expected.put("lib/z.txt", Utils.sha1("z2"));
+        assertEquals(expected, flat);
+        assertEquals(root, Tree.update(store, changed,
+                Collections.singletonMap("lib/z.txt", Utils.sha1("z"))));
+
+        HashMap<String, String> diff = new HashMap<>();
+        Tree.diff(store, root, changed, "", diff);
+        assertEquals(Collections.singletonMap("lib/z.txt", Utils.sha1("z2")),
+                diff);
+        diff.clear();
+        Tree.diff(store, changed, Tree.EMPTY, "", diff);
+        assertEquals(4, diff.size());
+        assertTrue(diff.containsKey("src/a/x.txt"));
+        assertNull(diff.get("src/a/x.txt"));
+        assertEquals(4, Tree.count(store, root));
+    }
+
+    /** Tests that the scanner hashes every file under a directory once,
+     *  and not again once the index is saved. */
+    @Test
+    public void testFileScanner() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        String[] paths = {"top", "a/x", "a/b/y", "c/z"};
+        FileTime past = FileTime.from(Instant.now().getEpochSecond() - 10,
+                TimeUnit.SECONDS);
+        for (String path : paths) {
+            File file = Utils.join(dir, path);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, path);
+            Files.setLastModifiedTime(file.toPath(), past);
+        }
+        Utils.join(dir, ".gitlet").mkdir();
+        Utils.writeContents(Utils.join(dir, ".gitlet", "staged"), "no");
+        Index index = new Index();
+        FileScanner scanner = new FileScanner(index, 4, true);
+        Map<String, String> all = scanner.scan(dir, ".");
+        assertEquals(List.of("a/b/y", "a/x", "c/z", "top"),
+                new ArrayList<>(all.keySet()));
+        assertEquals(Utils.sha1("a/b/y"), all.get("a/b/y"));
+        assertEquals(4, index.getReads());
+        index.saveIndex(Utils.join(dir, ".gitlet", "index"));
+        assertEquals(Set.of("a/b/y", "a/x"),
+                scanner.scan(dir, "a/").keySet());
+        assertEquals(Set.of("c/z"), scanner.scan(dir, "c/z").keySet());
+        assertEquals(4, index.getReads());
+        assertTrue(scanner.list(dir, "nope").isEmpty());
+        assertTrue(scanner.list(dir, "..").isEmpty());
+        FileScanner top = new FileScanner(index, 4, false);
+        assertEquals(Set.of("top"), top.scan(dir, ".").keySet());
+        assertTrue(top.list(dir, "a").isEmpty());
+        assertTrue(top.list(dir, "c/z").isEmpty());
+    }
+
+    /** Tests that commands, which are not recursive by default, leave
+     *  the files of subdirectories alone, as Gitlet did before trees. */
+    @Test
+    public void testTopLevelOnly() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        Repository repo = Repository.init(dir);
+        Utils.writeContents(Utils.join(dir, "a.txt"), "a");
+        Utils.join(dir, "sub").mkdir();
+        Utils.writeContents(Utils.join(dir, "sub", "b.txt"), "b");
+        repo.add(".");
+        repo.commit("one file");
+        Status status = repo.status();
+        assertEquals(List.of(), status.getUntracked());
+        assertEquals(Set.of("a.txt"), repo.getStory().getCurrentCommit()
+                .getFileNameToFileHash().keySet());
+        for (String name : List.of("sub", "sub/b.txt")) {
+            try {
+                repo.add(name);
+                fail();
+            } catch (GitletException excp) {
+                assertEquals("File does not exist.", excp.getMessage());
+            }
+        }
+    }
+
+    /** Tests the states a working tree snapshot gives each file. */
+    @Test
+    public void testWorkingTreeSnapshot() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        for (String path : new String[] {"kept", "gone/x", "new", "staged"}) {
+            File file = Utils.join(dir, path);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, path);
+        }
+        HashMap<String, String> tracked = new HashMap<>();
+        tracked.put("kept", Utils.sha1("kept"));
+        tracked.put("gone/x", Utils.sha1("gone/x"));
+        tracked.put("lost", Utils.sha1("lost"));
+        Staging staged = new Staging();
+        staged.put("staged", Utils.sha1("staged"));
+        HashSet<String> removed = new HashSet<>();
+        removed.add("gone/x");
+        Index index = new Index();
+        WorkingTreeSnapshot snapshot = new WorkingTreeSnapshot(dir,
+                new FileScanner(index, 2, true), tracked, staged, removed);
+        assertEquals(Set.of("kept", "gone/x", "new", "staged"),
+                snapshot.paths());
+        assertFalse(snapshot.exists("lost"));
+        assertTrue(snapshot.isTracked("lost"));
+        assertTrue(snapshot.isStaged("staged"));
+        assertEquals(new TreeSet<>(List.of("gone/x", "new")),
+                snapshot.untracked());
+        snapshot.hashAll(tracked.keySet());
+        assertEquals(2, index.getReads());
+        assertEquals(Utils.sha1("kept"), snapshot.hash("kept"));
+        assertNull(snapshot.hash("lost"));
+        assertEquals(Utils.sha1("new"), snapshot.hash("new"));
+        assertEquals(3, index.getReads());
+        staged.put("new", Utils.sha1("new"));
+        assertFalse(snapshot.isUntracked("new"));
+    }
+
+    /** Tests splitting the lines of a batch into arguments. */
+    @Test
+    public void testBatchSplit() {
+        assertEquals(List.of("commit", "fix the \"parser\""),
+                List.of(Batch.split("  commit \"fix the \\\"parser\\\"\"  ")));
+        assertEquals(List.of("commit", "it's", "a b"),
+                List.of(Batch.split("commit it\"'\"s 'a b'")));
+        assertEquals(List.of("find", ""), List.of(Batch.split("find ''")));
+        assertEquals(0, Batch.split(" \t ").length);
+        try {
+            Batch.split("commit \"open");
+            fail();
+        } catch (GitletException excp) {
+            assertEquals("Unterminated quote.", excp.getMessage());
+        }
+    }
+
+    /** Tests a repository opened on a directory other than the working
+     *  one, through its typed results. */
+    @Test
+    public void testRepository() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        Repository repo = Repository.init(dir);
+        Utils.writeContents(Utils.join(dir, "a.txt"), "a\n");
+        Utils.writeContents(Utils.join(dir, "b.txt"), "b\n");
+        repo.add("a.txt", "b.txt");
+        Commit first = repo.commit("two files");
+        repo.branch("other");
+        Utils.writeContents(Utils.join(dir, "a.txt"), "master\n");
+        repo.add("a.txt");
+        repo.commit("change a");
+        repo.checkoutBranch("other");
+        assertEquals("a\n", Utils.readContentsAsString(
+                Utils.join(dir, "a.txt")));
+        Utils.writeContents(Utils.join(dir, "a.txt"), "other\n");
+        Utils.writeContents(Utils.join(dir, "new.txt"), "new\n");
+        repo.rm("b.txt");
+
+        Status status = Repository.open(dir).status();
+        assertEquals("other", status.getCurrentBranch());
+        assertEquals(List.of("master", "other"), status.getBranches());
+        assertEquals(List.of("b.txt"), status.getRemoved());
+        assertEquals(Map.of("a.txt", Status.MODIFIED), status.getModified());
+        assertEquals(List.of("new.txt"), status.getUntracked());
+
+        repo.add("a.txt");
+        repo.commit("change a too");
+        repo.checkoutBranch("master");
+        MergeResult merge = repo.merge("other");
+        assertFalse(merge.isFastForward());
+        assertEquals(List.of("a.txt"), merge.getConflicts());
+        assertEquals("Merged other into master.",
+                merge.getCommit().getMessage());
+        List<String> messages = new ArrayList<>();
+        for (Iterator<Commit> log = repo.log(); log.hasNext();) {
+            messages.add(log.next().getMessage());
+        }
+        assertEquals(List.of("Merged other into master.", "change a",
+                "two files", "initial commit"), messages);
+        assertEquals(List.of(first.getHash()), repo.find("two files"));
+        assertFalse(repo.globalLog(1, null).next().getMessage().isEmpty());
+        try {
+            repo.merge("nope");
+            fail();
+        } catch (GitletException excp) {
+            assertEquals("A branch with that name does not exist",
+                    excp.getMessage());
+        }
+        assertTrue(repo.status().getStaged().isEmpty());
+
+        Iterator<Commit> all = repo.globalLog(Long.MAX_VALUE, null);
+        int seen = 1;
+        all.next();
+        Utils.writeContents(Utils.join(dir, "a.txt"), "after the log\n");
+        repo.add("a.txt");
+        repo.commit("after the log");
+        for (; all.hasNext(); all.next()) {
+            seen += 1;
+        }
+        assertEquals(5, seen);
+    }
+
+    /** Tests that generated repositories depend only on their options,
+     *  and open with their files checked out. */
+    @Test
+    public void testGenerator() throws IOException {
+        Map<String, String> options = Map.of("--commits", "200",
+                "--files", "50", "--size", "64", "--branch-rate", "0.2",
+                "--merge-rate", "0.2");
+        String[] heads = new String[2];
+        for (int threads = 1; threads <= 2; threads += 1) {
+            File dir = Files.createTempDirectory("gitlet").toFile();
+            Map<String, String> these = new HashMap<>(options);
+            these.put("--threads", String.valueOf(threads));
+            Commit head = new Generator(Repository.init(dir), these).run();
+            heads[threads - 1] = head.getHash();
+            Repository repo = Repository.open(dir);
+            Status status = repo.status();
+            assertTrue(status.isClean());
+            assertTrue(status.getBranches().size() > 1);
+            assertEquals(head.getHash(), repo.log().next().getHash());
+            int commits = 0;
+            for (Iterator<Commit> log = repo.globalLog(Long.MAX_VALUE, null);
+                 log.hasNext(); log.next()) {
+                commits += 1;
+            }
+            assertEquals(202, commits);
+        }
+        assertEquals(heads[0], heads[1]);
+        Map<String, String> other = new HashMap<>(options);
+        other.put("--seed", "2");
+        Commit head = new Generator(Repository.init(
+                Files.createTempDirectory("gitlet").toFile()), other).run();
+        assertNotEquals(heads[0], head.getHash());
+    }
+
+    /** Tests that the daemon runs the commands forwarded to it, sends
+     *  back what they print, sees changes made by other processes, and
+     *  drops a client that sends nothing. */
+    @Test
+    public void testDaemon() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        Repository repo = Repository.init(dir);
+        Thread daemon = new Thread(new Daemon(new Repository(dir),
+                200)::serve);
+        daemon.start();
+        try {
+            for (int i = 0; i < 500 && !Client.forward(repo); i += 1) {
+                Thread.sleep(10);
+            }
+            Utils.writeContents(Utils.join(dir, "a.txt"), "a\n");
+            assertEquals("", forward(repo, "add", "a.txt"));
+            assertEquals("", forward(repo, "commit", "through the daemon"));
+            assertEquals(List.of(repo.log().next().getHash()),
+                    repo.find("through the daemon"));
+            assertTrue(forward(repo, "log").contains("through the daemon"));
+            assertEquals("No command with that name exists.",
+                    forward(repo, "nope"));
+
+            Repository.open(dir).branch("elsewhere");
+            assertTrue(forward(repo, "status").contains("elsewhere"));
+            assertEquals("A Gitlet version-control system already exists "
+                    + "in the current directory.", forward(repo, "init"));
+            try (SocketChannel silent = SocketChannel.open(
+                    UnixDomainSocketAddress.of(
+                            repo.getSocketFile().toPath()))) {
+                assertTrue(forward(repo, "status").contains("elsewhere"));
+            }
+        } finally {
+            forward(repo, "daemon", "stop");
+            daemon.join(5000);
+        }
+        assertFalse(daemon.isAlive());
+        assertFalse(repo.getSocketFile().exists());
+    }
+
+    /** Returns what the command ARGS prints when forwarded to the daemon
+     *  of REPO. */
+    private static String forward(Repository repo, String... args) {
+        PrintStream console = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            assertTrue(Client.forward(repo, args));
+        } finally {
+            System.setOut(console);
+        }
+        return out.toString();
+    }
+
+    /** Tests that checking out a file writes it through the scratch
+     *  folder, leaving other files of the working directory alone. */
+    @Test
+    public void testCheckoutFile() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        Repository repo = Repository.init(dir);
+        Utils.writeContents(Utils.join(dir, "a.txt"), "a\n");
+        repo.add("a.txt");
+        repo.commit("a");
+        Utils.writeContents(Utils.join(dir, "a.txt"), "changed\n");
+        File precious = Utils.join(dir, ".gitlet-a.txt.tmp");
+        Utils.writeContents(precious, "precious\n");
+        repo.checkoutFile("a.txt");
+        assertEquals("a\n", Utils.readContentsAsString(
+                Utils.join(dir, "a.txt")));
+        assertEquals("precious\n", Utils.readContentsAsString(precious));
+        assertEquals(List.of(), Utils.plainFilenamesIn(
+                repo.getScratchFolder()));
+    }
+
+    /** Tests that a checkout with a missing blob changes nothing, and
+     *  that only its own scratch files are deleted. */
+    @Test
+    public void testMaterializer() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        BlobStore blobs = new BlobStore(new File(dir, "blobs"));
+        blobs.init();
+        File source = new File(dir, "source");
+        Utils.writeContents(source, "apple");
+        blobs.write(Utils.sha1(source), source);
+        File root = new File(dir, "root");
+        root.mkdir();
+        Utils.writeContents(new File(root, "old.txt"), "old");
+        File scratch = new File(dir, "scratch");
+        scratch.mkdir();
+        Utils.writeContents(new File(scratch, "checkout-0"), "other");
+        TreeMap<String, String> writes = new TreeMap<>();
+        for (int i = 0; i < 8; i += 1) {
+            writes.put("a/f" + i, Utils.sha1(source));
+        }
+        writes.put("b/missing", Utils.sha1("missing"));
+        for (int threads : new int[] {1, 4}) {
+            try {
+                new Materializer(blobs, scratch, threads).apply(root, writes,
+                        List.of("old.txt"));
+                fail();
+            } catch (GitletException excp) {
+                assertEquals(List.of("checkout-0"),
+                        Utils.plainFilenamesIn(scratch));
+                assertEquals(List.of("old.txt"),
+                        Utils.plainFilenamesUnder(root));
+            }
+        }
+        writes.remove("b/missing");
+        assertEquals(List.of("old.txt"), new Materializer(blobs, scratch, 4)
+                .apply(root, writes, List.of("old.txt")));
+        assertEquals(new ArrayList<>(writes.keySet()),
+                Utils.plainFilenamesUnder(root));
+        assertEquals("apple",
+                Utils.readContentsAsString(new File(root, "a/f7")));
+        assertEquals(List.of("checkout-0"), Utils.plainFilenamesIn(scratch));
+    }
+
+    /** Tests that a move that fails undoes the moves of a checkout. */
+    @Test
+    public void testMaterializerRollback() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        BlobStore blobs = new BlobStore(new File(dir, "blobs"));
+        blobs.init();
+        File source = new File(dir, "source");
+        Utils.writeContents(source, "apple");
+        blobs.write(Utils.sha1(source), source);
+        File root = new File(dir, "root");
+        Utils.join(root, "d/x").mkdirs();
+        Utils.join(root, "old").mkdirs();
+        Utils.writeContents(Utils.join(root, "d/x/keep"), "keep");
+        Utils.writeContents(Utils.join(root, "a.txt"), "was");
+        Utils.writeContents(Utils.join(root, "old/old.txt"), "old");
+        File scratch = new File(dir, "scratch");
+        TreeMap<String, String> writes = new TreeMap<>();
+        writes.put("a.txt", Utils.sha1(source));
+        writes.put("b/new.txt", Utils.sha1(source));
+        writes.put("d/x", Utils.sha1(source));
+        try {
+            new Materializer(blobs, scratch, 1).apply(root, writes,
+                    List.of("old/old.txt"));
+            fail();
+        } catch (IllegalArgumentException excp) {
+            assertEquals(List.of("a.txt", "d/x/keep", "old/old.txt"),
+                    Utils.plainFilenamesUnder(root));
+            assertEquals("was",
+                    Utils.readContentsAsString(new File(root, "a.txt")));
+            assertEquals("old", Utils.readContentsAsString(
+                    Utils.join(root, "old/old.txt")));
+            assertEquals(List.of(), Utils.plainFilenamesIn(scratch));
+        }
+    }
+
+    /** Tests migrating a raw store to deflated objects. */
+    @Test
+    public void testCompress() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        ObjectStore raw = new ObjectStore(dir, true);
+        String text = "hello, hello, hello, hello, hello, hello";
+        raw.write(Utils.sha1(text), text.getBytes());
+        raw.repack(new HashMap<>());
+        raw.write(Utils.sha1("world"), "world".getBytes());
+        assertFalse(raw.isDeflated());
+        assertEquals(2, raw.compress(new HashMap<>()));
+        ObjectStore deflated = new ObjectStore(dir, true);
+        assertTrue(deflated.isDeflated());
+        assertEquals(text, new String(deflated.read(Utils.sha1(text))));
+        assertEquals("world", new String(deflated.read(Utils.sha1("world"))));
+    }
+
+    /** Tests that a store whose migration to deflated objects was cut
+     *  short reads raw and deflated objects alike, and that compressing
+     *  it again converts only the objects left raw. */
+    @Test
+    public void testCompressResumed() throws IOException {
+        File dir = Files.createTempDirectory("gitlet").toFile();
+        ObjectStore raw = new ObjectStore(dir, true);
+        String text = "hello, hello, hello, hello, hello, hello";
+        for (String contents : List.of(text, "world", "loose")) {
+            raw.write(Utils.sha1(contents), contents.getBytes());
+            if (contents.equals("world")) {
+                raw.repack(new HashMap<>());
+            }
+        }
+        File other = Files.createTempDirectory("gitlet").toFile();
+        ObjectStore converted = new ObjectStore(other, true);
+        converted.init();
+        converted.write(Utils.sha1("loose"), "loose".getBytes());
+        Files.copy(new File(other, Utils.sha1("loose")).toPath(),
+                new File(dir, Utils.sha1("loose")).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Utils.writeContents(new File(dir, "compressing"), "");
+        ObjectStore mixed = new ObjectStore(dir, true);
+        for (String contents : List.of(text, "world", "loose")) {
+            assertEquals(contents,
+                    new String(mixed.read(Utils.sha1(contents))));
+        }
+        assertEquals(2, mixed.compress(new HashMap<>()));
+        assertFalse(new File(dir, "compressing").exists());
+        ObjectStore deflated = new ObjectStore(dir, true);
+        assertTrue(deflated.isDeflated());
+        for (String contents : List.of(text, "world", "loose")) {
+            assertEquals(contents,
+                    new String(deflated.read(Utils.sha1(contents))));
+        }
+        assertEquals(0, deflated.compress(new HashMap<>()));
+    }
+
+    /** Tests that a delta rebuilds an edited file from its base. */
+    @Test
+    public void testDelta() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i += 1) {
+            text.append("line ").append(i).append("\n");
+        }
+        byte[] base = text.toString().getBytes();
+        byte[] target = text.insert(500, "inserted").delete(1000, 1100)
+                .toString().getBytes();
+        byte[] delta = Delta.create(base, target);
+        assert (delta.length < target.length / 4);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertArrayEquals(base, Delta.apply(target,
+                Delta.create(target, base)));
+        assertArrayEquals(new byte[0], Delta.apply(base,
+                Delta.create(base, new byte[0])));
+    }
+
+    /** Tests that an insertion only changes the chunks around it. */
+    @Test
+    public void testChunkerShift() throws IOException {
+        byte[] data = new byte[1 << 20];
+        new Random(61).nextBytes(data);
+        byte[] edited = new byte[data.length + 100];
+        System.arraycopy(data, 0, edited, 0, 5000);
+        System.arraycopy(data, 5000, edited, 5100, data.length - 5000);
+        List<String> before = chunkHashes(data);
+        List<String> after = chunkHashes(edited);
+        HashSet<String> shared = new HashSet<>(before);
+        shared.retainAll(after);
+        assertTrue(shared.size() >= before.size() - 3);
+    }
+
+    /** Returns the hashes of the content-defined chunks of DATA. */
+    private static List<String> chunkHashes(byte[] data)
+        throws IOException {
+        List<String> result = new ArrayList<>();
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+        for (byte[] chunk = chunker.next(); chunk != null;
+             chunk = chunker.next()) {
+            assertTrue(chunk.length <= Chunker.MAX_SIZE);
+            result.add(Utils.sha1(chunk));
+        }
+        return result;
+    }
+
+    /** Tests that a commit survives the binary codec. */
+    @Test
+    public void testCommitCodec() {
+        HashMap<String, String> files = new HashMap<>();
+        files.put("a.txt", Utils.sha1("a"));
+        files.put("b.txt", Utils.sha1("b"));
+        Commit test = new Commit("codec", Commit.DATEFORMAT.format(new Date(0)),
+                Commit.EMPTYCOMMIT.getHash(), files);
+        test.setParent2Hash(Utils.sha1("other"));
+        Commit decoded = Commit.decode(test.encode());
+        assertEquals(test.getHash(), decoded.getHash());
+        assertEquals(test.getParentHash(), decoded.getParentHash());
+        assertEquals(test.getParent2Hash(), decoded.getParent2Hash());
+        assertEquals(test.toString(), decoded.toString());
+        assertEquals(files, decoded.getFileNameToFileHash());
+        Commit legacy = Commit.decode(Utils.serialize(test));
+        assertEquals(test.getHash(), legacy.getHash());
+    }
+
+    /** Tests that the commit cache evicts the least recently used. */
+    @Test
+    public void testCommitCache() {
+        CommitCache cache = new CommitCache(3);
+        Commit a = new Commit("a", Commit.DATEFORMAT.format(new Date(0)),
+                null, new HashMap<String, String>());
+        Commit b = new Commit("b", Commit.DATEFORMAT.format(new Date(0)),
+                null, new HashMap<String, String>());
+        HashMap<String, String> files = new HashMap<>();
+        files.put("c.txt", Utils.sha1("c"));
+        Commit c = new Commit("c", Commit.DATEFORMAT.format(new Date(0)),
+                a.getHash(), files);
+        cache.put(a);
+        cache.put(b);
+        assertEquals(a, cache.get(a.getHash()));
+        cache.put(c);
+        assertNull(cache.get(b.getHash()));
+        assertEquals(c, cache.get(c.getHash()));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    /** Tests ancestry through the commit graph, both in and out of its
+     *  file. */
+    @Test
+    public void testCommitGraph() throws IOException {
+        String date = Commit.DATEFORMAT.format(new Date(0));
+        HashMap<String, String> none = new HashMap<>();
+        Commit root = new Commit("root", date, null, none);
+        Commit a = new Commit("a", date, root.getHash(), none);
+        Commit b = new Commit("b", date, root.getHash(), none);
+        Commit merge = new Commit("merge", date, a.getHash(), none);
+        merge.setParent2Hash(b.getHash());
+        Commit tip = new Commit("tip", date, merge.getHash(), none);
+        Repository repo = new Repository(
+                Files.createTempDirectory("repo").toFile());
+        for (Commit commit : new Commit[] {root, a, b, merge, tip}) {
+            repo.getCommitCache().put(commit);
+        }
+        CommitGraph loose = new CommitGraph(repo);
+        assertEquals(4, loose.generation(tip.getHash()));
+        assertTrue(loose.isAncestor(b.getHash(), tip.getHash()));
+        assertFalse(loose.isAncestor(a.getHash(), b.getHash()));
+        File file = Files.createTempFile("graph", "").toFile();
+        List<String> hashes = new ArrayList<>();
+        for (Commit commit : new Commit[] {root, a, b, merge}) {
+            hashes.add(commit.getHash());
+        }
+        loose.write(file, hashes);
+        CommitGraph graph = CommitGraph.fromFile(file, repo);
+        assertEquals(4, graph.size());
+        assertEquals(3, graph.generation(merge.getHash()));
+        assertEquals(4, graph.generation(tip.getHash()));
+        assertTrue(graph.isAncestor(root.getHash(), tip.getHash()));
+        assertTrue(graph.isAncestor(b.getHash(), tip.getHash()));
+        assertFalse(graph.isAncestor(tip.getHash(), b.getHash()));
+        assertFalse(graph.isAncestor(b.getHash(), a.getHash()));
+        assertEquals(1, graph.getMissing());
+        file.delete();
+        repo.getRoot().delete();
+    }
+
+    /** Tests merge bases of a criss-cross history. */
+    @Test
+    public void testMergeBase() throws IOException {
+        HashMap<String, String[]> history = new HashMap<>();
+        String root = Utils.sha1("root");
+        String a1 = Utils.sha1("a1");
+        String b1 = Utils.sha1("b1");
+        String a2 = Utils.sha1("a2");
+        String b2 = Utils.sha1("b2");
+        String other = Utils.sha1("other");
+        history.put(root, new String[] {null, null});
+        history.put(a1, new String[] {root, null});
+        history.put(b1, new String[] {root, null});
+        history.put(a2, new String[] {a1, b1});
+        history.put(b2, new String[] {b1, a1});
+        history.put(other, new String[] {null, null});
+        CommitGraph graph = new CommitGraph(history::get);
+        String best = a1.compareTo(b1) < 0 ? a1 : b1;
+        assertEquals(best, graph.mergeBase(a2, b2));
+        assertEquals(best, graph.mergeBase(b2, a2));
+        assertEquals(root, graph.mergeBase(a1, b1));
+        assertEquals(a1, graph.mergeBase(a1, a2));
+        assertEquals(a2, graph.mergeBase(a2, a2));
+        assertNull(graph.mergeBase(a2, other));
+        assertEquals(5, graph.getMergeBasesCached());
+        File file = Files.createTempFile("graph", "").toFile();
+        List<String> hashes = new ArrayList<>(history.keySet());
+        hashes.remove(b2);
+        graph.write(file, hashes);
+        CommitGraph mapped = CommitGraph.fromFile(file, history::get);
+        assertEquals(best, mapped.mergeBase(b2, a2));
+        assertEquals(root, mapped.mergeBase(b1, a1));
+        assertNull(mapped.mergeBase(other, b2));
+        file.delete();
+    }
+
+    /** Tests abbreviated ids through the id index, before and after its
+     *  unsorted ids are merged into its table. */
+    @Test
+    public void testIdIndex() throws IOException {
+        File file = Files.createTempFile("ids", "").toFile();
+        file.delete();
+        String a = "abc" + "0".repeat(37);
+        String b = "abd" + "0".repeat(37);
+        String c = "abd1" + "0".repeat(36);
+        IdIndex ids = new IdIndex(file);
+        ids.create(List.of(a, b));
+        ids.add(c);
+        ids.save();
+        ids = new IdIndex(file);
+        assertEquals(3, ids.size());
+        assertEquals(a, ids.resolve("abc"));
+        assertEquals(c, ids.resolve("ABD1"));
+        assertEquals(b, ids.resolve(b));
+        assertEquals("abc", ids.abbreviate(a, 1));
+        assertEquals("abd0", ids.abbreviate(b, 1));
+        assertEquals("abd1", ids.abbreviate(c, 1));
+        assertEquals("abc000", ids.abbreviate(a, 6));
+        assertResolveFails(ids, "ab", "ambiguous");
+        assertResolveFails(ids, "", "ambiguous");
+        assertResolveFails(ids, "abe", "No commit");
+        assertResolveFails(ids, "xyz", "No commit");
+        for (int i = 0; i < IdIndex.MERGE_THRESHOLD; i += 1) {
+            ids.add(Utils.sha1(Integer.toString(i)));
+        }
+        ids.save();
+        ids = new IdIndex(file);
+        assertEquals(IdIndex.MERGE_THRESHOLD + 3, ids.size());
+        ids.add(Utils.sha1("recent"));
+        int seen = 0;
+        for (String id : ids) {
+            assertTrue(ids.contains(id));
+            seen += 1;
+        }
+        assertEquals(ids.size(), seen);
+        assertEquals(c, ids.resolve("abd1"));
+        String last = Utils.sha1(Integer.toString(7));
+        assertEquals(last, ids.resolve(ids.abbreviate(last, 4)));
+        file.delete();
+    }
+
+    /** Tests that the refs and the message index survive saving, and are
+     *  only written when they change. */
+    @Test
+    public void testStoryParts() throws IOException {
+        File refsFile = Files.createTempFile("refs", "").toFile();
+        HashMap<String, String> branches = new HashMap<>();
+        branches.put("master", Utils.sha1("a"));
+        Refs refs = new Refs("master", branches);
+        refs.put("dev", Utils.sha1("b"));
+        refs.saveRefs(refsFile);
+        refs = Refs.fromFile(refsFile);
+        assertEquals("master", refs.getHead());
+        assertEquals(Utils.sha1("b"), refs.get("dev"));
+        refsFile.delete();
+        refs.put("dev", Utils.sha1("b"));
+        refs.setHead("master");
+        refs.saveRefs(refsFile);
+        assertFalse(refsFile.exists());
+
+        File stagedFile = Files.createTempFile("staged", "").toFile();
+        stagedFile.delete();
+        Staging staged = Staging.fromFile(stagedFile);
+        assertTrue(staged.isEmpty());
+        staged.put("dir/b.txt", Utils.sha1("b"));
+        staged.put("a.txt", Utils.sha1("a"));
+        staged.saveStaging(stagedFile);
+        staged = Staging.fromFile(stagedFile);
+        assertEquals(List.of("a.txt", "dir/b.txt"),
+                new ArrayList<>(staged.keySet()));
+        assertEquals(Utils.sha1("b"), staged.get("dir/b.txt"));
+        stagedFile.delete();
+        staged.put("a.txt", Utils.sha1("a"));
+        staged.saveStaging(stagedFile);
+        assertFalse(stagedFile.exists());
+        staged.remove("a.txt");
+        staged.saveStaging(stagedFile);
+        assertEquals(1, Staging.fromFile(stagedFile).entries().size());
+        stagedFile.delete();
+
+        File msgFile = Files.createTempFile("messages", "").toFile();
+        msgFile.delete();
+        MessageIndex messages = new MessageIndex(msgFile);
+        messages.add("same", Utils.sha1("a"));
+        messages.save();
+        messages = new MessageIndex(msgFile);
+        messages.add("same", Utils.sha1("b"));
+        messages.add("other", Utils.sha1("c"));
+        messages.save();
+        messages = new MessageIndex(msgFile);
+        assertEquals(2, messages.find("same").size());
+        assertTrue(messages.find("other").contains(Utils.sha1("c")));
+        assertTrue(messages.find("none").isEmpty());
+        msgFile.delete();
+    }
+
+    @Test
+    public void testMessageSearch() throws IOException {
+        File msgFile = Files.createTempFile("messages", "").toFile();
+        File idxFile = new File(msgFile.getPath() + ".idx");
+        HashMap<String, Set<String>> ids = new HashMap<>();
+        for (int i = 0; i < 10000; i += 1) {
+            ids.computeIfAbsent("Fix bug " + (i % 100) + " in parser",
+                k -> new TreeSet<>()).add(Utils.sha1("m" + i));
+        }
+        ids.put("Add README", new TreeSet<>(List.of(Utils.sha1("readme"))));
+        MessageIndex messages = new MessageIndex(msgFile);
+        messages.create(ids);
+        assertTrue(idxFile.isFile());
+        messages = new MessageIndex(msgFile);
+        messages.add("Fix BUG 7 in lexer", Utils.sha1("tail"));
+        messages.save();
+        messages = new MessageIndex(msgFile);
+        messages.add("Speed up parser", Utils.sha1("pending"));
+
+        assertEquals(100, messages.find("Fix bug 7 in parser").size());
+        assertEquals(List.of(Utils.sha1("readme")),
+                messages.find("Add README"));
+        assertTrue(messages.find("Fix bug 7").isEmpty());
+        assertEquals(List.of(Utils.sha1("readme")), messages.grep("READ"));
+        assertEquals(List.of(Utils.sha1("pending")),
+                messages.grep("up par"));
+        assertEquals(List.of(Utils.sha1("tail")), messages.grep("BUG"));
+        assertEquals(1100, messages.grep("bug 7").size());
+        assertEquals(10003, messages.grep("").size());
+        assertEquals(List.of(Utils.sha1("tail")),
+                messages.findTokens("lexer bug"));
+        assertEquals(101, messages.findTokens("BUG 7").size());
+        assertEquals(10001, messages.findTokens("parser").size());
+        assertTrue(messages.findTokens("parser lexer").isEmpty());
+        msgFile.delete();
+        idxFile.delete();
+    }
+
+    /** Checks that resolving PREFIX in IDS fails with a MESSAGE. */
+    private static void assertResolveFails(IdIndex ids, String prefix,
+                                           String message) {
+        try {
+            ids.resolve(prefix);
+            fail(prefix);
+        } catch (GitletException excp) {
+            assertTrue(excp.getMessage().contains(message));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,13 +10,18 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -32,6 +38,21 @@ class Utils {
      * The length of a complete SHA-1 UID as a hexadecimal numeral.
      */
     static final int UID_LENGTH = 40;
+    /**
+     * Size of the buffers used to hash files.
+     */
+    static final int HASH_BUFFER_SIZE = 1 << 16;
+    /**
+     * Digits of hexadecimal numerals.
+     */
+    private static final char[] HEX_DIGITS =
+        "0123456789abcdef".toCharArray();
+    /**
+     * Direct buffer used to hash files, one per thread.
+     */
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+        ThreadLocal.withInitial(() ->
+            ByteBuffer.allocateDirect(HASH_BUFFER_SIZE));
     /**
      * Filter out all but plain files.
      */
@@ -59,16 +80,48 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the contents of FILE, which is read
+     * through a reusable buffer so that files of any size hash in
+     * constant memory.  Throws IllegalArgumentException in case of
+     * problems.
+     */
+    static String sha1(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = HASH_BUFFER.get();
+            buf.clear();
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
             }
-            return result.toString();
+            return toHex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /**
+     * Returns DIGEST as a hexadecimal numeral.
+     */
+    private static String toHex(byte[] digest) {
+        char[] result = new char[2 * digest.length];
+        for (int i = 0; i < digest.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /**
@@ -161,6 +214,38 @@ class Utils {
         }
     }
 
+    /**
+     * Replace the contents of FILE by CONTENTS, so that a crash leaves
+     * either the old contents or the new ones.  CONTENTS are written to a
+     * new file of a unique name beside FILE, forced to disk, then renamed
+     * over FILE.  Throws IllegalArgumentException in case of problems.
+     */
+    static void replaceContents(File file, byte[] contents) {
+        File temp = null;
+        try {
+            temp = Files.createTempFile(file.getAbsoluteFile()
+                    .getParentFile().toPath(), file.getName(), ".tmp")
+                    .toFile();
+            try (FileChannel out = FileChannel.open(temp.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(contents);
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                out.force(true);
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
     /**
      * Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      * Throws IllegalArgumentException in case of problems.
@@ -179,6 +264,24 @@ class Utils {
         }
     }
 
+    /**
+     * Return an object of type T decoded from BYTES, casting it to
+     * EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems.
+     */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                    new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /**
      * Write OBJ to FILE.
      */
@@ -200,8 +303,39 @@ class Utils {
             throw new GitletException("Trying to copy "
                     + "a file that doesnt exist");
         }
-        byte[] contents = Utils.readContents(current);
-        Utils.writeContents(Utils.join(to, finalName), contents);
+        copyContents(current, Utils.join(to, finalName));
+    }
+
+    /**
+     * Copy the contents of plain file FROM to file TO, creating or
+     * overwriting it as needed, through file channels so that the data
+     * need not pass through the heap.
+     */
+    static void copyContents(File from, File to) {
+        try (FileChannel in = FileChannel.open(from.toPath());
+             FileChannel out = FileChannel.open(to.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(in, 0, in.size(), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Copy COUNT bytes of IN starting at POSITION to the end of OUT,
+     * letting the operating system move the data where it can.
+     */
+    static void transfer(FileChannel in, long position, long count,
+                         FileChannel out) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long n = in.transferTo(position, end - position, out);
+            if (n <= 0 && position >= in.size()) {
+                throw new IOException("unexpected end of file");
+            }
+            position += n;
+        }
     }
 
     /**
@@ -228,6 +362,81 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /**
+     * Returns a list of the paths, relative to DIR and separated by '/',
+     * of all plain files in DIR and its subdirectories other than .gitlet,
+     * in lexicographic order as Java Strings.  Returns null if DIR does
+     * not denote a directory.
+     */
+    static List<String> plainFilenamesUnder(File dir) {
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        addFilenamesUnder(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Adds to RESULT the paths of the plain files under DIR, preceded by
+     * PREFIX.
+     */
+    private static void addFilenamesUnder(File dir, String prefix,
+                                          List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                result.add(prefix + file.getName());
+            } else if (file.isDirectory()
+                       && !file.getName().equals(".gitlet")) {
+                addFilenamesUnder(file, prefix + file.getName() + "/",
+                                  result);
+            }
+        }
+    }
+
+    /**
+     * Deletes the plain file at PATH, relative to ROOT and separated by
+     * '/', then each directory between it and ROOT that is left empty.
+     * Returns true if the file was deleted.
+     */
+    static boolean deleteUnder(File root, String path) {
+        File file = join(root, path);
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        pruneUnder(root, path);
+        return true;
+    }
+
+    /**
+     * Deletes each directory containing PATH, relative to the working
+     * directory ROOT, that is empty, from the innermost out.
+     */
+    static void pruneUnder(File root, String path) {
+        int slash = path.lastIndexOf('/');
+        while (slash > 0 && join(root, path.substring(0, slash)).delete()) {
+            slash = path.lastIndexOf('/', slash - 1);
+        }
+    }
+
+    /**
+     * Deletes the plain file at PATH, relative to the working directory
+     * ROOT, as {@link #deleteUnder(File, String)} does.  Refuses and
+     * throws IllegalArgumentException unless ROOT contains a directory
+     * named .gitlet.
+     */
+    static boolean restrictedDelete(File root, String path) {
+        if (!(new File(root, ".gitlet")).isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        return deleteUnder(root, path);
+    }
+
     /* OTHER FILE UTILITIES */
 
     /**
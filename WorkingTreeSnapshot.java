@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/** The working directory as one command sees it, next to the files of
+ *  the current commit and the staging area.  It is built from one walk
+ *  of the directory, and answers whether a path is present, tracked,
+ *  staged or removed with hash lookups.  Attributes are kept only for
+ *  the files that are tracked or staged, the only ones ever hashed, so
+ *  that an untracked tree of many files costs one path each.  Contents
+ *  are hashed on first use, in parallel for many paths at once, and
+ *  remembered.  A snapshot is stale once the command writes to the
+ *  working directory.
+ * @author Ryan Chen
+ */
+class WorkingTreeSnapshot {
+    /** Working directory.*/
+    private final File _root;
+    /** Scanner that listed and hashes the files.*/
+    private final FileScanner _scanner;
+    /** Blob id of each file of the current commit, by path.*/
+    private final Map<String, String> _tracked;
+    /** Files staged for addition.*/
+    private final Staging _staged;
+    /** Files staged for removal.*/
+    private final Set<String> _removed;
+    /** Path of every plain file of the working directory.*/
+    private final HashSet<String> _paths = new HashSet<>();
+    /** Attributes of the tracked or staged files present, by path.*/
+    private final HashMap<String, BasicFileAttributes> _attrs =
+            new HashMap<>();
+    /** Hash of each file hashed so far, by path.*/
+    private final HashMap<String, String> _hashes = new HashMap<>();
+
+    /** A snapshot of ROOT, listed and hashed with SCANNER, for a current
+     *  commit holding TRACKED, with STAGED files staged for addition and
+     *  REMOVED ones staged for removal.  The staging area is not copied,
+     *  so later changes to it are seen. */
+    WorkingTreeSnapshot(File root, FileScanner scanner,
+                        Map<String, String> tracked, Staging staged,
+                        Set<String> removed) {
+        _root = root;
+        _scanner = scanner;
+        _tracked = tracked;
+        _staged = staged;
+        _removed = removed;
+        scanner.walk(root, "", (path, attrs) -> {
+            _paths.add(path);
+            if (tracked.containsKey(path) || staged.containsKey(path)) {
+                _attrs.put(path, attrs);
+            }
+        });
+    }
+
+    /** Returns true if there is a plain file at PATH. */
+    boolean exists(String path) {
+        return _paths.contains(path);
+    }
+
+    /** Returns the paths of the plain files. */
+    Set<String> paths() {
+        return Collections.unmodifiableSet(_paths);
+    }
+
+    /** Returns true if PATH is in the current commit. */
+    boolean isTracked(String path) {
+        return _tracked.containsKey(path);
+    }
+
+    /** Returns the blob id of PATH in the current commit, or null. */
+    String trackedHash(String path) {
+        return _tracked.get(path);
+    }
+
+    /** Returns the paths of the files of the current commit. */
+    Set<String> tracked() {
+        return Collections.unmodifiableSet(_tracked.keySet());
+    }
+
+    /** Returns true if PATH is staged for addition. */
+    boolean isStaged(String path) {
+        return _staged.containsKey(path);
+    }
+
+    /** Returns true if PATH is staged for removal. */
+    boolean isRemoved(String path) {
+        return _removed.contains(path);
+    }
+
+    /** Returns true if there is a file at PATH that is neither staged
+     *  nor tracked, or is tracked but staged for removal. */
+    boolean isUntracked(String path) {
+        return exists(path) && !isStaged(path)
+                && (!isTracked(path) || isRemoved(path));
+    }
+
+    /** Returns the untracked files, in order. */
+    SortedSet<String> untracked() {
+        TreeSet<String> result = new TreeSet<>();
+        for (String path : _paths) {
+            if (isUntracked(path)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the hash of the file at PATH, or null if there is none. */
+    String hash(String path) {
+        hashAll(List.of(path));
+        return _hashes.get(path);
+    }
+
+    /** Hashes the files at PATHS that are present, in parallel, so that
+     *  hash answers for each of them without reading. */
+    void hashAll(Collection<String> paths) {
+        HashMap<String, BasicFileAttributes> wanted = new HashMap<>();
+        List<String> untracked = new ArrayList<>();
+        for (String path : paths) {
+            if (!exists(path) || _hashes.containsKey(path)) {
+                continue;
+            }
+            BasicFileAttributes attrs = _attrs.get(path);
+            if (attrs == null) {
+                untracked.add(path);
+            } else {
+                wanted.put(path, attrs);
+            }
+        }
+        _hashes.putAll(_scanner.hash(_root, wanted));
+        for (String path : untracked) {
+            _hashes.putAll(_scanner.scan(_root, path));
+        }
+    }
+}
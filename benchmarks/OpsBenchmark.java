@@ -0,0 +1,256 @@
+package gitlet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/** JMH benchmarks of the operations of Story and Utils: add, makeCommit,
+ *  status, log, checkout of a branch, resolving abbreviated ids, finding
+ *  the split point with a branch, and sha1.
+ *
+ *  Each runs on a repository built in a temporary directory, of FILES
+ *  files of SIZE random bytes and COMMITS commits, each changing a
+ *  fiftieth of the files, with a branch at the middle commit, for each
+ *  shape FILESxCOMMITSxSIZE of the shape parameter.  Other shapes are run
+ *  with -p shape=FILESxCOMMITSxSIZE,...  and the results written as JSON
+ *  with -rf json.  The files lie in subdirectories, so the benchmarks
+ *  fork with -Dgitlet.recursive=true.
+ * @author Ryan Chen
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dgitlet.recursive=true")
+public class OpsBenchmark {
+
+    /** A repository built for the trial of one benchmark and shape. */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        /** Shape of the repository, FILESxCOMMITSxSIZE.*/
+        @Param({"100x100x4096", "1000x100x4096", "100x1000x4096",
+            "100x100x262144"})
+        public String shape;
+
+        /** Working directory of the repository.*/
+        private File _dir;
+        /** The repository.*/
+        private Repository _repo;
+        /** Its story, loaded once.*/
+        private Story _story;
+        /** Name of the file changed by add and makeCommit.*/
+        private String _name;
+        /** The first eight digits of the id of every commit.*/
+        private String[] _abbreviations;
+        /** Index in _abbreviations of the next id resolved.*/
+        private int _next;
+        /** Contents of the last file written.*/
+        private byte[] _contents;
+        /** Source of the contents of the files.*/
+        private Random _random;
+
+        /** Builds the repository of SHAPE in a temporary directory. */
+        @Setup(Level.Trial)
+        public void build() throws IOException {
+            int[] sizes = parse(shape);
+            int files = sizes[0];
+            int commits = sizes[1];
+            int size = sizes[2];
+            _dir = Files.createTempDirectory("gitlet-ops").toFile();
+            _random = new Random(31L * (31L * files + commits) + size);
+            _contents = new byte[size];
+            _repo = Repository.init(_dir);
+            String[] names = new String[files];
+            for (int i = 0; i < files; i += 1) {
+                names[i] = String.format("d%02d/f%06d", i % 64, i);
+                File file = Utils.join(_dir, names[i]);
+                file.getParentFile().mkdirs();
+                write(file);
+            }
+            _repo.add(".");
+            _repo.commit("commit 0");
+            int churn = Math.max(1, files / 50);
+            for (int i = 1; i < commits; i += 1) {
+                String[] changed = new String[churn];
+                for (int j = 0; j < churn; j += 1) {
+                    changed[j] = names[_random.nextInt(files)];
+                    write(Utils.join(_dir, changed[j]));
+                }
+                _repo.add(changed);
+                _repo.commit("commit " + i);
+                if (i == commits / 2) {
+                    _repo.branch("side");
+                }
+            }
+            _name = names[0];
+            _story = _repo.getStory();
+            List<String> ids = _story.getIds().all();
+            _abbreviations = new String[ids.size()];
+            for (int i = 0; i < ids.size(); i += 1) {
+                _abbreviations[i] = ids.get(i).substring(0, 8);
+            }
+        }
+
+        /** Deletes the repository. */
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            try (Stream<Path> paths = Files.walk(_dir.toPath())) {
+                paths.sorted(Comparator.reverseOrder())
+                        .forEach(path -> path.toFile().delete());
+            }
+        }
+
+        /** Writes new random contents to the file changed by add and
+         *  makeCommit. */
+        void change() {
+            write(Utils.join(_dir, _name));
+        }
+
+        /** Writes new random contents to FILE. */
+        private void write(File file) {
+            _random.nextBytes(_contents);
+            Utils.writeContents(file, _contents);
+        }
+
+        /** Returns the files, commits and file size of SHAPE. */
+        private static int[] parse(String shape) {
+            String[] parts = shape.split("x");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("bad shape " + shape);
+            }
+            int[] result = new int[3];
+            for (int i = 0; i < 3; i += 1) {
+                result[i] = Integer.parseInt(parts[i]);
+            }
+            if (result[0] < 1 || result[1] < 2 || result[2] < 0) {
+                throw new IllegalArgumentException("bad shape " + shape);
+            }
+            return result;
+        }
+    }
+
+    /** The story of a repository read again before each call, so that no
+     *  commit is cached. */
+    @State(Scope.Thread)
+    public static class Fresh {
+        /** The story read.*/
+        private Story _story;
+
+        /** Reads the story of REPO. */
+        @Setup(Level.Invocation)
+        public void load(Repo repo) {
+            _story = Story.storyFromFile(repo._repo);
+        }
+    }
+
+    /** A repository whose file changed by add differs from the one staged
+     *  before each call. */
+    @State(Scope.Thread)
+    public static class Changed {
+        /** Changes the file of REPO and forgets the working directory
+         *  listed. */
+        @Setup(Level.Invocation)
+        public void change(Repo repo) {
+            repo.change();
+            repo._story.endCommand();
+        }
+    }
+
+    /** A repository with a changed file staged before each call. */
+    @State(Scope.Thread)
+    public static class Staged {
+        /** Changes the file of REPO and stages it. */
+        @Setup(Level.Invocation)
+        public void stage(Repo repo) {
+            repo.change();
+            repo._story.add(repo._name);
+        }
+    }
+
+    /** Hashes the contents of a file of REPO. */
+    @Benchmark
+    public String sha1(Repo repo) {
+        return Utils.sha1(repo._contents);
+    }
+
+    /** Resolves the abbreviated id of the next commit of REPO. */
+    @Benchmark
+    public String findFullHash(Repo repo) {
+        String id = repo._abbreviations[repo._next];
+        repo._next = (repo._next + 1) % repo._abbreviations.length;
+        return repo._story.findFullHash(id);
+    }
+
+    /** Finds the split point of master and the side branch through the
+     *  story of FRESH, with no commit cached. */
+    @Benchmark
+    public String complexSplitPoint(Fresh fresh) {
+        return fresh._story.complexSplitPoint("side");
+    }
+
+    /** Reads the whole log of REPO into HOLE. */
+    @Benchmark
+    public void log(Repo repo, Blackhole hole) {
+        for (Iterator<Commit> log = repo._repo.log(); log.hasNext();) {
+            hole.consume(log.next());
+        }
+    }
+
+    /** Computes the status of REPO, listing its working directory
+     *  afresh. */
+    @Benchmark
+    public Object statusExtra(Repo repo) {
+        repo._story.endCommand();
+        return repo._story.status();
+    }
+
+    /** Checks out the side branch of REPO and then master again. */
+    @Benchmark
+    public Object copyAndDelete(Repo repo, Blackhole hole) {
+        hole.consume(repo._story.checkoutBranch("side"));
+        return repo._story.checkoutBranch("master");
+    }
+
+    /** Stages the changed file of REPO.  As each call changes the
+     *  repository, calls are timed one at a time. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 100)
+    public void add(Repo repo, Changed changed) {
+        repo._story.add(repo._name);
+    }
+
+    /** Commits the file staged in REPO.  As each call adds a commit,
+     *  calls are timed one at a time so that the history grows by no more
+     *  than their number. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 100)
+    public Object makeCommit(Repo repo, Staged staged) {
+        return repo._story.makeCommit("timed");
+    }
+}